@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jcraft.jsch;
+
+/**
+ * Creates JSch directory entries from their attributes, for the sessions of another SSH
+ * client to be used where the file type is {@link ChannelSftp.LsEntry}.
+ * <p>
+ * JSch only creates the entries from the SFTP wire format, with package private methods:
+ * this class lives in the JSch package to reach them without reflection. The attributes
+ * are encoded as on the wire and decoded by JSch itself, so they do not depend on the
+ * fields of {@link SftpATTRS}.
+ *
+ * @since 2.1.6
+ */
+public final class SftpLsEntries {
+
+	private static final int FLAGS = SftpATTRS.SSH_FILEXFER_ATTR_SIZE | SftpATTRS.SSH_FILEXFER_ATTR_UIDGID
+			| SftpATTRS.SSH_FILEXFER_ATTR_PERMISSIONS | SftpATTRS.SSH_FILEXFER_ATTR_ACMODTIME;
+
+	/**
+	 * The entries are inner instances of a channel; this one is never connected.
+	 */
+	private static final ChannelSftp CHANNEL = new ChannelSftp();
+
+	private SftpLsEntries() {
+		super();
+	}
+
+	/**
+	 * Create an entry.
+	 * @param filename the file name.
+	 * @param longname the long name, as listed by {@code ls -l}.
+	 * @param size the size.
+	 * @param uid the user id.
+	 * @param gid the group id.
+	 * @param permissions the permissions, including the file type bits.
+	 * @param atime the access time, in seconds.
+	 * @param mtime the modification time, in seconds.
+	 * @return the entry.
+	 */
+	public static ChannelSftp.LsEntry of(String filename, String longname, long size, int uid, int gid,
+			int permissions, int atime, int mtime) {
+		Buffer buffer = new Buffer(new byte[32]);
+		buffer.putInt(FLAGS);
+		buffer.putLong(size);
+		buffer.putInt(uid);
+		buffer.putInt(gid);
+		buffer.putInt(permissions);
+		buffer.putInt(atime);
+		buffer.putInt(mtime);
+		return CHANNEL.new LsEntry(filename, longname, SftpATTRS.getATTR(buffer));
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.integration.file.filters.FileListFilter;
+import org.springframework.integration.file.filters.ResettableFileListFilter;
+import org.springframework.integration.file.filters.ReversibleFileListFilter;
+import org.springframework.messaging.Message;
+
+/**
+ * Times a filter ({@code sftp.source.filter}) and counts the files it accepts and rejects
+ * ({@code sftp.source.files}, outcome {@code accepted} or {@code rejected}). Rollback and
+ * removal are forwarded to the delegate, so that wrapping a persistent filter does not
+ * change its behavior.
+ *
+ * @param <F> the file type.
+ * @since 2.1.6
+ */
+public class MeteredFileListFilter<F> implements ReversibleFileListFilter<F>, ResettableFileListFilter<F>, Closeable {
+
+	public static final String FILTER_TIMER = "sftp.source.filter";
+
+	public static final String FILES_COUNTER = "sftp.source.files";
+
+	private final FileListFilter<F> delegate;
+
+	private final SftpMetrics metrics;
+
+	private final Function<Message<?>, String[]> tags;
+
+	/**
+	 * @param delegate the filter.
+	 * @param metrics the metrics.
+	 * @param tags provides the server and directory tags; called with a null message.
+	 */
+	public MeteredFileListFilter(FileListFilter<F> delegate, SftpMetrics metrics,
+			Function<Message<?>, String[]> tags) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+		this.tags = tags;
+	}
+
+	@Override
+	public List<F> filterFiles(F[] files) {
+		long start = System.nanoTime();
+		List<F> accepted = this.delegate.filterFiles(files);
+		String[] tags = this.tags.apply(null);
+		this.metrics.record(start, FILTER_TIMER, tags);
+		this.metrics.count(accepted.size(), FILES_COUNTER, SftpMetrics.withOutcome(tags, "accepted"));
+		this.metrics.count(files.length - accepted.size(), FILES_COUNTER, SftpMetrics.withOutcome(tags, "rejected"));
+		return accepted;
+	}
+
+	@Override
+	public void rollback(F file, List<F> files) {
+		if (this.delegate instanceof ReversibleFileListFilter) {
+			((ReversibleFileListFilter<F>) this.delegate).rollback(file, files);
+		}
+	}
+
+	@Override
+	public boolean remove(F fileToRemove) {
+		return this.delegate instanceof ResettableFileListFilter
+				&& ((ResettableFileListFilter<F>) this.delegate).remove(fileToRemove);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.delegate instanceof Closeable) {
+			((Closeable) this.delegate).close();
+		}
+	}
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.metrics;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.stream.app.sftp.common.session.ForwardingSession;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+
+/**
+ * Times the session operations ({@code sftp.session.operation}) and records the bytes
+ * transferred ({@code sftp.session.bytes}), tagged with the server and operation.
+ * The directory is deliberately not a tag of the session meters, since the paths of a
+ * recursive listing would make it unbounded.
+ *
+ * @since 2.1.6
+ */
+class MeteredSessionFactory implements SessionFactory<LsEntry>, DisposableBean {
+
+	static final String OPERATION_TIMER = "sftp.session.operation";
+
+	static final String BYTES_SUMMARY = "sftp.session.bytes";
+
+	private final SessionFactory<LsEntry> delegate;
+
+	private final SftpMetrics metrics;
+
+	private final String server;
+
+	MeteredSessionFactory(SessionFactory<LsEntry> delegate, SftpMetrics metrics, String server) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+		this.server = server;
+	}
+
+	@Override
+	public Session<LsEntry> getSession() {
+		long start = System.nanoTime();
+		try {
+			Session<LsEntry> session = new MeteredSession(this.delegate.getSession());
+			record(start, "connect", SftpMetrics.SUCCESS);
+			return session;
+		}
+		catch (RuntimeException e) {
+			record(start, "connect", SftpMetrics.FAILURE);
+			throw e;
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (this.delegate instanceof DisposableBean) {
+			((DisposableBean) this.delegate).destroy();
+		}
+	}
+
+	private void record(long start, String operation, String outcome) {
+		this.metrics.record(start, OPERATION_TIMER, SftpMetrics.SERVER, this.server,
+				SftpMetrics.OPERATION, operation, SftpMetrics.OUTCOME, outcome);
+	}
+
+	private void bytes(long bytes, String operation) {
+		this.metrics.summary(bytes, BYTES_SUMMARY, SftpMetrics.SERVER, this.server, SftpMetrics.OPERATION, operation);
+	}
+
+	private final class MeteredSession extends ForwardingSession {
+
+		MeteredSession(Session<LsEntry> delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public LsEntry[] list(String path) throws IOException {
+			long start = System.nanoTime();
+			try {
+				LsEntry[] entries = super.list(path);
+				record(start, "list", SftpMetrics.SUCCESS);
+				return entries;
+			}
+			catch (IOException | RuntimeException e) {
+				record(start, "list", SftpMetrics.FAILURE);
+				throw e;
+			}
+		}
+
+		@Override
+		public void read(String source, OutputStream outputStream) throws IOException {
+			long start = System.nanoTime();
+			CountingOutputStream counting = new CountingOutputStream(outputStream);
+			try {
+				super.read(source, counting);
+				record(start, "read", SftpMetrics.SUCCESS);
+				bytes(counting.count, "read");
+			}
+			catch (IOException | RuntimeException e) {
+				record(start, "read", SftpMetrics.FAILURE);
+				throw e;
+			}
+		}
+
+		@Override
+		public InputStream readRaw(String source) throws IOException {
+			long start = System.nanoTime();
+			try {
+				InputStream stream = new CountingInputStream(super.readRaw(source), "read");
+				record(start, "readRaw", SftpMetrics.SUCCESS);
+				return stream;
+			}
+			catch (IOException | RuntimeException e) {
+				record(start, "readRaw", SftpMetrics.FAILURE);
+				throw e;
+			}
+		}
+
+		@Override
+		public void write(InputStream inputStream, String destination) throws IOException {
+			long start = System.nanoTime();
+			CountingInputStream counting = new CountingInputStream(inputStream, null);
+			try {
+				super.write(counting, destination);
+				record(start, "write", SftpMetrics.SUCCESS);
+				bytes(counting.count, "write");
+			}
+			catch (IOException | RuntimeException e) {
+				record(start, "write", SftpMetrics.FAILURE);
+				throw e;
+			}
+		}
+
+		@Override
+		public boolean remove(String path) throws IOException {
+			long start = System.nanoTime();
+			try {
+				boolean removed = super.remove(path);
+				record(start, "remove", SftpMetrics.SUCCESS);
+				return removed;
+			}
+			catch (IOException | RuntimeException e) {
+				record(start, "remove", SftpMetrics.FAILURE);
+				throw e;
+			}
+		}
+
+		@Override
+		public void rename(String pathFrom, String pathTo) throws IOException {
+			long start = System.nanoTime();
+			try {
+				super.rename(pathFrom, pathTo);
+				record(start, "rename", SftpMetrics.SUCCESS);
+			}
+			catch (IOException | RuntimeException e) {
+				record(start, "rename", SftpMetrics.FAILURE);
+				throw e;
+			}
+		}
+
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+
+	}
+
+	/**
+	 * Counts the bytes read; when an operation is given, records them on close (the end of
+	 * a raw read).
+	 */
+	private final class CountingInputStream extends FilterInputStream {
+
+		private final String operation;
+
+		private long count;
+
+		private boolean closed;
+
+		CountingInputStream(InputStream in, String operation) {
+			super(in);
+			this.operation = operation;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = this.in.read();
+			if (b >= 0) {
+				this.count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = this.in.read(b, off, len);
+			if (n > 0) {
+				this.count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = this.in.skip(n);
+			this.count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			if (this.operation != null && !this.closed) {
+				this.closed = true;
+				bytes(this.count, this.operation);
+			}
+		}
+
+	}
+
+}
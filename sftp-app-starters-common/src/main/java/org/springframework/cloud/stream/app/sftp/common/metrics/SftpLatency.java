@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.metrics;
+
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * The headers stamped on the messages of a file by the source, in epoch milliseconds, and
+ * the recording of the time between two of them (a stage) in a percentile histogram.
+ *
+ * @since 2.1.6
+ */
+public final class SftpLatency {
+
+	/**
+	 * The modification time of the remote file.
+	 */
+	public static final String REMOTE_MODIFIED = "sftp_remoteModified";
+
+	/**
+	 * When the file was first listed by the source.
+	 */
+	public static final String DISCOVERED = "sftp_discovered";
+
+	/**
+	 * When the transfer of the file started.
+	 */
+	public static final String TRANSFER_STARTED = "sftp_transferStarted";
+
+	/**
+	 * When the transfer of the file ended.
+	 */
+	public static final String TRANSFER_ENDED = "sftp_transferEnded";
+
+	/**
+	 * When the message was sent to the output destination.
+	 */
+	public static final String EMITTED = "sftp_emitted";
+
+	/**
+	 * The server the file was fetched from: the key of the server when polling multiple
+	 * servers, otherwise the host.
+	 */
+	public static final String SERVER = "sftp_server";
+
+	public static final String STAGE = "stage";
+
+	private SftpLatency() {
+		super();
+	}
+
+	/**
+	 * Record the time between two instants, if both are known.
+	 * @param metrics the metrics.
+	 * @param name the timer name.
+	 * @param server the server tag.
+	 * @param stage the stage tag.
+	 * @param from the start of the stage in epoch milliseconds.
+	 * @param to the end of the stage in epoch milliseconds.
+	 */
+	public static void record(SftpMetrics metrics, String name, @Nullable String server, String stage,
+			@Nullable Long from, @Nullable Long to) {
+		if (from != null && to != null && to >= from) {
+			metrics.histogram(to - from, name, SftpMetrics.SERVER, server, STAGE, stage);
+		}
+	}
+
+	@Nullable
+	public static Long get(MessageHeaders headers, String header) {
+		Object value = headers.get(header);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Long.valueOf((String) value);
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.lang.Nullable;
+
+/**
+ * Records the timers, counters and distribution summaries of the SFTP apps; a no-op when
+ * there is no {@link MeterRegistry}.
+ * <p>
+ * Meters are looked up once per name and tags and cached, so recording costs a map lookup
+ * and the registry's own update.
+ *
+ * @since 2.1.6
+ */
+public class SftpMetrics {
+
+	public static final String SERVER = "server";
+
+	public static final String DIRECTORY = "directory";
+
+	public static final String OPERATION = "operation";
+
+	public static final String OUTCOME = "outcome";
+
+	public static final String SUCCESS = "success";
+
+	public static final String FAILURE = "failure";
+
+	private static final String NONE = "none";
+
+	private final MeterRegistry registry;
+
+	private final Map<MeterKey, Timer> timers = new ConcurrentHashMap<>();
+
+	private final Map<MeterKey, Counter> counters = new ConcurrentHashMap<>();
+
+	private final Map<MeterKey, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+	private final Map<MeterKey, Timer> histograms = new ConcurrentHashMap<>();
+
+	public SftpMetrics(@Nullable MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	public boolean isEnabled() {
+		return this.registry != null;
+	}
+
+	/**
+	 * Record the time elapsed since {@code start}.
+	 * @param start the {@link System#nanoTime()} at the start.
+	 * @param name the timer name.
+	 * @param tags the tag key/value pairs.
+	 */
+	public void record(long start, String name, String... tags) {
+		if (this.registry != null) {
+			meter(this.timers, name, tags, t -> Timer.builder(name).tags(t).register(this.registry))
+					.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Record a duration.
+	 * @param nanos the duration in nanoseconds.
+	 * @param name the timer name.
+	 * @param tags the tag key/value pairs.
+	 */
+	public void time(long nanos, String name, String... tags) {
+		if (this.registry != null) {
+			meter(this.timers, name, tags, t -> Timer.builder(name).tags(t).register(this.registry))
+					.record(nanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	public void count(long amount, String name, String... tags) {
+		if (this.registry != null) {
+			meter(this.counters, name, tags, t -> Counter.builder(name).tags(t).register(this.registry))
+					.increment(amount);
+		}
+	}
+
+	public void summary(double amount, String name, String... tags) {
+		if (this.registry != null) {
+			meter(this.summaries, name, tags, t -> DistributionSummary.builder(name).tags(t).register(this.registry))
+					.record(amount);
+		}
+	}
+
+	/**
+	 * Record a duration in a timer that publishes a percentile histogram, so that the
+	 * percentiles can be aggregated across instances.
+	 * @param millis the duration in milliseconds.
+	 * @param name the timer name.
+	 * @param tags the tag key/value pairs.
+	 */
+	public void histogram(long millis, String name, String... tags) {
+		if (this.registry != null) {
+			meter(this.histograms, name, tags, t -> Timer.builder(name).tags(t).publishPercentileHistogram()
+					.register(this.registry))
+					.record(millis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Decorate a session factory so that the session operations are timed.
+	 * @param sessionFactory the session factory.
+	 * @param server the server tag.
+	 * @return the decorated session factory, or the session factory itself if the metrics are
+	 * not enabled.
+	 */
+	public SessionFactory<LsEntry> sessionFactory(SessionFactory<LsEntry> sessionFactory, String server) {
+		return this.registry != null ? new MeteredSessionFactory(sessionFactory, this, server) : sessionFactory;
+	}
+
+	/**
+	 * Append the outcome tag to tags.
+	 * @param tags the tag key/value pairs.
+	 * @param outcome the outcome.
+	 * @return the tag key/value pairs with the outcome.
+	 */
+	public static String[] withOutcome(String[] tags, String outcome) {
+		String[] withOutcome = Arrays.copyOf(tags, tags.length + 2);
+		withOutcome[tags.length] = OUTCOME;
+		withOutcome[tags.length + 1] = outcome;
+		return withOutcome;
+	}
+
+	private <M> M meter(Map<MeterKey, M> meters, String name, String[] tags, Function<String[], M> factory) {
+		MeterKey key = new MeterKey(name, tags);
+		M meter = meters.get(key);
+		if (meter == null) {
+			String[] values = tags.clone();
+			for (int i = 1; i < values.length; i += 2) {
+				if (values[i] == null) {
+					values[i] = NONE;
+				}
+			}
+			meter = meters.computeIfAbsent(key, k -> factory.apply(values));
+		}
+		return meter;
+	}
+
+	private static final class MeterKey {
+
+		private final String name;
+
+		private final String[] tags;
+
+		private final int hash;
+
+		MeterKey(String name, String[] tags) {
+			this.name = name;
+			this.tags = tags;
+			this.hash = 31 * name.hashCode() + Arrays.hashCode(tags);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof MeterKey)) {
+				return false;
+			}
+			MeterKey that = (MeterKey) other;
+			return this.name.equals(that.name) && Arrays.equals(this.tags, that.tags);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+	}
+
+}
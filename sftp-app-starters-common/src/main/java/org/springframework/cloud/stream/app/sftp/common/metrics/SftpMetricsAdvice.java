@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.metrics;
+
+import java.util.Collection;
+import java.util.function.Function;
+
+import org.springframework.integration.handler.advice.AbstractRequestHandlerAdvice;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+
+/**
+ * Times a message handler, tagged with the server, directory and outcome; optionally
+ * records the number of elements of a collection reply in a distribution summary.
+ *
+ * @since 2.1.6
+ */
+public class SftpMetricsAdvice extends AbstractRequestHandlerAdvice {
+
+	private final SftpMetrics metrics;
+
+	private final String name;
+
+	private final String sizeName;
+
+	private final Function<Message<?>, String[]> tags;
+
+	/**
+	 * @param metrics the metrics.
+	 * @param name the timer name.
+	 * @param sizeName the name of the summary of the reply size; null for none.
+	 * @param tags provides the server and directory tags for a request message.
+	 */
+	public SftpMetricsAdvice(SftpMetrics metrics, String name, @Nullable String sizeName,
+			Function<Message<?>, String[]> tags) {
+		this.metrics = metrics;
+		this.name = name;
+		this.sizeName = sizeName;
+		this.tags = tags;
+	}
+
+	@Override
+	protected Object doInvoke(ExecutionCallback callback, Object target, Message<?> message) throws Exception {
+		if (!this.metrics.isEnabled()) {
+			return callback.execute();
+		}
+		long start = System.nanoTime();
+		String[] tags = this.tags.apply(message);
+		try {
+			Object result = callback.execute();
+			this.metrics.record(start, this.name, SftpMetrics.withOutcome(tags, SftpMetrics.SUCCESS));
+			if (this.sizeName != null) {
+				Object payload = result instanceof Message ? ((Message<?>) result).getPayload() : result;
+				if (payload instanceof Collection) {
+					this.metrics.summary(((Collection<?>) payload).size(), this.sizeName, tags);
+				}
+			}
+			return result;
+		}
+		catch (RuntimeException e) {
+			this.metrics.record(start, this.name, SftpMetrics.withOutcome(tags, SftpMetrics.FAILURE));
+			throw e;
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.metrics;
+
+import java.util.function.Function;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+
+/**
+ * Times the sends to a channel, e.g. the emission of messages to the binder, tagged with
+ * the server, directory and outcome.
+ *
+ * @since 2.1.6
+ */
+public class SftpMetricsChannelInterceptor implements ChannelInterceptor {
+
+	private final ThreadLocal<long[]> start = ThreadLocal.withInitial(() -> new long[1]);
+
+	private final SftpMetrics metrics;
+
+	private final String name;
+
+	private final Function<Message<?>, String[]> tags;
+
+	/**
+	 * @param metrics the metrics.
+	 * @param name the timer name.
+	 * @param tags provides the server and directory tags for a message.
+	 */
+	public SftpMetricsChannelInterceptor(SftpMetrics metrics, String name, Function<Message<?>, String[]> tags) {
+		this.metrics = metrics;
+		this.name = name;
+		this.tags = tags;
+	}
+
+	@Override
+	public Message<?> preSend(Message<?> message, MessageChannel channel) {
+		if (this.metrics.isEnabled()) {
+			this.start.get()[0] = System.nanoTime();
+		}
+		return message;
+	}
+
+	@Override
+	public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+		if (this.metrics.isEnabled()) {
+			this.metrics.record(this.start.get()[0], this.name, SftpMetrics.withOutcome(this.tags.apply(message),
+					sent && ex == null ? SftpMetrics.SUCCESS : SftpMetrics.FAILURE));
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Provides the {@link SftpMetrics}, recording to the application's {@link MeterRegistry}
+ * if there is one.
+ *
+ * @since 2.1.6
+ */
+public class SftpMetricsConfiguration {
+
+	@Bean
+	@ConditionalOnMissingBean
+	public SftpMetrics sftpMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+		return new SftpMetrics(meterRegistry.getIfUnique());
+	}
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+
+/**
+ * Limits the number of sessions open at once on a server and the number of file
+ * transfers in progress on them; {@link #getSession()} waits until a session is closed
+ * when the session limit is reached, and a transfer until another one completes when the
+ * transfer limit is reached. The waits are served in arrival order. A raw read holds its
+ * transfer permit until its stream, or else the session, is closed.
+ * <p>
+ * The JSch I/O of a session runs in {@code synchronized} sections, which pin a virtual
+ * thread to its carrier thread; bounding the sessions per server bounds the carrier
+ * threads they can pin.
+ *
+ * @since 2.1.6
+ */
+public class BoundedSessionFactory implements SessionFactory<LsEntry>, DisposableBean {
+
+	private final SessionFactory<LsEntry> delegate;
+
+	private final Semaphore sessions;
+
+	private final Semaphore transfers;
+
+	/**
+	 * @param delegate the session factory.
+	 * @param maxSessions the maximum number of sessions open at once; 0 for no limit.
+	 * @param maxTransfers the maximum number of transfers in progress at once; 0 for no limit.
+	 */
+	public BoundedSessionFactory(SessionFactory<LsEntry> delegate, int maxSessions, int maxTransfers) {
+		this.delegate = delegate;
+		this.sessions = maxSessions > 0 ? new Semaphore(maxSessions, true) : null;
+		this.transfers = maxTransfers > 0 ? new Semaphore(maxTransfers, true) : null;
+	}
+
+	@Override
+	public Session<LsEntry> getSession() {
+		acquire(this.sessions, "a session");
+		try {
+			return new BoundedSession(this.delegate.getSession());
+		}
+		catch (RuntimeException e) {
+			release(this.sessions);
+			throw e;
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (this.delegate instanceof DisposableBean) {
+			((DisposableBean) this.delegate).destroy();
+		}
+	}
+
+	private static void acquire(Semaphore permits, String what) {
+		if (permits != null) {
+			try {
+				permits.acquire();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for " + what, e);
+			}
+		}
+	}
+
+	private static void release(Semaphore permits) {
+		if (permits != null) {
+			permits.release();
+		}
+	}
+
+	private final class BoundedSession extends ForwardingSession {
+
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		private final Set<RawTransfer> rawTransfers = ConcurrentHashMap.newKeySet();
+
+		BoundedSession(Session<LsEntry> delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public void read(String source, OutputStream outputStream) throws IOException {
+			acquire(BoundedSessionFactory.this.transfers, "a transfer");
+			try {
+				super.read(source, outputStream);
+			}
+			finally {
+				release(BoundedSessionFactory.this.transfers);
+			}
+		}
+
+		@Override
+		public InputStream readRaw(String source) throws IOException {
+			acquire(BoundedSessionFactory.this.transfers, "a transfer");
+			RawTransfer transfer = new RawTransfer();
+			this.rawTransfers.add(transfer);
+			try {
+				return new FilterInputStream(super.readRaw(source)) {
+
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						}
+						finally {
+							rawTransferDone(transfer);
+						}
+					}
+
+				};
+			}
+			catch (IOException | RuntimeException e) {
+				rawTransferDone(transfer);
+				throw e;
+			}
+		}
+
+		@Override
+		public void write(InputStream inputStream, String destination) throws IOException {
+			acquire(BoundedSessionFactory.this.transfers, "a transfer");
+			try {
+				super.write(inputStream, destination);
+			}
+			finally {
+				release(BoundedSessionFactory.this.transfers);
+			}
+		}
+
+		@Override
+		public void append(InputStream inputStream, String destination) throws IOException {
+			acquire(BoundedSessionFactory.this.transfers, "a transfer");
+			try {
+				super.append(inputStream, destination);
+			}
+			finally {
+				release(BoundedSessionFactory.this.transfers);
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				// the streams left open
+				new ArrayList<>(this.rawTransfers).forEach(this::rawTransferDone);
+				super.close();
+			}
+			finally {
+				if (this.closed.compareAndSet(false, true)) {
+					release(BoundedSessionFactory.this.sessions);
+				}
+			}
+		}
+
+		private void rawTransferDone(RawTransfer transfer) {
+			if (transfer.done.compareAndSet(false, true)) {
+				this.rawTransfers.remove(transfer);
+				release(BoundedSessionFactory.this.transfers);
+			}
+		}
+
+	}
+
+	/**
+	 * The transfer permit held by a raw read.
+	 */
+	private static final class RawTransfer {
+
+		private final AtomicBoolean done = new AtomicBoolean();
+
+	}
+
+}
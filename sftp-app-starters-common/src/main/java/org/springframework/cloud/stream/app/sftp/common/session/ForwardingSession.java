@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+
+import org.springframework.integration.file.remote.session.Session;
+
+/**
+ * A {@link Session} that forwards every operation to a delegate; the base class of the
+ * session decorators.
+ *
+ * @since 2.1.6
+ */
+public abstract class ForwardingSession implements Session<LsEntry> {
+
+	private final Session<LsEntry> delegate;
+
+	protected ForwardingSession(Session<LsEntry> delegate) {
+		this.delegate = delegate;
+	}
+
+	protected Session<LsEntry> getDelegate() {
+		return this.delegate;
+	}
+
+	@Override
+	public boolean remove(String path) throws IOException {
+		return this.delegate.remove(path);
+	}
+
+	@Override
+	public LsEntry[] list(String path) throws IOException {
+		return this.delegate.list(path);
+	}
+
+	@Override
+	public void read(String source, OutputStream outputStream) throws IOException {
+		this.delegate.read(source, outputStream);
+	}
+
+	@Override
+	public void write(InputStream inputStream, String destination) throws IOException {
+		this.delegate.write(inputStream, destination);
+	}
+
+	@Override
+	public void append(InputStream inputStream, String destination) throws IOException {
+		this.delegate.append(inputStream, destination);
+	}
+
+	@Override
+	public boolean mkdir(String directory) throws IOException {
+		return this.delegate.mkdir(directory);
+	}
+
+	@Override
+	public boolean rmdir(String directory) throws IOException {
+		return this.delegate.rmdir(directory);
+	}
+
+	@Override
+	public void rename(String pathFrom, String pathTo) throws IOException {
+		this.delegate.rename(pathFrom, pathTo);
+	}
+
+	@Override
+	public void close() {
+		this.delegate.close();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.delegate.isOpen();
+	}
+
+	@Override
+	public boolean exists(String path) throws IOException {
+		return this.delegate.exists(path);
+	}
+
+	@Override
+	public String[] listNames(String path) throws IOException {
+		return this.delegate.listNames(path);
+	}
+
+	@Override
+	public InputStream readRaw(String source) throws IOException {
+		return this.delegate.readRaw(source);
+	}
+
+	@Override
+	public boolean finalizeRaw() throws IOException {
+		return this.delegate.finalizeRaw();
+	}
+
+	@Override
+	public Object getClientInstance() {
+		return this.delegate.getClientInstance();
+	}
+
+}
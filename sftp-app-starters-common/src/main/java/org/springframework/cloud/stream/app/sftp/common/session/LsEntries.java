@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpLsEntries;
+import org.apache.sshd.client.subsystem.sftp.SftpClient;
+
+/**
+ * Creates the JSch {@link LsEntry} of a MINA sshd directory entry, so that the sessions of
+ * either client can be used where the file type is {@link LsEntry}.
+ *
+ * @since 2.1.6
+ */
+final class LsEntries {
+
+	private static final int S_IFREG = 0100000;
+
+	private static final int S_IFDIR = 0040000;
+
+	private static final int S_IFLNK = 0120000;
+
+	private LsEntries() {
+		super();
+	}
+
+	static LsEntry of(String filename, String longname, SftpClient.Attributes attributes) {
+		int type = attributes.isDirectory() ? S_IFDIR : attributes.isSymbolicLink() ? S_IFLNK : S_IFREG;
+		return SftpLsEntries.of(filename, longname != null ? longname : filename, attributes.getSize(),
+				attributes.getUserId(), attributes.getGroupId(), (attributes.getPermissions() & 07777) | type,
+				seconds(attributes.getAccessTime()), seconds(attributes.getModifyTime()));
+	}
+
+	private static int seconds(FileTime time) {
+		return time != null ? (int) time.to(TimeUnit.SECONDS) : 0;
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.apache.sshd.client.subsystem.sftp.SftpClient;
+import org.apache.sshd.client.subsystem.sftp.extensions.openssh.OpenSSHPosixRenameExtension;
+import org.apache.sshd.common.subsystem.sftp.SftpConstants;
+import org.apache.sshd.common.subsystem.sftp.SftpException;
+
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.util.StreamUtils;
+
+/**
+ * A {@link Session} over a MINA sshd {@link SftpClient} channel, with the semantics of the
+ * JSch session: the entries of a directory, or the file itself, are listed, and a rename
+ * replaces an existing target. The rename is atomic when the server supports the
+ * {@code posix-rename@openssh.com} extension; otherwise the target is removed first, as
+ * the JSch session does.
+ *
+ * @since 2.1.6
+ */
+class MinaSftpSession implements Session<LsEntry> {
+
+	private final SftpClient sftp;
+
+	MinaSftpSession(SftpClient sftp) {
+		this.sftp = sftp;
+	}
+
+	@Override
+	public boolean remove(String path) throws IOException {
+		try {
+			this.sftp.remove(path);
+			return true;
+		}
+		catch (SftpException e) {
+			if (e.getStatus() == SftpConstants.SSH_FX_NO_SUCH_FILE) {
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public LsEntry[] list(String path) throws IOException {
+		SftpClient.Attributes attributes = this.sftp.stat(path);
+		if (!attributes.isDirectory()) {
+			String name = path.substring(path.lastIndexOf('/') + 1);
+			return new LsEntry[] { LsEntries.of(name, null, attributes) };
+		}
+		List<LsEntry> entries = new ArrayList<>();
+		for (SftpClient.DirEntry entry : this.sftp.readDir(path)) {
+			entries.add(LsEntries.of(entry.getFilename(), entry.getLongFilename(), entry.getAttributes()));
+		}
+		return entries.toArray(new LsEntry[0]);
+	}
+
+	@Override
+	public void read(String source, OutputStream outputStream) throws IOException {
+		try (InputStream in = this.sftp.read(source)) {
+			StreamUtils.copy(in, outputStream);
+		}
+	}
+
+	@Override
+	public void write(InputStream inputStream, String destination) throws IOException {
+		try (OutputStream out = this.sftp.write(destination)) {
+			StreamUtils.copy(inputStream, out);
+		}
+	}
+
+	@Override
+	public void append(InputStream inputStream, String destination) throws IOException {
+		try (OutputStream out = this.sftp.write(destination, SftpClient.OpenMode.Write, SftpClient.OpenMode.Create,
+				SftpClient.OpenMode.Append)) {
+			StreamUtils.copy(inputStream, out);
+		}
+	}
+
+	@Override
+	public boolean mkdir(String directory) throws IOException {
+		try {
+			this.sftp.mkdir(directory);
+			return true;
+		}
+		catch (SftpException e) {
+			// SFTP v3 servers report an existing directory as a generic failure
+			if (e.getStatus() == SftpConstants.SSH_FX_FILE_ALREADY_EXISTS
+					|| (e.getStatus() == SftpConstants.SSH_FX_FAILURE && exists(directory))) {
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean rmdir(String directory) throws IOException {
+		try {
+			this.sftp.rmdir(directory);
+			return true;
+		}
+		catch (SftpException e) {
+			if (e.getStatus() == SftpConstants.SSH_FX_NO_SUCH_FILE) {
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public void rename(String pathFrom, String pathTo) throws IOException {
+		OpenSSHPosixRenameExtension posixRename = this.sftp.getExtension(OpenSSHPosixRenameExtension.class);
+		if (posixRename != null && posixRename.isSupported()) {
+			posixRename.posixRename(pathFrom, pathTo);
+			return;
+		}
+		try {
+			this.sftp.rename(pathFrom, pathTo);
+		}
+		catch (SftpException e) {
+			// a plain SFTP v3 rename fails when the target exists
+			if (!exists(pathTo)) {
+				throw e;
+			}
+			this.sftp.remove(pathTo);
+			this.sftp.rename(pathFrom, pathTo);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			this.sftp.close();
+		}
+		catch (IOException e) {
+			// the channel is gone anyway
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.sftp.isOpen();
+	}
+
+	@Override
+	public boolean exists(String path) throws IOException {
+		try {
+			this.sftp.stat(path);
+			return true;
+		}
+		catch (SftpException e) {
+			if (e.getStatus() == SftpConstants.SSH_FX_NO_SUCH_FILE) {
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public String[] listNames(String path) throws IOException {
+		LsEntry[] entries = list(path);
+		List<String> names = new ArrayList<>(entries.length);
+		for (LsEntry entry : entries) {
+			if (!".".equals(entry.getFilename()) && !"..".equals(entry.getFilename())) {
+				names.add(entry.getFilename());
+			}
+		}
+		return names.toArray(new String[0]);
+	}
+
+	@Override
+	public InputStream readRaw(String source) throws IOException {
+		return this.sftp.read(source);
+	}
+
+	@Override
+	public boolean finalizeRaw() {
+		return true;
+	}
+
+	@Override
+	public Object getClientInstance() {
+		return this.sftp;
+	}
+
+}
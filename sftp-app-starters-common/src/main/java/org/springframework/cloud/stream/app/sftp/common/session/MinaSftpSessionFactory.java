@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.time.Duration;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.keyverifier.AcceptAllServerKeyVerifier;
+import org.apache.sshd.client.keyverifier.DefaultKnownHostsServerKeyVerifier;
+import org.apache.sshd.client.keyverifier.KnownHostsServerKeyVerifier;
+import org.apache.sshd.client.keyverifier.RejectAllServerKeyVerifier;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.util.security.SecurityUtils;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.support.DefaultSingletonBeanRegistry;
+import org.springframework.core.io.Resource;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * A {@link SessionFactory} backed by the Apache MINA sshd client, a drop-in replacement for
+ * the {@code DefaultSftpSessionFactory} of the apps.
+ * <p>
+ * All the sessions of the factory are SFTP channels multiplexed over a single SSH
+ * connection, reconnected when lost, whose I/O is performed by the few NIO threads of the
+ * client rather than one thread per session. The SFTP operations of MINA sshd are blocking,
+ * as are those of {@link Session}: a session operation still holds its caller's thread,
+ * but not a connection.
+ * <p>
+ * The factory owns its client, which is stopped by {@link #destroy()}; when the factory
+ * is wrapped, e.g. by a {@code CachingSessionFactory}, and is not a bean itself, register
+ * it with {@link #destroyWith(BeanFactory)}.
+ *
+ * @since 2.1.6
+ */
+public class MinaSftpSessionFactory implements SessionFactory<LsEntry>, DisposableBean {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+	private final Object monitor = new Object();
+
+	private final String host;
+
+	private final int port;
+
+	private final String username;
+
+	private final String password;
+
+	private final Resource privateKey;
+
+	private final String passPhrase;
+
+	private final SshClient client;
+
+	private ClientSession session;
+
+	private boolean destroyed;
+
+	/**
+	 * @param host the host.
+	 * @param port the port.
+	 * @param username the user name.
+	 * @param password the password; may be null.
+	 * @param privateKey the private key; may be null.
+	 * @param passPhrase the pass phrase of the private key.
+	 * @param allowUnknownKeys true to accept any host key.
+	 * @param knownHosts the location of the known hosts file; null for the user's.
+	 * @param transport the transport settings; may be null.
+	 */
+	public MinaSftpSessionFactory(String host, int port, String username, String password, Resource privateKey,
+			String passPhrase, boolean allowUnknownKeys, String knownHosts, @Nullable SshTransport transport) {
+		this.host = host;
+		this.port = port;
+		this.username = username;
+		this.password = password;
+		this.privateKey = privateKey;
+		this.passPhrase = passPhrase;
+		this.client = SshClient.setUpDefaultClient();
+		if (allowUnknownKeys) {
+			this.client.setServerKeyVerifier(AcceptAllServerKeyVerifier.INSTANCE);
+		}
+		else if (StringUtils.hasText(knownHosts)) {
+			this.client.setServerKeyVerifier(new KnownHostsServerKeyVerifier(RejectAllServerKeyVerifier.INSTANCE,
+					Paths.get(knownHosts)));
+		}
+		else {
+			this.client.setServerKeyVerifier(new DefaultKnownHostsServerKeyVerifier(
+					RejectAllServerKeyVerifier.INSTANCE));
+		}
+		if (transport != null) {
+			transport.configure(this.client);
+		}
+		this.client.start();
+	}
+
+	/**
+	 * Register this factory to be destroyed with the bean factory.
+	 * @param beanFactory the bean factory.
+	 * @return this factory.
+	 */
+	public MinaSftpSessionFactory destroyWith(BeanFactory beanFactory) {
+		if (beanFactory instanceof DefaultSingletonBeanRegistry) {
+			((DefaultSingletonBeanRegistry) beanFactory).registerDisposableBean(
+					getClass().getName() + "#" + ObjectUtils.getIdentityHexString(this), this);
+		}
+		return this;
+	}
+
+	@Override
+	public Session<LsEntry> getSession() {
+		try {
+			return new MinaSftpSession(connection().createSftpClient());
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Failed to create an SFTP session on " + this.host, e);
+		}
+	}
+
+	private ClientSession connection() throws IOException {
+		synchronized (this.monitor) {
+			if (this.destroyed) {
+				throw new IllegalStateException("The session factory of " + this.host + " is destroyed");
+			}
+			if (this.session == null || !this.session.isOpen()) {
+				ClientSession connection = this.client.connect(this.username, this.host, this.port)
+						.verify(TIMEOUT.toMillis())
+						.getSession();
+				try {
+					if (this.password != null) {
+						connection.addPasswordIdentity(this.password);
+					}
+					if (this.privateKey != null) {
+						connection.addPublicKeyIdentity(keyPair());
+					}
+					connection.auth().verify(TIMEOUT.toMillis());
+				}
+				catch (IOException | RuntimeException e) {
+					connection.close(true);
+					throw e;
+				}
+				this.session = connection;
+			}
+			return this.session;
+		}
+	}
+
+	private KeyPair keyPair() throws IOException {
+		try (InputStream key = this.privateKey.getInputStream()) {
+			return SecurityUtils.loadKeyPairIdentity(this.privateKey.getDescription(), key,
+					resourceKey -> this.passPhrase);
+		}
+		catch (GeneralSecurityException e) {
+			throw new IOException("Failed to load the private key " + this.privateKey, e);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		synchronized (this.monitor) {
+			if (this.destroyed) {
+				return;
+			}
+			this.destroyed = true;
+			if (this.session != null) {
+				this.session.close(true);
+				this.session = null;
+			}
+		}
+		this.client.stop();
+	}
+
+}
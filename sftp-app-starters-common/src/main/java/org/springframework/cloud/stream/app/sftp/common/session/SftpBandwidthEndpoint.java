@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+/**
+ * An actuator endpoint reading and changing the bandwidth limits of the
+ * {@link SftpBandwidthLimiter}. A change is rejected as a bad request when no limit was
+ * configured at startup, since the transfers are not throttled then.
+ *
+ * @since 2.1.6
+ */
+@Endpoint(id = "sftpbandwidth")
+public class SftpBandwidthEndpoint {
+
+	private final SftpBandwidthLimiter limiter;
+
+	public SftpBandwidthEndpoint(SftpBandwidthLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	@ReadOperation
+	public Map<String, Object> limits() {
+		return this.limiter.getLimits();
+	}
+
+	/**
+	 * Change a limit.
+	 * @param scope {@code global}, {@code server} or {@code transfer}.
+	 * @param server the server key, for the {@code server} scope.
+	 * @param bytesPerSecond the limit; 0 for no limit.
+	 * @return the limits.
+	 */
+	@WriteOperation
+	public Map<String, Object> limit(String scope, @Nullable String server, long bytesPerSecond) {
+		try {
+			switch (scope) {
+				case "global":
+					this.limiter.setGlobalLimit(bytesPerSecond);
+					break;
+				case "server":
+					if (server == null) {
+						throw new IllegalArgumentException("A server is required to change a server limit");
+					}
+					this.limiter.setServerLimit(server, bytesPerSecond);
+					break;
+				case "transfer":
+					this.limiter.setTransferLimit(bytesPerSecond);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown scope '" + scope
+							+ "'; expected 'global', 'server' or 'transfer'");
+			}
+		}
+		catch (IllegalArgumentException | IllegalStateException e) {
+			// a bad request rather than a server error
+			throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+		}
+		return this.limiter.getLimits();
+	}
+
+}
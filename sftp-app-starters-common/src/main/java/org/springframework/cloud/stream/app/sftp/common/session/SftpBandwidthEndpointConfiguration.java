@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Provides the {@link SftpBandwidthEndpoint} when the actuator is on the class path.
+ *
+ * @since 2.1.6
+ */
+@ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+public class SftpBandwidthEndpointConfiguration {
+
+	@Bean
+	@ConditionalOnMissingBean
+	public SftpBandwidthEndpoint sftpBandwidthEndpoint(SftpBandwidthLimiter sftpBandwidthLimiter) {
+		return new SftpBandwidthEndpoint(sftpBandwidthLimiter);
+	}
+
+}
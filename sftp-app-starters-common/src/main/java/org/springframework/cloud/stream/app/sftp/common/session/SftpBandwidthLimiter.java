@@ -0,0 +1,391 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.lang.Nullable;
+
+/**
+ * Shapes the bandwidth of the file transfers with token buckets scoped to all the
+ * servers, to each server and to each transfer; a transfer waits for the bytes it reads
+ * or writes to be available in all three buckets.
+ * <p>
+ * A bucket holds up to one second of its rate, so that a transfer can burst after an idle
+ * period. The limits, in bytes per second with 0 for no limit, can be changed at runtime;
+ * a new transfer limit applies to the transfers started afterwards. The session factories
+ * are only throttled when a limit is configured at startup, so the limits can only be
+ * changed then: configure a limit of 0 to be able to set one at runtime. The time the
+ * transfers wait is recorded in the {@code sftp.bandwidth.wait} timer.
+ *
+ * @since 2.1.6
+ */
+public class SftpBandwidthLimiter {
+
+	public static final String WAIT = "sftp.bandwidth.wait";
+
+	private final TokenBucket global;
+
+	private final Map<String, TokenBucket> servers = new ConcurrentHashMap<>();
+
+	private final Set<String> serverKeys;
+
+	private final SftpMetrics metrics;
+
+	private final boolean enabled;
+
+	private volatile long transferLimit;
+
+	/**
+	 * @param globalLimit the limit of all the servers; null if not configured.
+	 * @param transferLimit the limit of each transfer; null if not configured.
+	 * @param serverLimits the limits of the servers by key; the null values are ignored,
+	 * but their server limit can still be set at runtime.
+	 * @param metrics the metrics.
+	 */
+	public SftpBandwidthLimiter(@Nullable Long globalLimit, @Nullable Long transferLimit,
+			Map<String, Long> serverLimits, SftpMetrics metrics) {
+		this.global = new TokenBucket(globalLimit != null ? globalLimit : 0);
+		this.transferLimit = transferLimit != null ? transferLimit : 0;
+		this.metrics = metrics;
+		this.serverKeys = new HashSet<>(serverLimits.keySet());
+		boolean enabled = globalLimit != null || transferLimit != null;
+		for (Map.Entry<String, Long> limit : serverLimits.entrySet()) {
+			if (limit.getValue() != null) {
+				this.servers.put(limit.getKey(), new TokenBucket(limit.getValue()));
+				enabled = true;
+			}
+		}
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return true if a limit is configured; the session factories are only throttled then.
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * @param bytesPerSecond the limit of all the servers; 0 for no limit.
+	 * @throws IllegalStateException if no limit was configured at startup.
+	 */
+	public void setGlobalLimit(long bytesPerSecond) {
+		assertEnabled();
+		this.global.setRate(bytesPerSecond);
+	}
+
+	/**
+	 * @param server the server key.
+	 * @param bytesPerSecond the limit of the server; 0 for no limit.
+	 * @throws IllegalStateException if no limit was configured at startup.
+	 * @throws IllegalArgumentException if the server is unknown.
+	 */
+	public void setServerLimit(String server, long bytesPerSecond) {
+		assertEnabled();
+		if (!this.serverKeys.contains(server)) {
+			throw new IllegalArgumentException("Unknown server '" + server + "'; expected one of " + this.serverKeys);
+		}
+		bucket(server).setRate(bytesPerSecond);
+	}
+
+	/**
+	 * @param bytesPerSecond the limit of each transfer started afterwards; 0 for no limit.
+	 * @throws IllegalStateException if no limit was configured at startup.
+	 */
+	public void setTransferLimit(long bytesPerSecond) {
+		assertEnabled();
+		this.transferLimit = Math.max(0, bytesPerSecond);
+	}
+
+	private void assertEnabled() {
+		if (!this.enabled) {
+			throw new IllegalStateException("Bandwidth throttling is not enabled: configure at least one limit "
+					+ "at startup, 0 for no limit, to change the limits at runtime");
+		}
+	}
+
+	/**
+	 * @return the current limits, in bytes per second: {@code global}, {@code transfer} and
+	 * {@code servers} by key.
+	 */
+	public Map<String, Object> getLimits() {
+		Map<String, Long> servers = new LinkedHashMap<>();
+		this.servers.forEach((server, bucket) -> servers.put(server, bucket.getRate()));
+		Map<String, Object> limits = new LinkedHashMap<>();
+		limits.put("global", this.global.getRate());
+		limits.put("transfer", this.transferLimit);
+		limits.put("servers", servers);
+		return limits;
+	}
+
+	/**
+	 * Decorate a session factory so that the transfers of its sessions are throttled.
+	 * @param sessionFactory the session factory.
+	 * @param server the server key.
+	 * @return the decorated session factory.
+	 */
+	public SessionFactory<LsEntry> sessionFactory(SessionFactory<LsEntry> sessionFactory, String server) {
+		return new ThrottledSessionFactory(sessionFactory, server);
+	}
+
+	private TokenBucket bucket(String server) {
+		return this.servers.computeIfAbsent(server, s -> new TokenBucket(0));
+	}
+
+	private final class ThrottledSessionFactory implements SessionFactory<LsEntry>, DisposableBean {
+
+		private final SessionFactory<LsEntry> delegate;
+
+		private final String server;
+
+		ThrottledSessionFactory(SessionFactory<LsEntry> delegate, String server) {
+			this.delegate = delegate;
+			this.server = server;
+		}
+
+		@Override
+		public Session<LsEntry> getSession() {
+			return new ThrottledSession(this.delegate.getSession(), this.server);
+		}
+
+		@Override
+		public void destroy() throws Exception {
+			if (this.delegate instanceof DisposableBean) {
+				((DisposableBean) this.delegate).destroy();
+			}
+		}
+
+	}
+
+	private final class ThrottledSession extends ForwardingSession {
+
+		private final String server;
+
+		ThrottledSession(Session<LsEntry> delegate, String server) {
+			super(delegate);
+			this.server = server;
+		}
+
+		@Override
+		public void read(String source, OutputStream outputStream) throws IOException {
+			Transfer transfer = new Transfer(this.server);
+			try {
+				super.read(source, new FilterOutputStream(outputStream) {
+
+					@Override
+					public void write(int b) throws IOException {
+						transfer.acquire(1);
+						this.out.write(b);
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						transfer.acquire(len);
+						this.out.write(b, off, len);
+					}
+
+				});
+			}
+			finally {
+				transfer.done();
+			}
+		}
+
+		@Override
+		public InputStream readRaw(String source) throws IOException {
+			return throttled(super.readRaw(source), new Transfer(this.server));
+		}
+
+		@Override
+		public void write(InputStream inputStream, String destination) throws IOException {
+			Transfer transfer = new Transfer(this.server);
+			try {
+				super.write(throttled(inputStream, transfer), destination);
+			}
+			finally {
+				transfer.done();
+			}
+		}
+
+		@Override
+		public void append(InputStream inputStream, String destination) throws IOException {
+			Transfer transfer = new Transfer(this.server);
+			try {
+				super.append(throttled(inputStream, transfer), destination);
+			}
+			finally {
+				transfer.done();
+			}
+		}
+
+		private InputStream throttled(InputStream inputStream, Transfer transfer) {
+			return new FilterInputStream(inputStream) {
+
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0) {
+						transfer.acquire(1);
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = super.read(b, off, len);
+					if (n > 0) {
+						transfer.acquire(n);
+					}
+					return n;
+				}
+
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					}
+					finally {
+						transfer.done();
+					}
+				}
+
+			};
+		}
+
+	}
+
+	/**
+	 * The buckets of a transfer and the time it waited for them.
+	 */
+	private final class Transfer {
+
+		private final String server;
+
+		private final TokenBucket serverBucket;
+
+		private final TokenBucket transferBucket;
+
+		private long waited;
+
+		private boolean done;
+
+		Transfer(String server) {
+			this.server = server;
+			this.serverBucket = bucket(server);
+			this.transferBucket = new TokenBucket(SftpBandwidthLimiter.this.transferLimit);
+		}
+
+		void acquire(int bytes) throws InterruptedIOException {
+			this.waited += this.transferBucket.acquire(bytes);
+			this.waited += this.serverBucket.acquire(bytes);
+			this.waited += SftpBandwidthLimiter.this.global.acquire(bytes);
+		}
+
+		void done() {
+			if (!this.done) {
+				this.done = true;
+				SftpBandwidthLimiter.this.metrics.time(this.waited, WAIT, SftpMetrics.SERVER, this.server);
+			}
+		}
+
+	}
+
+	/**
+	 * A token bucket of bytes, refilled at its rate and holding up to one second of it; the
+	 * bytes acquired beyond the tokens available are a debt, which the caller sleeps off.
+	 */
+	private static final class TokenBucket {
+
+		private long rate;
+
+		private double tokens;
+
+		private long refilled = System.nanoTime();
+
+		TokenBucket(long rate) {
+			this.rate = Math.max(0, rate);
+			this.tokens = this.rate;
+		}
+
+		synchronized long getRate() {
+			return this.rate;
+		}
+
+		synchronized void setRate(long rate) {
+			refill(System.nanoTime());
+			this.rate = Math.max(0, rate);
+			this.tokens = Math.min(this.tokens, this.rate);
+		}
+
+		/**
+		 * Take bytes from the bucket, sleeping until they are available.
+		 * @param bytes the number of bytes.
+		 * @return the nanoseconds slept.
+		 * @throws InterruptedIOException if interrupted while sleeping.
+		 */
+		long acquire(int bytes) throws InterruptedIOException {
+			long wait;
+			synchronized (this) {
+				if (this.rate == 0) {
+					return 0;
+				}
+				refill(System.nanoTime());
+				this.tokens -= bytes;
+				wait = this.tokens < 0 ? (long) (-this.tokens * TimeUnit.SECONDS.toNanos(1) / this.rate) : 0;
+			}
+			if (wait > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while throttling a transfer");
+				}
+			}
+			return wait;
+		}
+
+		private void refill(long now) {
+			if (this.rate > 0) {
+				this.tokens = Math.min(this.rate,
+						this.tokens + (double) (now - this.refilled) * this.rate / TimeUnit.SECONDS.toNanos(1));
+			}
+			this.refilled = now;
+		}
+
+	}
+
+}
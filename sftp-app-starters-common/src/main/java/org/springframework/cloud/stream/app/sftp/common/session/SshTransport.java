@@ -0,0 +1,235 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import javax.validation.constraints.Min;
+
+import com.jcraft.jsch.JSch;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.sshd.client.ClientBuilder;
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.common.FactoryManager;
+import org.apache.sshd.common.PropertyResolverUtils;
+import org.apache.sshd.common.cipher.BuiltinCiphers;
+import org.apache.sshd.common.compression.BuiltinCompressions;
+import org.apache.sshd.common.kex.BuiltinDHFactories;
+import org.apache.sshd.common.mac.BuiltinMacs;
+import org.hibernate.validator.constraints.Range;
+
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * The SSH transport settings of a server: the algorithms in order of preference, the
+ * compression and the channel window and packet sizes, applied to either SSH client.
+ * <p>
+ * Algorithms unknown to the client are dropped with a warning, so that a list can prefer
+ * algorithms that only some clients or servers implement.
+ *
+ * @since 2.1.6
+ */
+public class SshTransport {
+
+	private static final Log logger = LogFactory.getLog(SshTransport.class);
+
+	private static final String COMPRESSION = "zlib@openssh.com,zlib,none";
+
+	/**
+	 * The ciphers, in order of preference; the client's defaults if empty.
+	 */
+	private String[] ciphers;
+
+	/**
+	 * The MAC algorithms, in order of preference; the client's defaults if empty.
+	 */
+	private String[] macs;
+
+	/**
+	 * The key exchange algorithms, in order of preference; the client's defaults if empty.
+	 */
+	private String[] kex;
+
+	/**
+	 * True to compress the transport (zlib@openssh.com, else zlib), for compressible files
+	 * such as text feeds.
+	 */
+	private boolean compression = false;
+
+	/**
+	 * The zlib compression level, from 1 (fastest) to 9 (smallest); JSch only.
+	 */
+	private int compressionLevel = 6;
+
+	/**
+	 * The channel window size in bytes; the client's default if not set; MINA only.
+	 */
+	private Integer windowSize;
+
+	/**
+	 * The maximum packet size in bytes; the client's default if not set; MINA only.
+	 */
+	private Integer packetSize;
+
+	public String[] getCiphers() {
+		return this.ciphers;
+	}
+
+	public void setCiphers(String[] ciphers) {
+		this.ciphers = ciphers;
+	}
+
+	public String[] getMacs() {
+		return this.macs;
+	}
+
+	public void setMacs(String[] macs) {
+		this.macs = macs;
+	}
+
+	public String[] getKex() {
+		return this.kex;
+	}
+
+	public void setKex(String[] kex) {
+		this.kex = kex;
+	}
+
+	public boolean isCompression() {
+		return this.compression;
+	}
+
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	@Range(min = 1, max = 9)
+	public int getCompressionLevel() {
+		return this.compressionLevel;
+	}
+
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	@Min(1)
+	public Integer getWindowSize() {
+		return this.windowSize;
+	}
+
+	public void setWindowSize(Integer windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	@Min(1)
+	public Integer getPacketSize() {
+		return this.packetSize;
+	}
+
+	public void setPacketSize(Integer packetSize) {
+		this.packetSize = packetSize;
+	}
+
+	/**
+	 * The JSch session configuration, to be set on the session factory.
+	 * @return the session configuration; empty if there is nothing to configure.
+	 */
+	public Properties jschConfig() {
+		Properties config = new Properties();
+		String ciphers = jschAlgorithms(this.ciphers);
+		if (ciphers != null) {
+			config.setProperty("cipher.c2s", ciphers);
+			config.setProperty("cipher.s2c", ciphers);
+		}
+		String macs = jschAlgorithms(this.macs);
+		if (macs != null) {
+			config.setProperty("mac.c2s", macs);
+			config.setProperty("mac.s2c", macs);
+		}
+		String kex = jschAlgorithms(this.kex);
+		if (kex != null) {
+			config.setProperty("kex", kex);
+		}
+		if (this.compression) {
+			config.setProperty("compression.c2s", COMPRESSION);
+			config.setProperty("compression.s2c", COMPRESSION);
+			config.setProperty("compression_level", Integer.toString(this.compressionLevel));
+		}
+		return config;
+	}
+
+	/**
+	 * Configure a MINA client before it is started.
+	 * @param client the client.
+	 */
+	public void configure(SshClient client) {
+		if (!ObjectUtils.isEmpty(this.ciphers)) {
+			BuiltinCiphers.ParseResult result = BuiltinCiphers.parseCiphersList(Arrays.asList(this.ciphers));
+			unsupported(result.getUnsupportedFactories());
+			client.setCipherFactories(result.getParsedFactories());
+		}
+		if (!ObjectUtils.isEmpty(this.macs)) {
+			BuiltinMacs.ParseResult result = BuiltinMacs.parseMacsList(Arrays.asList(this.macs));
+			unsupported(result.getUnsupportedFactories());
+			client.setMacFactories(result.getParsedFactories());
+		}
+		if (!ObjectUtils.isEmpty(this.kex)) {
+			BuiltinDHFactories.ParseResult result = BuiltinDHFactories.parseDHFactoriesList(Arrays.asList(this.kex));
+			unsupported(result.getUnsupportedFactories());
+			client.setKeyExchangeFactories(result.getParsedFactories().stream()
+					.map(ClientBuilder.DH2KEX)
+					.collect(Collectors.toList()));
+		}
+		if (this.compression) {
+			client.setCompressionFactories(
+					BuiltinCompressions.parseCompressionsList(COMPRESSION).getParsedFactories());
+		}
+		if (this.windowSize != null) {
+			PropertyResolverUtils.updateProperty(client, FactoryManager.WINDOW_SIZE, this.windowSize.longValue());
+		}
+		if (this.packetSize != null) {
+			PropertyResolverUtils.updateProperty(client, FactoryManager.MAX_PACKET_SIZE, this.packetSize.longValue());
+		}
+	}
+
+	private static String jschAlgorithms(String[] algorithms) {
+		if (ObjectUtils.isEmpty(algorithms)) {
+			return null;
+		}
+		List<String> supported = new ArrayList<>();
+		List<String> unsupported = new ArrayList<>();
+		for (String algorithm : algorithms) {
+			(JSch.getConfig(algorithm) != null ? supported : unsupported).add(algorithm);
+		}
+		unsupported(unsupported);
+		return supported.isEmpty() ? null : StringUtils.collectionToCommaDelimitedString(supported);
+	}
+
+	private static void unsupported(List<String> algorithms) {
+		if (!algorithms.isEmpty() && logger.isWarnEnabled()) {
+			logger.warn("Ignoring the algorithms not supported by the SSH client: " + algorithms);
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.junit.Test;
+
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.test.util.TestUtils;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @since 2.1.6
+ */
+public class BoundedSessionFactoryTests {
+
+	@Test
+	public void eachRawStreamHoldsItsOwnTransferPermit() throws Exception {
+		BoundedSessionFactory sessionFactory = new BoundedSessionFactory(sessionFactory(), 0, 3);
+		Semaphore transfers = TestUtils.getPropertyValue(sessionFactory, "transfers", Semaphore.class);
+		Session<LsEntry> session = sessionFactory.getSession();
+		InputStream first = session.readRaw("a");
+		InputStream second = session.readRaw("b");
+		assertThat(transfers.availablePermits(), equalTo(1));
+		first.close();
+		first.close();
+		assertThat(transfers.availablePermits(), equalTo(2));
+		// releases the permit of the stream left open
+		session.close();
+		assertThat(transfers.availablePermits(), equalTo(3));
+		second.close();
+		session.close();
+		assertThat(transfers.availablePermits(), equalTo(3));
+	}
+
+	@Test
+	public void sessionsWaitForOneToBeClosed() throws Exception {
+		BoundedSessionFactory sessionFactory = new BoundedSessionFactory(sessionFactory(), 1, 0);
+		Session<LsEntry> session = sessionFactory.getSession();
+		CompletableFuture<Session<LsEntry>> next = CompletableFuture.supplyAsync(sessionFactory::getSession);
+		try {
+			next.get(200, TimeUnit.MILLISECONDS);
+			fail("Expected the session limit to be reached");
+		}
+		catch (TimeoutException e) {
+			// expected
+		}
+		session.close();
+		session.close();
+		assertNotNull(next.get(10, TimeUnit.SECONDS));
+		Semaphore sessions = TestUtils.getPropertyValue(sessionFactory, "sessions", Semaphore.class);
+		assertThat(sessions.availablePermits(), equalTo(0));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static SessionFactory<LsEntry> sessionFactory() throws Exception {
+		SessionFactory<LsEntry> sessionFactory = mock(SessionFactory.class);
+		when(sessionFactory.getSession()).thenAnswer(invocation -> {
+			Session<LsEntry> session = mock(Session.class);
+			when(session.readRaw(anyString())).thenAnswer(read -> new ByteArrayInputStream(new byte[0]));
+			return session;
+		});
+		return sessionFactory;
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.integration.file.remote.session.CachingSessionFactory;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.test.util.TestUtils;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 2.1.6
+ */
+public class MinaSftpSessionTests {
+
+	@ClassRule
+	public static final TemporaryFolder remote = new TemporaryFolder();
+
+	@ClassRule
+	public static final TemporaryFolder keys = new TemporaryFolder();
+
+	private static SshServer server;
+
+	@BeforeClass
+	public static void createServer() throws Exception {
+		server = SshServer.setUpDefaultServer();
+		server.setPasswordAuthenticator((username, password, session) -> "pass".equals(password));
+		server.setPort(0);
+		server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(
+				new File(keys.getRoot(), "hostkey.ser")));
+		server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+		server.setFileSystemFactory(new VirtualFileSystemFactory(remote.getRoot().toPath()));
+		server.start();
+	}
+
+	@AfterClass
+	public static void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void sessionOperations() throws Exception {
+		MinaSftpSessionFactory factory = factory();
+		try {
+			Session<LsEntry> session = factory.getSession();
+			try {
+				assertTrue(session.mkdir("/dir"));
+				assertFalse(session.mkdir("/dir"));
+				session.write(new ByteArrayInputStream("one".getBytes()), "/dir/a.txt");
+				session.append(new ByteArrayInputStream("two".getBytes()), "/dir/a.txt");
+				session.write(new ByteArrayInputStream("old".getBytes()), "/dir/b.txt");
+
+				LsEntry[] entries = session.list("/dir");
+				LsEntry a = Arrays.stream(entries).filter(e -> "a.txt".equals(e.getFilename())).findFirst().get();
+				assertThat(a.getAttrs().getSize(), equalTo(6L));
+				assertFalse(a.getAttrs().isDir());
+				assertThat(a.getAttrs().getMTime(),
+						equalTo((int) (new File(remote.getRoot(), "dir/a.txt").lastModified() / 1000)));
+				assertThat(Arrays.stream(session.listNames("/dir")).sorted().collect(Collectors.joining(",")),
+						equalTo("a.txt,b.txt"));
+
+				// replaces the existing target
+				session.rename("/dir/a.txt", "/dir/b.txt");
+				assertFalse(session.exists("/dir/a.txt"));
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				session.read("/dir/b.txt", content);
+				assertThat(new String(content.toByteArray()), equalTo("onetwo"));
+
+				assertTrue(session.remove("/dir/b.txt"));
+				assertFalse(session.remove("/dir/b.txt"));
+				assertTrue(session.rmdir("/dir"));
+				assertFalse(session.rmdir("/dir"));
+			}
+			finally {
+				session.close();
+			}
+		}
+		finally {
+			factory.destroy();
+		}
+	}
+
+	@Test
+	public void listsTheEntryOfAFile() throws Exception {
+		Files.write(new File(remote.getRoot(), "single.txt").toPath(), "single".getBytes());
+		MinaSftpSessionFactory factory = factory();
+		try {
+			Session<LsEntry> session = factory.getSession();
+			try {
+				LsEntry[] entries = session.list("/single.txt");
+				assertThat(entries.length, equalTo(1));
+				assertThat(entries[0].getFilename(), equalTo("single.txt"));
+				assertThat(entries[0].getAttrs().getSize(), equalTo(6L));
+			}
+			finally {
+				session.close();
+			}
+		}
+		finally {
+			factory.destroy();
+		}
+	}
+
+	@Test
+	public void clientIsStoppedWithTheBeanFactoryWhenWrapped() throws Exception {
+		StaticApplicationContext context = new StaticApplicationContext();
+		context.refresh();
+		MinaSftpSessionFactory factory = factory().destroyWith(context.getBeanFactory());
+		CachingSessionFactory<LsEntry> caching = new CachingSessionFactory<>(factory, 2);
+		caching.getSession().close();
+		SshClient client = TestUtils.getPropertyValue(factory, "client", SshClient.class);
+		assertTrue(client.isStarted());
+		context.close();
+		assertFalse(client.isStarted());
+	}
+
+	private static MinaSftpSessionFactory factory() {
+		return new MinaSftpSessionFactory("localhost", server.getPort(), "user", "pass", null, null, true, null,
+				null);
+	}
+
+}
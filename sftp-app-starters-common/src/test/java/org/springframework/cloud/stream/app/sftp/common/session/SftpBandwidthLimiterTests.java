@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.junit.Test;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpBandwidthLimiterTests {
+
+	private static final int CHUNK = 1024;
+
+	@Test
+	public void transfersAreThrottledAfterTheBurst() throws Exception {
+		SftpBandwidthLimiter limiter = new SftpBandwidthLimiter(10L * CHUNK, null, Collections.emptyMap(),
+				new SftpMetrics(null));
+		// one second of burst, then two seconds at the rate
+		long millis = read(limiter, 30);
+		assertThat(millis, greaterThanOrEqualTo(1800L));
+		assertThat(millis, lessThan(4000L));
+	}
+
+	@Test
+	public void limitsSetAtRuntimeApplyToTheThrottledFactories() throws Exception {
+		SftpBandwidthLimiter limiter = new SftpBandwidthLimiter(0L, null, Collections.singletonMap("one", null),
+				new SftpMetrics(null));
+		SessionFactory<LsEntry> sessionFactory = limiter.sessionFactory(sessionFactory(40), "one");
+		assertThat(read(sessionFactory), lessThan(500L));
+		limiter.setServerLimit("one", 20L * CHUNK);
+		long millis = read(sessionFactory);
+		assertThat(millis, greaterThanOrEqualTo(800L));
+		assertThat(millis, lessThan(3000L));
+		limiter.setServerLimit("one", 0);
+		assertThat(read(sessionFactory), lessThan(500L));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void limitsCannotBeSetWhenThrottlingIsDisabled() {
+		SftpBandwidthLimiter limiter = new SftpBandwidthLimiter(null, null, Collections.singletonMap("one", null),
+				new SftpMetrics(null));
+		assertFalse(limiter.isEnabled());
+		limiter.setGlobalLimit(CHUNK);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownServersAreRejected() {
+		new SftpBandwidthLimiter(0L, null, Collections.singletonMap("one", null), new SftpMetrics(null))
+				.setServerLimit("two", CHUNK);
+	}
+
+	@Test(expected = InvalidEndpointRequestException.class)
+	public void endpointRejectsChangesWhenThrottlingIsDisabled() {
+		new SftpBandwidthEndpoint(new SftpBandwidthLimiter(null, null, Collections.emptyMap(),
+				new SftpMetrics(null))).limit("global", null, CHUNK);
+	}
+
+	@Test
+	public void endpointChangesTheLimits() {
+		SftpBandwidthLimiter limiter = new SftpBandwidthLimiter(0L, null, Collections.emptyMap(),
+				new SftpMetrics(null));
+		assertThat(new SftpBandwidthEndpoint(limiter).limit("transfer", null, CHUNK).get("transfer"),
+				equalTo((long) CHUNK));
+	}
+
+	private static long read(SftpBandwidthLimiter limiter, int chunks) throws Exception {
+		return read(limiter.sessionFactory(sessionFactory(chunks), "one"));
+	}
+
+	private static long read(SessionFactory<LsEntry> sessionFactory) throws Exception {
+		long start = System.nanoTime();
+		Session<LsEntry> session = sessionFactory.getSession();
+		session.read("file", new ByteArrayOutputStream());
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static SessionFactory<LsEntry> sessionFactory(int chunks) throws Exception {
+		Session<LsEntry> session = mock(Session.class);
+		doAnswer(invocation -> {
+			OutputStream out = invocation.getArgument(1);
+			for (int i = 0; i < chunks; i++) {
+				out.write(new byte[CHUNK], 0, CHUNK);
+			}
+			return null;
+		}).when(session).read(anyString(), any(OutputStream.class));
+		SessionFactory<LsEntry> sessionFactory = mock(SessionFactory.class);
+		when(sessionFactory.getSession()).thenReturn(session);
+		return sessionFactory;
+	}
+
+}
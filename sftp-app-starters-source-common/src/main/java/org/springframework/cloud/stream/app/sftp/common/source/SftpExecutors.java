@@ -0,0 +1,224 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Creates the executors of the blocking SFTP I/O according to the
+ * {@link SftpSourceProperties.ExecutionMode}. Virtual threads are created reflectively,
+ * since the starters are built for Java 8; on a JVM without them the platform threads are
+ * used.
+ * <p>
+ * In virtual mode the executors are not pools: each task runs on a new virtual thread,
+ * and the sessions it opens are bounded by the per-server {@code max-concurrency}.
+ *
+ * @since 2.1.6
+ */
+public final class SftpExecutors {
+
+	private static final Log logger = LogFactory.getLog(SftpExecutors.class);
+
+	private SftpExecutors() {
+		super();
+	}
+
+	/**
+	 * Create an executor running at most {@code threads} tasks at once: a fixed pool of
+	 * platform threads or, in virtual mode, a new virtual thread per task, which waits
+	 * without holding a carrier thread while {@code threads} tasks are running.
+	 * @param properties the properties.
+	 * @param threads the maximum number of tasks running at once.
+	 * @param prefix the thread name prefix.
+	 * @return the executor.
+	 */
+	public static ExecutorService newExecutor(SftpSourceProperties properties, int threads, String prefix) {
+		if (properties.getExecutionMode() == SftpSourceProperties.ExecutionMode.virtual) {
+			ExecutorService perTask = virtualThreadPerTaskExecutor(prefix);
+			if (perTask != null) {
+				return new BoundedExecutorService(perTask, threads);
+			}
+			logger.warn("Virtual threads are not available on this JVM; using platform threads for " + prefix);
+		}
+		return Executors.newFixedThreadPool(threads, new CustomizableThreadFactory(prefix));
+	}
+
+	/**
+	 * Create the executor of the polls in virtual mode: each poll, including the downloads
+	 * of the synchronizer and the rotation between the servers, runs on a new virtual
+	 * thread. Polls never overlap: a poll triggered while the previous one is still
+	 * running is skipped.
+	 * @param properties the properties.
+	 * @param prefix the thread name prefix.
+	 * @return the executor; null when the polls run on the poller thread.
+	 */
+	@Nullable
+	public static Executor newPollExecutor(SftpSourceProperties properties, String prefix) {
+		if (properties.getExecutionMode() != SftpSourceProperties.ExecutionMode.virtual) {
+			return null;
+		}
+		ThreadFactory virtual = virtualThreadFactory(prefix);
+		if (virtual == null) {
+			logger.warn("Virtual threads are not available on this JVM; polling on the poller thread");
+			return null;
+		}
+		return new SingleFlightExecutor(virtual);
+	}
+
+	private static ThreadFactory virtualThreadFactory(String prefix) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Method name = builderType.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static ExecutorService virtualThreadPerTaskExecutor(String prefix) {
+		ThreadFactory virtual = virtualThreadFactory(prefix);
+		if (virtual == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, virtual);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Runs at most a number of tasks of a thread-per-task executor at once; the tasks
+	 * beyond wait for a permit on their own thread.
+	 */
+	static final class BoundedExecutorService extends AbstractExecutorService {
+
+		private final ExecutorService delegate;
+
+		private final Semaphore permits;
+
+		BoundedExecutorService(ExecutorService delegate, int permits) {
+			this.delegate = delegate;
+			this.permits = new Semaphore(permits);
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			this.delegate.execute(() -> {
+				try {
+					this.permits.acquire();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				try {
+					task.run();
+				}
+				finally {
+					this.permits.release();
+				}
+			});
+		}
+
+		@Override
+		public void shutdown() {
+			this.delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return this.delegate.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return this.delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return this.delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return this.delegate.awaitTermination(timeout, unit);
+		}
+
+	}
+
+	/**
+	 * Runs each task on a new thread, unless the previous task is still running.
+	 */
+	static final class SingleFlightExecutor implements Executor {
+
+		private final ThreadFactory threadFactory;
+
+		private final AtomicBoolean running = new AtomicBoolean();
+
+		SingleFlightExecutor(ThreadFactory threadFactory) {
+			this.threadFactory = threadFactory;
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			if (!this.running.compareAndSet(false, true)) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Skipping a poll while the previous one is running");
+				}
+				return;
+			}
+			try {
+				this.threadFactory.newThread(() -> {
+					try {
+						task.run();
+					}
+					finally {
+						this.running.set(false);
+					}
+				}).start();
+			}
+			catch (RuntimeException e) {
+				this.running.set(false);
+				throw e;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties.FetchOrder;
+import org.springframework.integration.file.filters.FileListFilter;
+
+/**
+ * The order in which the files of a poll are fetched, according to
+ * {@link SftpSourceProperties#getFetchOrder()} and
+ * {@link SftpSourceProperties#getFetchPriorities()}.
+ * <p>
+ * The {@link #filter()} sorts the remote files; it must come after every filter that
+ * reorders or rejects files on their own criteria, so that it sees the filtered files and
+ * the files beyond {@code maxFetch} are the ones rolled back. Only the filters that keep
+ * its order may follow it: the local staging quota, which defers the last files, and the
+ * latency tracker. The {@link #localComparator()} keeps the same order for files that
+ * have already been transferred to the local directory.
+ *
+ * @since 2.1.6
+ */
+public class SftpFetchPriority {
+
+	private final FetchOrder order;
+
+	private final Map<Pattern, Integer> weights = new LinkedHashMap<>();
+
+	public SftpFetchPriority(SftpSourceProperties properties) {
+		this.order = properties.getFetchOrder();
+		properties.getFetchPriorities().forEach((regex, weight) -> this.weights.put(Pattern.compile(regex), weight));
+	}
+
+	/**
+	 * @return true if the files are to be fetched in another order than they are listed.
+	 */
+	public boolean isEnabled() {
+		return this.order != FetchOrder.listing || !this.weights.isEmpty();
+	}
+
+	public Comparator<LsEntry> remoteComparator() {
+		return comparator(LsEntry::getFilename, entry -> entry.getAttrs().getMTime() * 1000L,
+				entry -> entry.getAttrs().getSize());
+	}
+
+	public Comparator<File> localComparator() {
+		return comparator(File::getName, File::lastModified, File::length);
+	}
+
+	public FileListFilter<LsEntry> filter() {
+		Comparator<LsEntry> comparator = remoteComparator();
+		return files -> {
+			List<LsEntry> sorted = new ArrayList<>(Arrays.asList(files));
+			sorted.sort(comparator);
+			return sorted;
+		};
+	}
+
+	private <F> Comparator<F> comparator(Function<F, String> name, ToLongFunction<F> modified,
+			ToLongFunction<F> size) {
+		Comparator<F> comparator = Comparator.comparingInt((F file) -> weight(name.apply(file))).reversed();
+		switch (this.order) {
+			case oldest:
+				return comparator.thenComparingLong(modified);
+			case newest:
+				return comparator.thenComparing(Comparator.comparingLong(modified).reversed());
+			case smallest:
+				return comparator.thenComparingLong(size);
+			case largest:
+				return comparator.thenComparing(Comparator.comparingLong(size).reversed());
+			default:
+				return comparator;
+		}
+	}
+
+	private int weight(String filename) {
+		Integer weight = null;
+		for (Map.Entry<Pattern, Integer> entry : this.weights.entrySet()) {
+			if ((weight == null || entry.getValue() > weight) && entry.getKey().matcher(filename).matches()) {
+				weight = entry.getValue();
+			}
+		}
+		return weight != null ? weight : 0;
+	}
+
+}
@@ -29,4 +29,6 @@ public interface SftpHeaders {
 	String SFTP_PASSWORD_PROPERTY_KEY = "sftp_password";
 
 	String SFTP_SELECTED_SERVER_PROPERTY_KEY = "sftp_selectedServer";
+
+	String SFTP_SELECTED_DIRECTORY = "sftp_selectedDirectory";
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpLatency;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.cloud.stream.app.sftp.common.session.ForwardingSession;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.file.filters.FileListFilter;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+
+/**
+ * Tracks each file from its modification on the server to the emission of its messages:
+ * a filter records when a file is first listed, a session decorator when it is
+ * transferred and, as a channel interceptor on the output, the tracker stamps the
+ * messages with the {@link SftpLatency} headers and records the stages of the file in the
+ * {@code sftp.source.latency} histograms, tagged with the server and the stage.
+ * <p>
+ * Files are tracked in memory by server and remote path, until shortly after their first
+ * message is emitted; files that are never fetched are forgotten after an hour.
+ *
+ * @since 2.1.6
+ */
+public class SftpLatencyTracker implements ChannelInterceptor {
+
+	static final String LATENCY_TIMER = "sftp.source.latency";
+
+	private static final long EMITTED_RETENTION = TimeUnit.MINUTES.toMillis(1);
+
+	private static final long DISCOVERED_RETENTION = TimeUnit.HOURS.toMillis(1);
+
+	private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+
+	private final SftpSourceProperties properties;
+
+	private final ObjectProvider<SftpSourceRotator> rotator;
+
+	private final SftpMetrics metrics;
+
+	private volatile SftpSourceMetricsTags tags;
+
+	private volatile long lastPrune = System.currentTimeMillis();
+
+	/**
+	 * @param properties the properties.
+	 * @param rotator the rotator, looked up when first needed since it depends on the
+	 * session factories this tracker decorates.
+	 * @param metrics the metrics.
+	 */
+	public SftpLatencyTracker(SftpSourceProperties properties, ObjectProvider<SftpSourceRotator> rotator,
+			SftpMetrics metrics) {
+		this.properties = properties;
+		this.rotator = rotator;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * The filter recording when the files are first listed; last in the filter chain so
+	 * that only the files to fetch are tracked.
+	 * @return the filter.
+	 */
+	public FileListFilter<LsEntry> filter() {
+		return files -> {
+			long now = System.currentTimeMillis();
+			prune(now);
+			String[] tags = tags().apply(null);
+			for (LsEntry file : files) {
+				if (!file.getAttrs().isDir()) {
+					this.tracked.putIfAbsent(key(tags[1], tags[3], file.getFilename()),
+							new Tracked(file.getAttrs().getMTime() * 1000L, now));
+				}
+			}
+			return Arrays.asList(files);
+		};
+	}
+
+	/**
+	 * Decorate a session factory so that the transfers of the tracked files are recorded.
+	 * @param sessionFactory the session factory.
+	 * @param server the server.
+	 * @return the decorated session factory.
+	 */
+	public SessionFactory<LsEntry> sessionFactory(SessionFactory<LsEntry> sessionFactory, String server) {
+		return new TrackingSessionFactory(sessionFactory, server);
+	}
+
+	@Override
+	public Message<?> preSend(Message<?> message, MessageChannel channel) {
+		String[] tags = tags().apply(message);
+		String server = tags[1];
+		String name = message.getHeaders().get(FileHeaders.REMOTE_FILE, String.class);
+		if (name == null && message.getPayload() instanceof File) {
+			name = ((File) message.getPayload()).getName();
+		}
+		Tracked file = name != null ? this.tracked.get(key(server, tags[3], name)) : null;
+		long now = System.currentTimeMillis();
+		MessageBuilder<?> builder = MessageBuilder.fromMessage(message)
+				.setHeader(SftpLatency.SERVER, server);
+		if (file == null) {
+			return builder.setHeader(SftpLatency.EMITTED, now).build();
+		}
+		boolean first = file.emitted == 0;
+		if (first) {
+			file.emitted = now;
+			record(server, "wait", file.modified, file.discovered);
+			record(server, "queue", file.discovered, file.transferStarted);
+			record(server, "transfer", file.transferStarted, file.transferEnded);
+			record(server, "handoff", file.transferEnded, now);
+			record(server, "total", file.modified, now);
+		}
+		builder.setHeader(SftpLatency.REMOTE_MODIFIED, file.modified)
+				.setHeader(SftpLatency.DISCOVERED, file.discovered)
+				.setHeader(SftpLatency.EMITTED, file.emitted);
+		if (file.transferStarted != 0) {
+			builder.setHeader(SftpLatency.TRANSFER_STARTED, file.transferStarted);
+		}
+		if (file.transferEnded != 0) {
+			builder.setHeader(SftpLatency.TRANSFER_ENDED, file.transferEnded);
+		}
+		return builder.build();
+	}
+
+	private void record(String server, String stage, long from, long to) {
+		if (from != 0 && to != 0) {
+			SftpLatency.record(this.metrics, LATENCY_TIMER, server, stage, from, to);
+		}
+	}
+
+	private void prune(long now) {
+		if (now - this.lastPrune > EMITTED_RETENTION) {
+			this.lastPrune = now;
+			this.tracked.values().removeIf(file -> file.emitted != 0
+					? now - file.emitted > EMITTED_RETENTION
+					: now - file.discovered > DISCOVERED_RETENTION);
+		}
+	}
+
+	private SftpSourceMetricsTags tags() {
+		SftpSourceMetricsTags tags = this.tags;
+		if (tags == null) {
+			tags = new SftpSourceMetricsTags(this.properties, this.rotator.getIfAvailable());
+			this.tags = tags;
+		}
+		return tags;
+	}
+
+	private static String key(String server, String directory, String name) {
+		return server + ":" + normalize(directory + "/" + name);
+	}
+
+	private static String normalize(String path) {
+		return path.replaceAll("/{2,}", "/");
+	}
+
+	private static final class Tracked {
+
+		private final long modified;
+
+		private final long discovered;
+
+		private volatile long transferStarted;
+
+		private volatile long transferEnded;
+
+		private volatile long emitted;
+
+		Tracked(long modified, long discovered) {
+			this.modified = modified;
+			this.discovered = discovered;
+		}
+
+	}
+
+	private final class TrackingSessionFactory implements SessionFactory<LsEntry>, DisposableBean {
+
+		private final SessionFactory<LsEntry> delegate;
+
+		private final String server;
+
+		TrackingSessionFactory(SessionFactory<LsEntry> delegate, String server) {
+			this.delegate = delegate;
+			this.server = server;
+		}
+
+		@Override
+		public Session<LsEntry> getSession() {
+			return new TrackingSession(this.delegate.getSession(), this.server);
+		}
+
+		@Override
+		public void destroy() throws Exception {
+			if (this.delegate instanceof DisposableBean) {
+				((DisposableBean) this.delegate).destroy();
+			}
+		}
+
+	}
+
+	private final class TrackingSession extends ForwardingSession {
+
+		private final String server;
+
+		TrackingSession(Session<LsEntry> delegate, String server) {
+			super(delegate);
+			this.server = server;
+		}
+
+		@Override
+		public void read(String source, OutputStream outputStream) throws IOException {
+			Tracked file = SftpLatencyTracker.this.tracked.get(this.server + ":" + normalize(source));
+			if (file != null) {
+				file.transferStarted = System.currentTimeMillis();
+			}
+			super.read(source, outputStream);
+			if (file != null) {
+				file.transferEnded = System.currentTimeMillis();
+			}
+		}
+
+		@Override
+		public InputStream readRaw(String source) throws IOException {
+			Tracked file = SftpLatencyTracker.this.tracked.get(this.server + ":" + normalize(source));
+			if (file == null) {
+				return super.readRaw(source);
+			}
+			file.transferStarted = System.currentTimeMillis();
+			return new FilterInputStream(super.readRaw(source)) {
+
+				@Override
+				public void close() throws IOException {
+					super.close();
+					if (file.transferEnded == 0) {
+						file.transferEnded = System.currentTimeMillis();
+					}
+				}
+
+			};
+		}
+
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Throttles the task launch requests before they are emitted: at most
+ * {@link SftpSourceProperties#getLaunchRate()} launches per second and at most
+ * {@link SftpSourceProperties#getMaxOutstandingLaunches()} launches emitted within
+ * {@link SftpSourceProperties#getOutstandingLaunchTimeout()}, the expected duration of a
+ * task.
+ * <p>
+ * A launch beyond the limits blocks the thread emitting it, which is the poller's, so that
+ * no more files are listed until the launcher catches up; the files not listed yet stay
+ * unmarked. The time spent waiting is recorded in the {@code sftp.launch.wait} timer.
+ *
+ * @since 2.1.6
+ */
+public class SftpLaunchThrottle implements DisposableBean {
+
+	public static final String WAIT = "sftp.launch.wait";
+
+	private final long interval;
+
+	private final Semaphore outstanding;
+
+	private final long outstandingTimeout;
+
+	private final SftpMetrics metrics;
+
+	private final ScheduledExecutorService expirer;
+
+	private long nextLaunch = System.nanoTime();
+
+	public SftpLaunchThrottle(SftpSourceProperties properties, SftpMetrics metrics) {
+		this.interval = properties.getLaunchRate() > 0
+				? (long) (TimeUnit.SECONDS.toNanos(1) / properties.getLaunchRate())
+				: 0;
+		this.outstanding = properties.getMaxOutstandingLaunches() > 0
+				? new Semaphore(properties.getMaxOutstandingLaunches(), true)
+				: null;
+		this.outstandingTimeout = properties.getOutstandingLaunchTimeout().toMillis();
+		this.metrics = metrics;
+		if (this.outstanding != null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sftp-launch-");
+			threadFactory.setDaemon(true);
+			this.expirer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		}
+		else {
+			this.expirer = null;
+		}
+	}
+
+	public boolean isEnabled() {
+		return this.interval > 0 || this.outstanding != null;
+	}
+
+	/**
+	 * Wait until a launch is allowed.
+	 * @param unmark called if interrupted while waiting, to unmark the files of the launch
+	 * so that they are launched again.
+	 */
+	public void acquire(Runnable unmark) {
+		if (!isEnabled()) {
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			long wait;
+			synchronized (this) {
+				long now = System.nanoTime();
+				long launch = Math.max(now, this.nextLaunch);
+				this.nextLaunch = launch + this.interval;
+				wait = launch - now;
+			}
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			if (this.outstanding != null) {
+				this.outstanding.acquire();
+				this.expirer.schedule(() -> this.outstanding.release(), this.outstandingTimeout,
+						TimeUnit.MILLISECONDS);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			unmark.run();
+			throw new IllegalStateException("Interrupted while throttling a task launch", e);
+		}
+		finally {
+			this.metrics.record(start, WAIT);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (this.expirer != null) {
+			this.expirer.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.integration.file.filters.FileListFilter;
+import org.springframework.integration.file.filters.ReversibleFileListFilter;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Manages the local directory the remote files are transferred to.
+ * <p>
+ * With {@link SftpSourceProperties#getLocalDirMaxSize()}, the {@link #filter(ReversibleFileListFilter)}
+ * defers the transfers while the local directory holds that many bytes: the files beyond the
+ * quota are rolled back from the accept once filter and fetched by a later poll.
+ * <p>
+ * With {@link SftpSourceProperties#getLocalFileMaxAge()}, a local file is acknowledged once its
+ * message has been sent, see {@link #afterSend()}, and deleted by a background thread that
+ * long afterwards. The acknowledgements are kept in memory, so the files found in the local
+ * directory at startup are taken as sent when they were last modified, or at startup when the
+ * remote timestamps are preserved; a file emitted again is acknowledged again. A quota
+ * requires a maximum age, since nothing else frees the local directory.
+ * <p>
+ * The usage of the local directory is recorded in the {@code sftp.local.staging.bytes}
+ * summary, the deferred and evicted files in the {@code sftp.local.staging.deferred} and
+ * {@code sftp.local.staging.evicted} counters.
+ *
+ * @since 2.1.6
+ */
+public class SftpLocalStaging implements InitializingBean, DisposableBean {
+
+	public static final String USAGE = "sftp.local.staging.bytes";
+
+	public static final String DEFERRED = "sftp.local.staging.deferred";
+
+	public static final String EVICTED = "sftp.local.staging.evicted";
+
+	private final Path directory;
+
+	private final long maxBytes;
+
+	private final long maxAge;
+
+	private final boolean preserveTimestamp;
+
+	private final SftpMetrics metrics;
+
+	private final Map<File, Long> sent = new ConcurrentHashMap<>();
+
+	private final ScheduledExecutorService evictor;
+
+	public SftpLocalStaging(SftpSourceProperties properties, SftpMetrics metrics) {
+		this.directory = properties.getLocalDir().toPath();
+		this.maxBytes = properties.getLocalDirMaxSize() != null ? properties.getLocalDirMaxSize().toBytes() : 0;
+		this.maxAge = properties.getLocalFileMaxAge() != null ? properties.getLocalFileMaxAge().toMillis() : -1;
+		this.preserveTimestamp = properties.isPreserveTimestamp();
+		this.metrics = metrics;
+		if (this.maxAge >= 0) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sftp-local-staging-");
+			threadFactory.setDaemon(true);
+			this.evictor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+			long period = Math.max(100, Math.min(this.maxAge, 1000));
+			this.evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+		}
+		else {
+			this.evictor = null;
+		}
+	}
+
+	/**
+	 * Acknowledge the files left in the local directory by a previous run, so that they are
+	 * evicted rather than held against the quota forever.
+	 */
+	@Override
+	public void afterPropertiesSet() {
+		if (this.maxAge < 0 || !Files.isDirectory(this.directory)) {
+			return;
+		}
+		long startup = System.currentTimeMillis();
+		try (Stream<Path> files = Files.walk(this.directory)) {
+			files.filter(Files::isRegularFile)
+					.map(Path::toFile)
+					.forEach(file -> this.sent.putIfAbsent(file,
+							this.preserveTimestamp ? startup : Math.min(file.lastModified(), startup)));
+		}
+		catch (IOException | UncheckedIOException e) {
+			// a file removed while walking; no longer staged
+		}
+	}
+
+	/**
+	 * @return true if the transfers are limited by a quota.
+	 */
+	public boolean isQuotaEnabled() {
+		return this.maxBytes > 0;
+	}
+
+	/**
+	 * The filter deferring the files beyond the quota; it comes after the accept once filter,
+	 * which it rolls the deferred files back from.
+	 * @param acceptOnce the accept once filter.
+	 * @return the filter.
+	 */
+	public FileListFilter<LsEntry> filter(ReversibleFileListFilter<LsEntry> acceptOnce) {
+		return files -> {
+			List<LsEntry> accepted = new ArrayList<>(files.length);
+			long staged = usage();
+			for (int i = 0; i < files.length; i++) {
+				if (staged >= this.maxBytes) {
+					acceptOnce.rollback(files[i], Arrays.asList(files));
+					this.metrics.count(files.length - i, DEFERRED);
+					break;
+				}
+				accepted.add(files[i]);
+				staged += files[i].getAttrs().getSize();
+			}
+			return accepted;
+		};
+	}
+
+	/**
+	 * An interceptor, for the first channel after the source, that acknowledges the local
+	 * file of each message once it has been sent downstream.
+	 * @return the interceptor.
+	 */
+	public ChannelInterceptor afterSend() {
+		return new ChannelInterceptor() {
+
+			@Override
+			public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent,
+					@Nullable Exception ex) {
+				if (sent && ex == null && SftpLocalStaging.this.maxAge >= 0 && message.getPayload() instanceof File) {
+					SftpLocalStaging.this.sent.put((File) message.getPayload(), System.currentTimeMillis());
+				}
+			}
+
+		};
+	}
+
+	/**
+	 * @return the bytes of the files in the local directory.
+	 */
+	public long usage() {
+		long usage = 0;
+		if (Files.isDirectory(this.directory)) {
+			try (Stream<Path> files = Files.walk(this.directory)) {
+				usage = files.mapToLong(SftpLocalStaging::size).sum();
+			}
+			catch (IOException | UncheckedIOException e) {
+				// a file removed while walking; counted on the next poll
+			}
+		}
+		this.metrics.summary(usage, USAGE);
+		return usage;
+	}
+
+	private static long size(Path path) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			return attributes.isRegularFile() ? attributes.size() : 0;
+		}
+		catch (IOException e) {
+			return 0;
+		}
+	}
+
+	private void evict() {
+		long expired = System.currentTimeMillis() - this.maxAge;
+		this.sent.forEach((file, sentAt) -> {
+			if (sentAt <= expired && this.sent.remove(file, sentAt)) {
+				if (file.delete()) {
+					this.metrics.count(1, EVICTED);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void destroy() {
+		if (this.evictor != null) {
+			this.evictor.shutdownNow();
+		}
+	}
+
+}
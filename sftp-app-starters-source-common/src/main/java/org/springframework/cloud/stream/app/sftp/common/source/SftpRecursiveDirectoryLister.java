@@ -0,0 +1,284 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.file.remote.session.DelegatingSessionFactory;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * Lists the files in a remote directory tree. The tree is walked one level at a time and
+ * the directories of each level are listed concurrently, each on its own session.
+ * <p>
+ * When {@code skipUnchangedDirectories} is true, the modification time of each
+ * directory without sub-directories is remembered; once it has been seen unchanged on
+ * two consecutive scans the directory is no longer listed (and its files are not
+ * returned again) until its modification time changes. Directories with sub-directories
+ * are always listed, because a change deeper in the tree does not change their
+ * modification time. A directory is listed again, once, after {@link #relist(String)},
+ * when the key of one of its files is removed from the metadata store.
+ *
+ * @since 2.1.6
+ */
+public class SftpRecursiveDirectoryLister implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(SftpRecursiveDirectoryLister.class);
+
+	private final SessionFactory<LsEntry> sessionFactory;
+
+	private final String separator;
+
+	private final int maxDepth;
+
+	private final Pattern directoryRegex;
+
+	private final Pattern excludeDirectoryRegex;
+
+	private final boolean skipUnchangedDirectories;
+
+	private final ExecutorService executor;
+
+	private final Map<String, DirectoryState> directories = new ConcurrentHashMap<>();
+
+	public SftpRecursiveDirectoryLister(SessionFactory<LsEntry> sessionFactory, SftpSourceProperties properties) {
+		Assert.notNull(sessionFactory, "'sessionFactory' is required");
+		this.sessionFactory = sessionFactory;
+		this.separator = properties.getRemoteFileSeparator();
+		this.maxDepth = properties.getMaxDepth();
+		this.directoryRegex = properties.getDirectoryRegex();
+		this.excludeDirectoryRegex = properties.getExcludeDirectoryRegex();
+		this.skipUnchangedDirectories = properties.isSkipUnchangedDirectories();
+		this.executor = SftpExecutors.newExecutor(properties, properties.getListingConcurrency(), "sftp-lister-");
+	}
+
+	/**
+	 * Normalize a directory so that it ends with the remote file separator.
+	 * @param directory the directory.
+	 * @return the directory with a trailing separator.
+	 */
+	public String directoryPath(String directory) {
+		return directory.endsWith(this.separator) ? directory : directory + this.separator;
+	}
+
+	/**
+	 * Forget the modification time of the directory of a file, so that it is listed on the
+	 * next scan even if unchanged: for a file whose key has been removed from the metadata
+	 * store, to be emitted again.
+	 * @param path the remote file path.
+	 */
+	public void relist(String path) {
+		if (this.skipUnchangedDirectories) {
+			String directory = ":" + path.substring(0, path.lastIndexOf(this.separator) + this.separator.length());
+			this.directories.keySet().removeIf(cacheKey -> cacheKey.endsWith(directory));
+		}
+	}
+
+	/**
+	 * List the files in the tree below the directory.
+	 * @param directory the root of the tree.
+	 * @param key the key of the session factory to use when the session factory is a
+	 * {@link DelegatingSessionFactory}; null for the default factory.
+	 * @return the file paths, relative to the directory.
+	 */
+	public List<String> listFiles(String directory, @Nullable Object key) {
+		return listFiles(directory, key, path -> true);
+	}
+
+	/**
+	 * List the files in the tree below the directory that pass the filter.
+	 * @param directory the root of the tree.
+	 * @param key the key of the session factory to use when the session factory is a
+	 * {@link DelegatingSessionFactory}; null for the default factory.
+	 * @param filter the filter of the file paths, relative to the directory.
+	 * @return the file paths, relative to the directory.
+	 */
+	public List<String> listFiles(String directory, @Nullable Object key, Predicate<String> filter) {
+		String root = directoryPath(directory);
+		List<String> files = new ArrayList<>();
+		List<RemoteDirectory> level = Collections.singletonList(new RemoteDirectory("", -1));
+		for (int depth = 0; !level.isEmpty(); depth++) {
+			List<Future<Listing>> listings = new ArrayList<>(level.size());
+			for (RemoteDirectory dir : level) {
+				listings.add(this.executor.submit(() -> list(root, dir, key)));
+			}
+			List<RemoteDirectory> next = new ArrayList<>();
+			for (Future<Listing> future : listings) {
+				Listing listing = get(future);
+				for (String file : listing.files) {
+					if (filter.test(file)) {
+						files.add(file);
+					}
+				}
+				if (depth < this.maxDepth) {
+					next.addAll(listing.subdirectories);
+				}
+			}
+			level = next;
+		}
+		return files;
+	}
+
+	private Listing list(String root, RemoteDirectory dir, Object key) throws IOException {
+		String cacheKey = key + ":" + root + dir.path;
+		DirectoryState state = this.directories.get(cacheKey);
+		if (this.skipUnchangedDirectories && state != null && state.unchangedLeaf(dir.mtime)) {
+			if (logger.isTraceEnabled()) {
+				logger.trace("Skipping unchanged directory " + root + dir.path);
+			}
+			return Listing.EMPTY;
+		}
+		List<String> files = new ArrayList<>();
+		List<RemoteDirectory> subdirectories = new ArrayList<>();
+		Session<LsEntry> session = session(key);
+		try {
+			LsEntry[] entries = session.list(root + dir.path);
+			if (entries != null) {
+				for (LsEntry entry : entries) {
+					String name = entry.getFilename();
+					if (name.startsWith(".")) {
+						continue;
+					}
+					SftpATTRS attrs = entry.getAttrs();
+					if (attrs.isDir()) {
+						if (included(name)) {
+							subdirectories.add(new RemoteDirectory(dir.path + name + this.separator, attrs.getMTime()));
+						}
+					}
+					else if (!attrs.isLink()) {
+						files.add(dir.path + name);
+					}
+				}
+			}
+		}
+		finally {
+			session.close();
+		}
+		if (dir.mtime >= 0) {
+			this.directories.put(cacheKey, new DirectoryState(dir.mtime, subdirectories.isEmpty(),
+					state != null && state.mtime == dir.mtime));
+		}
+		return new Listing(files, subdirectories);
+	}
+
+	private boolean included(String name) {
+		return (this.directoryRegex == null || this.directoryRegex.matcher(name).matches())
+				&& (this.excludeDirectoryRegex == null || !this.excludeDirectoryRegex.matcher(name).matches());
+	}
+
+	@SuppressWarnings("unchecked")
+	private Session<LsEntry> session(Object key) {
+		if (key != null && this.sessionFactory instanceof DelegatingSessionFactory) {
+			return ((DelegatingSessionFactory<LsEntry>) this.sessionFactory).getSession(key);
+		}
+		return this.sessionFactory.getSession();
+	}
+
+	private static Listing get(Future<Listing> future) {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while listing remote directories", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw new UncheckedIOException((IOException) e.getCause());
+			}
+			throw new IllegalStateException("Failed to list remote directory", e.getCause());
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
+	private static final class RemoteDirectory {
+
+		private final String path;
+
+		private final int mtime;
+
+		RemoteDirectory(String path, int mtime) {
+			this.path = path;
+			this.mtime = mtime;
+		}
+
+	}
+
+	private static final class DirectoryState {
+
+		private final int mtime;
+
+		private final boolean leaf;
+
+		private final boolean confirmed;
+
+		DirectoryState(int mtime, boolean leaf, boolean confirmed) {
+			this.mtime = mtime;
+			this.leaf = leaf;
+			this.confirmed = confirmed;
+		}
+
+		/*
+		 * Modification times have a resolution of one second; a file added in the same second
+		 * as the first listing is picked up by the confirming listing on the next scan.
+		 */
+		boolean unchangedLeaf(int mtime) {
+			return this.leaf && this.confirmed && this.mtime == mtime;
+		}
+
+	}
+
+	private static final class Listing {
+
+		private static final Listing EMPTY = new Listing(Collections.emptyList(), Collections.emptyList());
+
+		private final List<String> files;
+
+		private final List<RemoteDirectory> subdirectories;
+
+		Listing(List<String> files, List<RemoteDirectory> subdirectories) {
+			this.files = files;
+			this.subdirectories = subdirectories;
+		}
+
+	}
+
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.file.filters.FileListFilter;
+import org.springframework.integration.file.remote.session.DelegatingSessionFactory;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.metadata.ConcurrentMetadataStore;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StringUtils;
+
+/**
+ * Runs the actions on the remote files that follow their transfer, deleting them or moving
+ * them to {@code moveToDirectory}, in the background once their messages have been emitted,
+ * instead of after each transfer on the polling thread. A background thread takes the
+ * pending actions in batches of {@code remoteActionBatchSize} and runs those of each server
+ * on one session.
+ * <p>
+ * The messages of the streaming adapter carry their remote file in headers; the local files
+ * of the synchronizing adapter are resolved back to the server and directory they were
+ * synchronized from by {@link #synchronizedFiles(SftpSourceRotator)}, or else, for the
+ * files synchronized before a restart, to {@code remoteDir} with a single source; with
+ * multiple sources, the server of such a file is unknown, so no action is taken on it.
+ * <p>
+ * The pending actions are journaled in the metadata store, each under a sequence number
+ * between the {@code head} and {@code tail} entries, so that the actions still pending
+ * when the application stops or crashes are run again when it starts; with a shared
+ * metadata store, only the leader should run them, see {@code sftp.leader-role}.
+ *
+ * @since 2.1.6
+ */
+public class SftpRemoteFileActions implements InitializingBean, DisposableBean {
+
+	public static final String ACTION = "sftp.source.remote.action";
+
+	private static final Log logger = LogFactory.getLog(SftpRemoteFileActions.class);
+
+	private static final String PREFIX = "sftpRemoteActions/";
+
+	private static final String HEAD = PREFIX + "head";
+
+	private static final String TAIL = PREFIX + "tail";
+
+	private static final int MAX_ATTEMPTS = 3;
+
+	private final SessionFactory<LsEntry> sessionFactory;
+
+	private final ConcurrentMetadataStore metadataStore;
+
+	private final SftpMetrics metrics;
+
+	private final int batchSize;
+
+	private final String moveToDirectory;
+
+	private final String remoteDir;
+
+	private final String separator;
+
+	private final File localDir;
+
+	private final boolean multiSource;
+
+	private final Map<String, RemoteFile> localFiles = new ConcurrentHashMap<>();
+
+	private final Set<String> directories = ConcurrentHashMap.newKeySet();
+
+	private final BlockingQueue<Action> queue = new LinkedBlockingQueue<>();
+
+	private final NavigableSet<Long> pending = new ConcurrentSkipListSet<>();
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private final ExecutorService executor;
+
+	public SftpRemoteFileActions(SessionFactory<LsEntry> sessionFactory, SftpSourceProperties properties,
+			ConcurrentMetadataStore metadataStore, SftpMetrics metrics) {
+		this.sessionFactory = sessionFactory;
+		this.metadataStore = metadataStore;
+		this.metrics = metrics;
+		this.batchSize = properties.getRemoteActionBatchSize();
+		this.moveToDirectory = properties.getMoveToDirectory();
+		this.remoteDir = properties.getRemoteDir();
+		this.separator = properties.getRemoteFileSeparator();
+		this.localDir = properties.getLocalDir();
+		this.multiSource = properties.isMultiSource();
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sftp-remote-actions-");
+		threadFactory.setDaemon(true);
+		this.executor = Executors.newSingleThreadExecutor(threadFactory);
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		long head = sequence(HEAD);
+		long tail = sequence(TAIL);
+		for (long seq = head; seq < tail; seq++) {
+			String journaled = this.metadataStore.get(PREFIX + seq);
+			if (journaled != null) {
+				this.pending.add(seq);
+				this.queue.add(Action.parse(seq, journaled));
+			}
+		}
+		if (!this.queue.isEmpty()) {
+			logger.info("Resuming " + this.queue.size() + " pending remote file actions");
+		}
+		this.tail.set(tail);
+		this.executor.execute(this::run);
+	}
+
+	/**
+	 * Queue the deletion of a remote file.
+	 * @param key the key of the session factory to use when the session factory is a
+	 * {@link DelegatingSessionFactory}; null for the default factory.
+	 * @param path the remote file path.
+	 */
+	public void delete(@Nullable String key, String path) {
+		submit(new Action(0, Action.DELETE, key, path, null));
+	}
+
+	/**
+	 * Queue the move of a remote file; the target directory is created if needed.
+	 * @param key the key of the session factory to use when the session factory is a
+	 * {@link DelegatingSessionFactory}; null for the default factory.
+	 * @param path the remote file path.
+	 * @param target the remote path to move the file to.
+	 */
+	public void move(@Nullable String key, String path, String target) {
+		submit(new Action(0, Action.RENAME, key, path, target));
+	}
+
+	/**
+	 * A filter, for the end of the synchronizing adapter's filter chain, that records the
+	 * server and directory of the files it accepts, since the synchronizer runs on the
+	 * polling thread before the rotator moves on, so that their local files can be resolved
+	 * back to their remote files.
+	 * @param rotator the rotator, for the server and directory being synchronized; null for
+	 * a single source.
+	 * @return the filter.
+	 */
+	public FileListFilter<LsEntry> synchronizedFiles(@Nullable SftpSourceRotator rotator) {
+		return files -> {
+			List<LsEntry> accepted = new ArrayList<>(files.length);
+			for (LsEntry file : files) {
+				if (!file.getAttrs().isDir()) {
+					this.localFiles.put(new File(this.localDir, file.getFilename()).getAbsolutePath(), new RemoteFile(
+							rotator != null ? rotator.getCurrentKey() : null,
+							rotator != null ? rotator.getCurrentDirectory() : this.remoteDir, file.getFilename(),
+							this.separator));
+				}
+				accepted.add(file);
+			}
+			return accepted;
+		};
+	}
+
+	/**
+	 * An interceptor, for the first channel after the source, that queues the move to
+	 * {@code moveToDirectory}, or else the deletion, of the remote file of each message once
+	 * it has been sent downstream.
+	 * @param rotator the rotator, for the server of the messages without the selected
+	 * server header; null for a single source.
+	 * @return the interceptor.
+	 */
+	public ChannelInterceptor afterSend(@Nullable SftpSourceRotator rotator) {
+		return new ChannelInterceptor() {
+
+			@Override
+			public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent,
+					@Nullable Exception ex) {
+				RemoteFile remoteFile = remoteFile(message, rotator);
+				if (sent && ex == null && remoteFile != null) {
+					if (SftpRemoteFileActions.this.moveToDirectory != null) {
+						move(remoteFile.key, remoteFile.path(),
+								remoteFile.movedPath(SftpRemoteFileActions.this.moveToDirectory));
+					}
+					else {
+						delete(remoteFile.key, remoteFile.path());
+					}
+					if (message.getPayload() instanceof File) {
+						SftpRemoteFileActions.this.localFiles.remove(((File) message.getPayload()).getAbsolutePath());
+					}
+				}
+			}
+
+		};
+	}
+
+	/**
+	 * The server of a message: its selected server header or, since the interceptors run on
+	 * the polling thread, the server currently polled.
+	 * @param message the message.
+	 * @param rotator the rotator; null for a single source.
+	 * @return the server key, or null for a single source.
+	 */
+	@Nullable
+	public static String serverKey(Message<?> message, @Nullable SftpSourceRotator rotator) {
+		String key = message.getHeaders().get(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY, String.class);
+		return key != null || rotator == null ? key : rotator.getCurrentKey();
+	}
+
+	/**
+	 * The remote file of a message from an inbound adapter: its remote file headers or, for a
+	 * local file, the server and directory it was synchronized from.
+	 * @return the remote file, or null if the message has neither, or if the origin of its
+	 * local file is unknown with multiple sources.
+	 */
+	@Nullable
+	private RemoteFile remoteFile(Message<?> message, @Nullable SftpSourceRotator rotator) {
+		if (message.getPayload() instanceof File) {
+			File localFile = (File) message.getPayload();
+			RemoteFile synced = this.localFiles.get(localFile.getAbsolutePath());
+			if (synced != null) {
+				return synced;
+			}
+			// synchronized before a restart
+			if (this.multiSource) {
+				logger.warn("The server of " + localFile + " is unknown, synchronized before a restart; "
+						+ "its remote file is neither moved nor deleted");
+				return null;
+			}
+			return new RemoteFile(null, this.remoteDir, localFile.getName(), this.separator);
+		}
+		String directory = message.getHeaders().get(FileHeaders.REMOTE_DIRECTORY, String.class);
+		String file = message.getHeaders().get(FileHeaders.REMOTE_FILE, String.class);
+		if (directory == null || file == null) {
+			return null;
+		}
+		return new RemoteFile(serverKey(message, rotator), directory, file, this.separator);
+	}
+
+	protected void submit(Action action) {
+		synchronized (this.pending) {
+			long seq = this.tail.getAndIncrement();
+			Action journaled = action.withSeq(seq);
+			this.pending.add(seq);
+			this.metadataStore.put(PREFIX + seq, journaled.toString());
+			this.metadataStore.put(TAIL, Long.toString(seq + 1));
+			this.queue.add(journaled);
+		}
+	}
+
+	private void run() {
+		List<Action> batch = new ArrayList<>(this.batchSize);
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				batch.add(this.queue.take());
+				this.queue.drainTo(batch, this.batchSize - 1);
+				if (!process(batch)) {
+					// back off before retrying the failed actions
+					TimeUnit.SECONDS.sleep(1);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			batch.clear();
+		}
+	}
+
+	private boolean process(List<Action> batch) {
+		Map<String, List<Action>> byServer = new LinkedHashMap<>();
+		for (Action action : batch) {
+			byServer.computeIfAbsent(action.key != null ? action.key : "", k -> new ArrayList<>()).add(action);
+		}
+		boolean succeeded = true;
+		for (Map.Entry<String, List<Action>> server : byServer.entrySet()) {
+			succeeded &= process(server.getKey().isEmpty() ? null : server.getKey(), server.getValue());
+		}
+		synchronized (this.pending) {
+			this.metadataStore.put(HEAD, Long.toString(this.pending.isEmpty() ? this.tail.get() : this.pending.first()));
+		}
+		return succeeded;
+	}
+
+	private boolean process(@Nullable String key, List<Action> actions) {
+		boolean succeeded = true;
+		Session<LsEntry> session = null;
+		try {
+			session = session(key);
+			for (Action action : actions) {
+				long start = System.nanoTime();
+				try {
+					if (Action.RENAME.equals(action.type)) {
+						createDirectory(key, session, action.target);
+					}
+					action.run(session);
+					this.metrics.record(start, ACTION, SftpMetrics.OPERATION, action.type,
+							SftpMetrics.OUTCOME, SftpMetrics.SUCCESS);
+					done(action);
+					if (Action.RENAME.equals(action.type)) {
+						// moved out of the polled directory, the file cannot be listed again
+						this.metadataStore.remove(SftpSourceFilters.ACCEPT_ONCE_PREFIX + fileName(action.path));
+					}
+				}
+				catch (Exception e) {
+					this.metrics.record(start, ACTION, SftpMetrics.OPERATION, action.type,
+							SftpMetrics.OUTCOME, SftpMetrics.FAILURE);
+					succeeded &= failed(action, e);
+				}
+			}
+		}
+		catch (Exception e) {
+			// no session; every action of the server failed
+			for (Action action : actions) {
+				succeeded &= failed(action, e);
+			}
+		}
+		finally {
+			if (session != null) {
+				session.close();
+			}
+		}
+		return succeeded;
+	}
+
+	/**
+	 * Create the directory of a move target, once per server and directory.
+	 */
+	private void createDirectory(@Nullable String key, Session<LsEntry> session, String target)
+			throws IOException {
+		String directory = target.substring(0, Math.max(target.lastIndexOf(this.separator), 0));
+		if (!directory.isEmpty() && !this.directories.contains(key + ":" + directory)) {
+			if (!session.exists(directory)) {
+				session.mkdir(directory);
+			}
+			this.directories.add(key + ":" + directory);
+		}
+	}
+
+	private String fileName(String path) {
+		int separator = path.lastIndexOf(this.separator);
+		return separator < 0 ? path : path.substring(separator + this.separator.length());
+	}
+
+	private void done(Action action) {
+		this.metadataStore.remove(PREFIX + action.seq);
+		this.pending.remove(action.seq);
+	}
+
+	/**
+	 * Queue a failed action again, unless it failed too often.
+	 * @return false if it was queued again.
+	 */
+	private boolean failed(Action action, Exception e) {
+		if (++action.attempts < MAX_ATTEMPTS) {
+			logger.debug("Remote file action failed; retrying: " + action, e);
+			this.queue.add(action);
+			return false;
+		}
+		logger.error("Remote file action failed " + MAX_ATTEMPTS + " times; giving up: " + action, e);
+		done(action);
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Session<LsEntry> session(@Nullable String key) {
+		if (key != null && this.sessionFactory instanceof DelegatingSessionFactory) {
+			return ((DelegatingSessionFactory<LsEntry>) this.sessionFactory).getSession(key);
+		}
+		return this.sessionFactory.getSession();
+	}
+
+	private long sequence(String key) {
+		String value = this.metadataStore.get(key);
+		return value != null ? Long.parseLong(value) : 0;
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * A remote file: the key of its server, its directory and its name.
+	 */
+	private static final class RemoteFile {
+
+		private final String key;
+
+		private final String directory;
+
+		private final String name;
+
+		private final String separator;
+
+		RemoteFile(@Nullable String key, String directory, String name, String separator) {
+			this.key = key;
+			this.directory = directory.endsWith(separator) ? directory : directory + separator;
+			this.name = name;
+			this.separator = separator;
+		}
+
+		String path() {
+			return this.directory + this.name;
+		}
+
+		/**
+		 * The path the file is moved to: the move directory, resolved against the file's
+		 * directory when relative, then the file name.
+		 */
+		String movedPath(String moveToDirectory) {
+			String target = moveToDirectory.startsWith(this.separator) ? moveToDirectory
+					: this.directory + moveToDirectory;
+			return target.endsWith(this.separator) ? target + this.name : target + this.separator + this.name;
+		}
+
+	}
+
+	/**
+	 * A pending action, journaled as its tab-separated fields.
+	 */
+	protected static final class Action {
+
+		static final String DELETE = "delete";
+
+		static final String RENAME = "rename";
+
+		private final long seq;
+
+		private final String type;
+
+		private final String key;
+
+		private final String path;
+
+		private final String target;
+
+		private int attempts;
+
+		Action(long seq, String type, @Nullable String key, String path, @Nullable String target) {
+			this.seq = seq;
+			this.type = type;
+			this.key = key;
+			this.path = path;
+			this.target = target;
+		}
+
+		Action withSeq(long seq) {
+			return new Action(seq, this.type, this.key, this.path, this.target);
+		}
+
+		void run(Session<LsEntry> session) throws Exception {
+			if (RENAME.equals(this.type)) {
+				session.rename(this.path, this.target);
+			}
+			else {
+				session.remove(this.path);
+			}
+		}
+
+		static Action parse(long seq, String journaled) {
+			String[] fields = StringUtils.delimitedListToStringArray(journaled, "\t");
+			return new Action(seq, fields[0], StringUtils.hasLength(fields[1]) ? fields[1] : null, fields[2],
+					fields.length > 3 ? fields[3] : null);
+		}
+
+		@Override
+		public String toString() {
+			return this.type + "\t" + (this.key != null ? this.key : "") + "\t" + this.path
+					+ (this.target != null ? "\t" + this.target : "");
+		}
+
+	}
+
+}
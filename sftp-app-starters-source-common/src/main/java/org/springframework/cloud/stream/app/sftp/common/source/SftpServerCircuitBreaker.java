@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * A circuit breaker per server of the rotation: after
+ * {@link SftpSourceProperties#getCircuitBreakerThreshold()} consecutive failures to open a
+ * session on a server, the circuit opens and the {@link SftpSourceRotator} skips the server
+ * without connecting, while a background thread probes it every
+ * {@link SftpSourceProperties#getCircuitBreakerProbeInterval()}; the circuit closes, and the
+ * server rejoins the rotation, once a probe connects.
+ *
+ * @since 2.1.6
+ */
+public class SftpServerCircuitBreaker implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(SftpServerCircuitBreaker.class);
+
+	private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+	private final int threshold;
+
+	private final long probeInterval;
+
+	private volatile Circuit defaultCircuit;
+
+	private ScheduledExecutorService prober;
+
+	public SftpServerCircuitBreaker(SftpSourceProperties properties) {
+		this.threshold = properties.isMultiSource() ? properties.getCircuitBreakerThreshold() : 0;
+		this.probeInterval = properties.getCircuitBreakerProbeInterval().toMillis();
+	}
+
+	public boolean isEnabled() {
+		return this.threshold > 0;
+	}
+
+	/**
+	 * @param server the server key.
+	 * @return true if the circuit of the server is open, and the server should be skipped;
+	 * a key without a session factory of its own shares the circuit of the default factory.
+	 */
+	public boolean isOpen(String server) {
+		Circuit circuit = this.circuits.get(server);
+		if (circuit == null) {
+			circuit = this.defaultCircuit;
+		}
+		return circuit != null && circuit.open;
+	}
+
+	/**
+	 * Decorate the session factory of a server so that its failures to open a session are
+	 * counted, and so that it fails fast while the circuit is open.
+	 * @param sessionFactory the session factory.
+	 * @param server the server key.
+	 * @return the decorated session factory.
+	 */
+	public SessionFactory<LsEntry> sessionFactory(SessionFactory<LsEntry> sessionFactory, String server) {
+		Circuit circuit = new Circuit(server, sessionFactory);
+		this.circuits.put(server, circuit);
+		return circuit;
+	}
+
+	/**
+	 * Decorate the default session factory, used for the keys of the rotation without a
+	 * session factory of their own.
+	 * @param sessionFactory the default session factory.
+	 * @return the decorated session factory.
+	 */
+	public SessionFactory<LsEntry> defaultSessionFactory(SessionFactory<LsEntry> sessionFactory) {
+		Circuit circuit = new Circuit("default", sessionFactory);
+		this.defaultCircuit = circuit;
+		return circuit;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (this.prober != null) {
+			this.prober.shutdownNow();
+		}
+	}
+
+	private synchronized void startProbing() {
+		if (this.prober == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sftp-probe-");
+			threadFactory.setDaemon(true);
+			this.prober = Executors.newSingleThreadScheduledExecutor(threadFactory);
+			this.prober.scheduleWithFixedDelay(this::probe, this.probeInterval, this.probeInterval,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void probe() {
+		this.circuits.values().forEach(circuit -> {
+			if (circuit.open) {
+				circuit.probe();
+			}
+		});
+		Circuit circuit = this.defaultCircuit;
+		if (circuit != null && circuit.open) {
+			circuit.probe();
+		}
+	}
+
+	private final class Circuit implements SessionFactory<LsEntry>, DisposableBean {
+
+		private final String server;
+
+		private final SessionFactory<LsEntry> delegate;
+
+		private final AtomicInteger failures = new AtomicInteger();
+
+		private volatile boolean open;
+
+		Circuit(String server, SessionFactory<LsEntry> delegate) {
+			this.server = server;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Session<LsEntry> getSession() {
+			if (this.open) {
+				throw new IllegalStateException("The circuit of server '" + this.server
+						+ "' is open after repeated connection failures; waiting for a probe to connect");
+			}
+			try {
+				Session<LsEntry> session = this.delegate.getSession();
+				this.failures.set(0);
+				return session;
+			}
+			catch (RuntimeException e) {
+				if (this.failures.incrementAndGet() >= SftpServerCircuitBreaker.this.threshold && !this.open) {
+					this.open = true;
+					logger.warn("Skipping server '" + this.server + "' after "
+							+ SftpServerCircuitBreaker.this.threshold + " connection failures", e);
+					startProbing();
+				}
+				throw e;
+			}
+		}
+
+		void probe() {
+			try {
+				this.delegate.getSession().close();
+				this.failures.set(0);
+				this.open = false;
+				logger.info("Server '" + this.server + "' is reachable again; resuming its rotation");
+			}
+			catch (RuntimeException e) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Server '" + this.server + "' is still unreachable", e);
+				}
+			}
+		}
+
+		@Override
+		public void destroy() throws Exception {
+			if (this.delegate instanceof DisposableBean) {
+				((DisposableBean) this.delegate).destroy();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+
+import org.springframework.cloud.stream.app.sftp.common.metrics.MeteredFileListFilter;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.integration.file.filters.ChainFileListFilter;
+import org.springframework.integration.file.filters.FileListFilter;
+import org.springframework.integration.metadata.ConcurrentMetadataStore;
+import org.springframework.integration.sftp.filters.SftpPersistentAcceptOnceFileListFilter;
+import org.springframework.integration.sftp.filters.SftpRegexPatternFileListFilter;
+import org.springframework.integration.sftp.filters.SftpSimplePatternFileListFilter;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Builds the chain of filters applied to the remote files before they are fetched.
+ *
+ * @since 2.1.6
+ */
+public final class SftpSourceFilters {
+
+	/**
+	 * The metadata store key prefix of the accept once filter.
+	 */
+	public static final String ACCEPT_ONCE_PREFIX = "sftpSource/";
+
+	private SftpSourceFilters() {
+		super();
+	}
+
+	/**
+	 * The stability filter comes first, so that it sees the marker files; the fetch order
+	 * comes after the filters that reject files, so that the files beyond {@code maxFetch}
+	 * are the ones rolled back, and is only followed by the latency tracker, which keeps
+	 * its order.
+	 * @param properties the properties.
+	 * @param metadataStore the store for the accept once filter.
+	 * @param metrics the metrics; the accept once filter, which hits the metadata store, is timed.
+	 * @param tags the metrics tags.
+	 * @param latencyTracker the latency tracker, last, to track only the files to fetch; may be null.
+	 * @return the filter chain.
+	 */
+	public static ChainFileListFilter<LsEntry> filterChain(SftpSourceProperties properties,
+			ConcurrentMetadataStore metadataStore, SftpMetrics metrics, Function<Message<?>, String[]> tags,
+			@Nullable SftpLatencyTracker latencyTracker) {
+		return filterChain(properties, metadataStore, metrics, tags, latencyTracker, null);
+	}
+
+	/**
+	 * The filter chain of the transfers to the local directory: the local staging quota, if
+	 * any, comes after the fetch order, so that the files deferred are the last ones.
+	 * @param properties the properties.
+	 * @param metadataStore the store for the accept once filter.
+	 * @param metrics the metrics; the accept once filter, which hits the metadata store, is timed.
+	 * @param tags the metrics tags.
+	 * @param latencyTracker the latency tracker, last, to track only the files to fetch; may be null.
+	 * @param localStaging the local staging; may be null.
+	 * @return the filter chain.
+	 */
+	public static ChainFileListFilter<LsEntry> filterChain(SftpSourceProperties properties,
+			ConcurrentMetadataStore metadataStore, SftpMetrics metrics, Function<Message<?>, String[]> tags,
+			@Nullable SftpLatencyTracker latencyTracker, @Nullable SftpLocalStaging localStaging) {
+		ChainFileListFilter<LsEntry> filterChain = new ChainFileListFilter<>();
+		if (properties.getStabilityPeriod() != null || !ObjectUtils.isEmpty(properties.getMarkerSuffixes())) {
+			filterChain.addFilter(new SftpStabilityFileListFilter(properties.getStabilityPeriod(),
+					() -> location(tags), properties.getMarkerSuffixes()));
+		}
+		if (StringUtils.hasText(properties.getFilenamePattern())) {
+			filterChain.addFilter(new SftpSimplePatternFileListFilter(properties.getFilenamePattern()));
+		}
+		else if (properties.getFilenameRegex() != null) {
+			filterChain.addFilter(new SftpRegexPatternFileListFilter(properties.getFilenameRegex()));
+		}
+		SftpPersistentAcceptOnceFileListFilter acceptOnce =
+				new SftpPersistentAcceptOnceFileListFilter(metadataStore, ACCEPT_ONCE_PREFIX);
+		filterChain.addFilter(metrics.isEnabled() ? new MeteredFileListFilter<>(acceptOnce, metrics, tags) : acceptOnce);
+		SftpFetchPriority fetchPriority = new SftpFetchPriority(properties);
+		if (fetchPriority.isEnabled()) {
+			filterChain.addFilter(fetchPriority.filter());
+		}
+		if (localStaging != null && localStaging.isQuotaEnabled()) {
+			filterChain.addFilter(localStaging.filter(acceptOnce));
+		}
+		if (latencyTracker != null) {
+			filterChain.addFilter(latencyTracker.filter());
+		}
+		return filterChain;
+	}
+
+	/**
+	 * The server and directory being listed, as tagged on the meters of a poll.
+	 * @param tags the metrics tags.
+	 * @return the server and directory.
+	 */
+	static String location(Function<Message<?>, String[]> tags) {
+		String[] current = tags.apply(null);
+		return current[1] + ':' + current[3];
+	}
+
+	/**
+	 * The filter applied to the names listed in list-only and task launcher modes before
+	 * they are split into messages, so that the names rejected never become messages: the
+	 * filename pattern or regex, matched against the file name (the last segment of the
+	 * relative paths of a recursive listing), then the names already in the metadata
+	 * store. The store is only read, one name at a time, since it has no batched lookup;
+	 * the idempotent receiver still marks the names that are emitted, so a new name costs
+	 * a read here and a write there.
+	 * @param properties the properties.
+	 * @param metadataStore the store of the idempotent receiver.
+	 * @param idempotentKey the idempotent receiver's key of a listed name.
+	 * @return the filter.
+	 */
+	public static Predicate<String> listingFilter(SftpSourceProperties properties,
+			ConcurrentMetadataStore metadataStore, Function<String, String> idempotentKey) {
+		Predicate<String> filter = name -> metadataStore.get(idempotentKey.apply(name)) == null;
+		String separator = properties.getRemoteFileSeparator();
+		Function<String, String> fileName = name -> {
+			int index = name.lastIndexOf(separator);
+			return index < 0 ? name : name.substring(index + separator.length());
+		};
+		if (StringUtils.hasText(properties.getFilenamePattern())) {
+			AntPathMatcher matcher = new AntPathMatcher();
+			String pattern = properties.getFilenamePattern();
+			return ((Predicate<String>) name -> matcher.match(pattern, fileName.apply(name))).and(filter);
+		}
+		else if (properties.getFilenameRegex() != null) {
+			Pattern regex = properties.getFilenameRegex();
+			return ((Predicate<String>) name -> regex.matcher(fileName.apply(name)).matches()).and(filter);
+		}
+		return filter;
+	}
+
+	/**
+	 * Adapt a listing filter to the {@code LS} gateway.
+	 * @param filterSupplier supplies the listing filter of the directory listed.
+	 * @return the file list filter.
+	 */
+	public static FileListFilter<LsEntry> listingFileListFilter(Supplier<Predicate<String>> filterSupplier) {
+		return files -> {
+			Predicate<String> filter = filterSupplier.get();
+			List<LsEntry> accepted = new ArrayList<>(files.length);
+			for (LsEntry file : files) {
+				if (filter.test(file.getFilename())) {
+					accepted.add(file);
+				}
+			}
+			return accepted;
+		};
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.util.UUID;
+
+import com.hazelcast.core.HazelcastInstance;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.integration.hazelcast.lock.HazelcastLockRegistry;
+import org.springframework.integration.leader.DefaultCandidate;
+import org.springframework.integration.support.leader.LockRegistryLeaderInitiator;
+import org.springframework.integration.support.locks.LockRegistry;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Leader election for the polling endpoint. When {@code sftp.leader-role} is set, the
+ * polling endpoint is assigned to that role and is only started on the instance that
+ * obtains the lock for the role from the shared {@link LockRegistry}.
+ * <p>
+ * Without a {@link LockRegistry} bean, a {@link HazelcastLockRegistry} is used when there is
+ * a {@link HazelcastInstance} bean; otherwise the context fails to start, since a registry
+ * local to the JVM would make every instance the leader.
+ *
+ * @since 2.1.6
+ */
+public class SftpSourceLeaderElectionConfiguration {
+
+	private static final boolean HAZELCAST_PRESENT = ClassUtils.isPresent(
+			"org.springframework.integration.hazelcast.lock.HazelcastLockRegistry",
+			SftpSourceLeaderElectionConfiguration.class.getClassLoader());
+
+	@Bean
+	@ConditionalOnProperty(name = "sftp.leader-role")
+	public LockRegistryLeaderInitiator sftpLeaderInitiator(SftpSourceProperties properties,
+			ObjectProvider<LockRegistry> lockRegistry, BeanFactory beanFactory) {
+		LockRegistry locks = lockRegistry.getIfUnique(() -> sharedLockRegistry(beanFactory, properties));
+		return new LockRegistryLeaderInitiator(locks,
+				new DefaultCandidate(UUID.randomUUID().toString(), properties.getLeaderRole()));
+	}
+
+	private static LockRegistry sharedLockRegistry(BeanFactory beanFactory, SftpSourceProperties properties) {
+		LockRegistry locks = HAZELCAST_PRESENT ? HazelcastLocks.lockRegistry(beanFactory) : null;
+		if (locks == null) {
+			throw new IllegalStateException("sftp.leader-role '" + properties.getLeaderRole()
+					+ "' requires a LockRegistry bean shared by the instances, or a HazelcastInstance bean");
+		}
+		return locks;
+	}
+
+	/**
+	 * Isolates the Hazelcast classes, which are optional.
+	 */
+	private static final class HazelcastLocks {
+
+		private HazelcastLocks() {
+			super();
+		}
+
+		static LockRegistry lockRegistry(BeanFactory beanFactory) {
+			HazelcastInstance hazelcast = beanFactory.getBeanProvider(HazelcastInstance.class).getIfUnique();
+			return hazelcast != null ? new HazelcastLockRegistry(hazelcast) : null;
+		}
+
+	}
+
+}
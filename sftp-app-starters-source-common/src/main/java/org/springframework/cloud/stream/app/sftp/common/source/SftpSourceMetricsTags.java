@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.util.function.Function;
+
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+
+/**
+ * The server and directory tags of the source meters. They are taken from the message
+ * headers when present (the selected server and remote directory) and otherwise from the
+ * server and directory currently polled.
+ *
+ * @since 2.1.6
+ */
+public class SftpSourceMetricsTags implements Function<Message<?>, String[]> {
+
+	private final SftpSourceProperties properties;
+
+	private final SftpSourceRotator rotator;
+
+	public SftpSourceMetricsTags(SftpSourceProperties properties, @Nullable SftpSourceRotator rotator) {
+		this.properties = properties;
+		this.rotator = rotator;
+	}
+
+	@Override
+	public String[] apply(@Nullable Message<?> message) {
+		String server = null;
+		String directory = null;
+		if (message != null) {
+			server = message.getHeaders().get(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY, String.class);
+			directory = message.getHeaders().get(FileHeaders.REMOTE_DIRECTORY, String.class);
+		}
+		if (server == null) {
+			server = this.rotator != null ? this.rotator.getCurrentKey() : this.properties.getFactory().getHost();
+		}
+		if (directory == null) {
+			directory = this.rotator != null ? this.rotator.getCurrentDirectory() : this.properties.getRemoteDir();
+		}
+		return new String[] { SftpMetrics.SERVER, server, SftpMetrics.DIRECTORY, directory };
+	}
+
+}
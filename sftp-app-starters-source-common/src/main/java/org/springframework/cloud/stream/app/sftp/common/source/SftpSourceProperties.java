@@ -17,22 +17,30 @@
 package org.springframework.cloud.stream.app.sftp.common.source;
 
 import java.io.File;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
 import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 
 import org.hibernate.validator.constraints.Range;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
+import org.springframework.cloud.stream.app.sftp.common.session.SftpClientType;
+import org.springframework.cloud.stream.app.sftp.common.session.SshTransport;
 import org.springframework.core.io.Resource;
 import org.springframework.expression.Expression;
 
 import org.springframework.integration.file.remote.aop.RotatingServerAdvice;
 import org.springframework.util.Assert;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
 /**
@@ -70,6 +78,36 @@ public class SftpSourceProperties {
 	 */
 	private boolean deleteRemoteFiles = false;
 
+	/**
+	 * The bytes the local directory may hold; the transfers are deferred while it is full.
+	 * Requires 'localFileMaxAge', which frees it.
+	 */
+	private DataSize localDirMaxSize;
+
+	/**
+	 * How long after its message is sent a local file is deleted; 0 to delete it once it is
+	 * sent, which suits the 'lines' and 'contents' reading modes.
+	 */
+	private Duration localFileMaxAge;
+
+	/**
+	 * A remote directory to move the remote files to after successful transfer, instead of
+	 * deleting them; relative to the directory of each file unless it starts with '/'.
+	 */
+	private String moveToDirectory;
+
+	/**
+	 * Set to true to delete the remote files in the background, in batches per session,
+	 * once their messages are emitted, instead of after each transfer; the pending deletes
+	 * are kept in the metadata store and retried after a restart.
+	 */
+	private boolean asyncRemoteActions = false;
+
+	/**
+	 * The maximum number of remote file actions run together when 'asyncRemoteActions' is true.
+	 */
+	private int remoteActionBatchSize = 100;
+
 	/**
 	 * The local directory to use for file transfers.
 	 */
@@ -131,6 +169,161 @@ public class SftpSourceProperties {
 	 */
 	private boolean taskLauncherOutput = false;
 
+	/**
+	 * The leadership role of the polling endpoint; when set, only the instance holding the lock
+	 * for this role polls the remote server(s).
+	 */
+	private String leaderRole;
+
+	/**
+	 * Set to true to list the sub-directories of the remote directory recursively
+	 * (list only and task launcher output).
+	 */
+	private boolean recursive;
+
+	/**
+	 * The maximum depth of sub-directories to list when 'recursive' is true.
+	 */
+	private int maxDepth = 10;
+
+	/**
+	 * A regex pattern the names of sub-directories must match to be listed when 'recursive' is true.
+	 */
+	private Pattern directoryRegex;
+
+	/**
+	 * A regex pattern for the names of sub-directories to skip when 'recursive' is true.
+	 */
+	private Pattern excludeDirectoryRegex;
+
+	/**
+	 * The number of directories listed concurrently when 'recursive' is true.
+	 */
+	private int listingConcurrency = 4;
+
+	/**
+	 * The number of file names buffered when streaming a directory listing to the
+	 * splitter in list-only mode; unset to list the whole directory before splitting it.
+	 */
+	private Integer listingChunkSize;
+
+	/**
+	 * In list-only mode, the maximum number of file records (path, size, modification time
+	 * and permissions) emitted per message as a JSON array; unset to emit a path per message.
+	 */
+	private Integer listBatchSize;
+
+	/**
+	 * Set to true to stop listing the leaf sub-directories whose modification time is unchanged.
+	 */
+	private boolean skipUnchangedDirectories;
+
+	/**
+	 * The order in which the files of a poll are fetched, within the same 'fetch-priorities' weight.
+	 */
+	private FetchOrder fetchOrder = FetchOrder.listing;
+
+	/**
+	 * A map of filename regex patterns to weights; files with a higher weight are fetched first
+	 * (files matching no pattern have weight 0).
+	 */
+	private Map<String, Integer> fetchPriorities = new LinkedHashMap<>();
+
+	/**
+	 * The time a remote file's size and modification time must remain unchanged, across polls,
+	 * before the file is fetched; default: fetch files as soon as they are listed.
+	 */
+	private Duration stabilityPeriod;
+
+	/**
+	 * Suffixes of marker files (e.g. '.done'); a file is fetched as soon as the file name plus
+	 * one of the suffixes is listed. Marker files are not fetched.
+	 */
+	private String[] markerSuffixes;
+
+	/**
+	 * A regex pattern to match the names of manifest files; when set, only the files listed in
+	 * the manifests are fetched, one batch per manifest.
+	 */
+	private Pattern manifestRegex;
+
+	/**
+	 * How the files of a manifest are emitted: one message with the list of local file paths,
+	 * or a sequence of messages correlated by the manifest path.
+	 */
+	private ManifestOutput manifestOutput = ManifestOutput.aggregate;
+
+	/**
+	 * The number of files of a manifest fetched concurrently.
+	 */
+	private int manifestConcurrency = 4;
+
+	/**
+	 * Whether to stamp the messages with the remote modification, discovery, transfer and
+	 * emission times of their file, and record the time between them in histograms.
+	 */
+	private boolean latencyTracking;
+
+	/**
+	 * Whether to fetch files on demand, as fast as they are consumed, rather than on the
+	 * poller's schedule.
+	 */
+	private boolean reactive;
+
+	/**
+	 * The maximum number of files being fetched at once in reactive mode.
+	 */
+	private int reactiveConcurrency = 4;
+
+	/**
+	 * How long to wait before listing again when a listing returns no new files in reactive mode.
+	 */
+	private Duration reactiveIdleDelay = Duration.ofSeconds(1);
+
+	/**
+	 * The threads running the concurrent listings and downloads: platform threads, or
+	 * virtual threads when the JVM supports them.
+	 */
+	private ExecutionMode executionMode = ExecutionMode.platform;
+
+	/**
+	 * The bandwidth of the downloads from all the servers, per second; 0 for no limit,
+	 * adjustable at runtime.
+	 */
+	private DataSize maxBandwidth;
+
+	/**
+	 * The bandwidth of each download, per second; 0 for no limit, adjustable at runtime.
+	 */
+	private DataSize maxTransferBandwidth;
+
+	/**
+	 * The number of consecutive failures to connect to a server of the rotation after which
+	 * the server is skipped, until a background probe connects; 0 to never skip a server.
+	 */
+	private int circuitBreakerThreshold = 0;
+
+	/**
+	 * How often a skipped server is probed in the background.
+	 */
+	private Duration circuitBreakerProbeInterval = Duration.ofSeconds(30);
+
+	/**
+	 * The maximum number of task launch requests emitted per second; 0 for no limit.
+	 */
+	private double launchRate = 0;
+
+	/**
+	 * The maximum number of task launch requests outstanding at once; 0 for no limit.
+	 */
+	private int maxOutstandingLaunches = 0;
+
+	/**
+	 * How long an emitted task launch request is outstanding: the expected duration of the
+	 * task.
+	 */
+	private Duration outstandingLaunchTimeout = Duration.ofMinutes(1);
+
 	@NotBlank
 	public String getRemoteDir() {
 		return remoteDir;
@@ -174,6 +367,47 @@ public class SftpSourceProperties {
 		this.deleteRemoteFiles = deleteRemoteFiles;
 	}
 
+	public DataSize getLocalDirMaxSize() {
+		return this.localDirMaxSize;
+	}
+
+	public void setLocalDirMaxSize(DataSize localDirMaxSize) {
+		this.localDirMaxSize = localDirMaxSize;
+	}
+
+	public Duration getLocalFileMaxAge() {
+		return this.localFileMaxAge;
+	}
+
+	public void setLocalFileMaxAge(Duration localFileMaxAge) {
+		this.localFileMaxAge = localFileMaxAge;
+	}
+
+	public String getMoveToDirectory() {
+		return this.moveToDirectory;
+	}
+
+	public void setMoveToDirectory(String moveToDirectory) {
+		this.moveToDirectory = moveToDirectory;
+	}
+
+	public boolean isAsyncRemoteActions() {
+		return this.asyncRemoteActions;
+	}
+
+	public void setAsyncRemoteActions(boolean asyncRemoteActions) {
+		this.asyncRemoteActions = asyncRemoteActions;
+	}
+
+	@Min(1)
+	public int getRemoteActionBatchSize() {
+		return this.remoteActionBatchSize;
+	}
+
+	public void setRemoteActionBatchSize(int remoteActionBatchSize) {
+		this.remoteActionBatchSize = remoteActionBatchSize;
+	}
+
 	@NotNull
 	public File getLocalDir() {
 		return localDir;
@@ -212,6 +446,53 @@ public class SftpSourceProperties {
 		return !(this.filenamePattern != null && this.filenameRegex != null);
 	}
 
+	@AssertTrue(message = "recursive requires listOnly or taskLauncherOutput")
+	public boolean isRecursiveListing() {
+		return !this.recursive || this.listOnly || this.taskLauncherOutput;
+	}
+
+	@AssertTrue(message = "listBatchSize requires listOnly and cannot be used with recursive")
+	public boolean isListBatches() {
+		return this.listBatchSize == null || (this.listOnly && !this.recursive);
+	}
+
+	@AssertTrue(message = "asyncRemoteActions cannot be used with listOnly, taskLauncherOutput, manifestRegex "
+			+ "or reactive")
+	public boolean isAsyncRemoteActionsSupported() {
+		return !this.asyncRemoteActions
+				|| !(this.listOnly || this.taskLauncherOutput || this.manifestRegex != null || this.reactive);
+	}
+
+	@AssertTrue(message = "moveToDirectory cannot be used with deleteRemoteFiles, listOnly, taskLauncherOutput, "
+			+ "manifestRegex or reactive")
+	public boolean isMoveRemoteFiles() {
+		return this.moveToDirectory == null || !(this.deleteRemoteFiles || this.listOnly || this.taskLauncherOutput
+				|| this.manifestRegex != null || this.reactive);
+	}
+
+	@AssertTrue(message = "localDirMaxSize and localFileMaxAge cannot be used with stream, listOnly, "
+			+ "taskLauncherOutput, manifestRegex or reactive")
+	public boolean isLocalStaging() {
+		return (this.localDirMaxSize == null && this.localFileMaxAge == null) || !(this.stream || this.listOnly
+				|| this.taskLauncherOutput || this.manifestRegex != null || this.reactive);
+	}
+
+	@AssertTrue(message = "localDirMaxSize requires localFileMaxAge")
+	public boolean isLocalDirQuotaEvicted() {
+		return this.localDirMaxSize == null || this.localFileMaxAge != null;
+	}
+
+	@AssertTrue(message = "manifestRegex cannot be used with stream, listOnly or taskLauncherOutput")
+	public boolean isManifestBatches() {
+		return this.manifestRegex == null || !(this.stream || this.listOnly || this.taskLauncherOutput);
+	}
+
+	@AssertTrue(message = "reactive cannot be used with stream, listOnly, taskLauncherOutput or manifestRegex")
+	public boolean isReactiveFetching() {
+		return !this.reactive || !(this.stream || this.listOnly || this.taskLauncherOutput
+				|| this.manifestRegex != null);
+	}
+
 	public boolean isListOnly() {
 		return listOnly;
 	}
@@ -264,6 +545,242 @@ public class SftpSourceProperties {
 		this.taskLauncherOutput = taskLauncherOutput;
 	}
 
+	public String getLeaderRole() {
+		return this.leaderRole;
+	}
+
+	public void setLeaderRole(String leaderRole) {
+		this.leaderRole = leaderRole;
+	}
+
+	public boolean isRecursive() {
+		return this.recursive;
+	}
+
+	public void setRecursive(boolean recursive) {
+		this.recursive = recursive;
+	}
+
+	@Min(0)
+	public int getMaxDepth() {
+		return this.maxDepth;
+	}
+
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	public Pattern getDirectoryRegex() {
+		return this.directoryRegex;
+	}
+
+	public void setDirectoryRegex(Pattern directoryRegex) {
+		this.directoryRegex = directoryRegex;
+	}
+
+	public Pattern getExcludeDirectoryRegex() {
+		return this.excludeDirectoryRegex;
+	}
+
+	public void setExcludeDirectoryRegex(Pattern excludeDirectoryRegex) {
+		this.excludeDirectoryRegex = excludeDirectoryRegex;
+	}
+
+	@Min(1)
+	public Integer getListingChunkSize() {
+		return this.listingChunkSize;
+	}
+
+	public void setListingChunkSize(Integer listingChunkSize) {
+		this.listingChunkSize = listingChunkSize;
+	}
+
+	@Min(1)
+	public Integer getListBatchSize() {
+		return this.listBatchSize;
+	}
+
+	public void setListBatchSize(Integer listBatchSize) {
+		this.listBatchSize = listBatchSize;
+	}
+
+	@Min(1)
+	public int getListingConcurrency() {
+		return this.listingConcurrency;
+	}
+
+	public void setListingConcurrency(int listingConcurrency) {
+		this.listingConcurrency = listingConcurrency;
+	}
+
+	public boolean isSkipUnchangedDirectories() {
+		return this.skipUnchangedDirectories;
+	}
+
+	public void setSkipUnchangedDirectories(boolean skipUnchangedDirectories) {
+		this.skipUnchangedDirectories = skipUnchangedDirectories;
+	}
+
+	public FetchOrder getFetchOrder() {
+		return this.fetchOrder;
+	}
+
+	public void setFetchOrder(FetchOrder fetchOrder) {
+		this.fetchOrder = fetchOrder;
+	}
+
+	public Map<String, Integer> getFetchPriorities() {
+		return this.fetchPriorities;
+	}
+
+	public void setFetchPriorities(Map<String, Integer> fetchPriorities) {
+		this.fetchPriorities = fetchPriorities;
+	}
+
+	public Duration getStabilityPeriod() {
+		return this.stabilityPeriod;
+	}
+
+	public void setStabilityPeriod(Duration stabilityPeriod) {
+		this.stabilityPeriod = stabilityPeriod;
+	}
+
+	public String[] getMarkerSuffixes() {
+		return this.markerSuffixes;
+	}
+
+	public void setMarkerSuffixes(String[] markerSuffixes) {
+		this.markerSuffixes = markerSuffixes;
+	}
+
+	public Pattern getManifestRegex() {
+		return this.manifestRegex;
+	}
+
+	public void setManifestRegex(Pattern manifestRegex) {
+		this.manifestRegex = manifestRegex;
+	}
+
+	public ManifestOutput getManifestOutput() {
+		return this.manifestOutput;
+	}
+
+	public void setManifestOutput(ManifestOutput manifestOutput) {
+		this.manifestOutput = manifestOutput;
+	}
+
+	@Min(1)
+	public int getManifestConcurrency() {
+		return this.manifestConcurrency;
+	}
+
+	public void setManifestConcurrency(int manifestConcurrency) {
+		this.manifestConcurrency = manifestConcurrency;
+	}
+
+	public boolean isLatencyTracking() {
+		return this.latencyTracking;
+	}
+
+	public void setLatencyTracking(boolean latencyTracking) {
+		this.latencyTracking = latencyTracking;
+	}
+
+	public boolean isReactive() {
+		return this.reactive;
+	}
+
+	public void setReactive(boolean reactive) {
+		this.reactive = reactive;
+	}
+
+	@Min(1)
+	public int getReactiveConcurrency() {
+		return this.reactiveConcurrency;
+	}
+
+	public void setReactiveConcurrency(int reactiveConcurrency) {
+		this.reactiveConcurrency = reactiveConcurrency;
+	}
+
+	@NotNull
+	public Duration getReactiveIdleDelay() {
+		return this.reactiveIdleDelay;
+	}
+
+	public void setReactiveIdleDelay(Duration reactiveIdleDelay) {
+		this.reactiveIdleDelay = reactiveIdleDelay;
+	}
+
+	public ExecutionMode getExecutionMode() {
+		return this.executionMode;
+	}
+
+	public void setExecutionMode(ExecutionMode executionMode) {
+		this.executionMode = executionMode;
+	}
+
+	public DataSize getMaxBandwidth() {
+		return this.maxBandwidth;
+	}
+
+	public void setMaxBandwidth(DataSize maxBandwidth) {
+		this.maxBandwidth = maxBandwidth;
+	}
+
+	public DataSize getMaxTransferBandwidth() {
+		return this.maxTransferBandwidth;
+	}
+
+	public void setMaxTransferBandwidth(DataSize maxTransferBandwidth) {
+		this.maxTransferBandwidth = maxTransferBandwidth;
+	}
+
+	@Min(0)
+	public int getCircuitBreakerThreshold() {
+		return this.circuitBreakerThreshold;
+	}
+
+	public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+		this.circuitBreakerThreshold = circuitBreakerThreshold;
+	}
+
+	@NotNull
+	public Duration getCircuitBreakerProbeInterval() {
+		return this.circuitBreakerProbeInterval;
+	}
+
+	public void setCircuitBreakerProbeInterval(Duration circuitBreakerProbeInterval) {
+		this.circuitBreakerProbeInterval = circuitBreakerProbeInterval;
+	}
+
+	@DecimalMin("0")
+	public double getLaunchRate() {
+		return this.launchRate;
+	}
+
+	public void setLaunchRate(double launchRate) {
+		this.launchRate = launchRate;
+	}
+
+	@Min(0)
+	public int getMaxOutstandingLaunches() {
+		return this.maxOutstandingLaunches;
+	}
+
+	public void setMaxOutstandingLaunches(int maxOutstandingLaunches) {
+		this.maxOutstandingLaunches = maxOutstandingLaunches;
+	}
+
+	@NotNull
+	public Duration getOutstandingLaunchTimeout() {
+		return this.outstandingLaunchTimeout;
+	}
+
+	public void setOutstandingLaunchTimeout(Duration outstandingLaunchTimeout) {
+		this.outstandingLaunchTimeout = outstandingLaunchTimeout;
+	}
+
 	public boolean isStream() {
 		return stream;
 	}
@@ -276,7 +793,7 @@ public class SftpSourceProperties {
 		return factory;
 	}
 
-	static List<RotatingServerAdvice.KeyDirectory> keyDirectories(SftpSourceProperties properties) {
+	public static List<RotatingServerAdvice.KeyDirectory> keyDirectories(SftpSourceProperties properties) {
 		List<RotatingServerAdvice.KeyDirectory> keyDirs = new ArrayList<>();
 		Assert.isTrue(properties.getDirectories().length > 0, "At least one key.directory required");
 		for (String keyDir : properties.getDirectories()) {
@@ -287,6 +804,63 @@ public class SftpSourceProperties {
 		return keyDirs;
 	}
 
+	public enum FetchOrder {
+
+		/**
+		 * The order of the directory listing.
+		 */
+		listing,
+
+		/**
+		 * Least recently modified first.
+		 */
+		oldest,
+
+		/**
+		 * Most recently modified first.
+		 */
+		newest,
+
+		/**
+		 * Smallest first.
+		 */
+		smallest,
+
+		/**
+		 * Largest first.
+		 */
+		largest
+
+	}
+
+	public enum ExecutionMode {
+
+		/**
+		 * Platform threads.
+		 */
+		platform,
+
+		/**
+		 * Virtual threads (Java 21 or later).
+		 */
+		virtual
+
+	}
+
+	public enum ManifestOutput {
+
+		/**
+		 * One message with the list of local file paths.
+		 */
+		aggregate,
+
+		/**
+		 * One message per file, with correlation and sequence headers.
+		 */
+		sequence
+
+	}
+
 	public static class Factory {
 
 		/**
@@ -330,6 +904,41 @@ public class SftpSourceProperties {
 		 */
 		private Expression knownHostsExpression = null;
 
+		/**
+		 * The maximum number of sessions open at once on the server; 0 for no limit.
+		 */
+		private int maxConcurrency = 0;
+
+		/**
+		 * The maximum number of file transfers in progress at once on the server; 0 for no
+		 * limit.
+		 */
+		private int maxTransfers = 0;
+
+		/**
+		 * The SSH client: JSch, or Apache MINA sshd to multiplex the sessions over one
+		 * connection.
+		 */
+		private SftpClientType clientType = SftpClientType.jsch;
+
+		/**
+		 * The number of SFTP channels kept open over the server's SSH connection and shared by
+		 * the sessions; 0 to open a channel per session.
+		 */
+		private int maxChannels = 0;
+
+		/**
+		 * The SSH transport settings: algorithms, compression, window and packet sizes.
+		 */
+		@NestedConfigurationProperty
+		private SshTransport transport = new SshTransport();
+
+		/**
+		 * The bandwidth of the downloads from the server, per second; 0 for no limit,
+		 * adjustable at runtime.
+		 */
+		private DataSize maxBandwidth;
+
 		@NotBlank
 		public String getHost() {
 			return this.host;
@@ -396,5 +1005,56 @@ public class SftpSourceProperties {
 		public void setKnownHostsExpression(Expression knownHosts) {
 			this.knownHostsExpression = knownHosts;
 		}
+
+		@Min(0)
+		public int getMaxConcurrency() {
+			return this.maxConcurrency;
+		}
+
+		public void setMaxConcurrency(int maxConcurrency) {
+			this.maxConcurrency = maxConcurrency;
+		}
+
+		@Min(0)
+		public int getMaxTransfers() {
+			return this.maxTransfers;
+		}
+
+		public void setMaxTransfers(int maxTransfers) {
+			this.maxTransfers = maxTransfers;
+		}
+
+		public SftpClientType getClientType() {
+			return this.clientType;
+		}
+
+		public void setClientType(SftpClientType clientType) {
+			this.clientType = clientType;
+		}
+
+		@Min(0)
+		public int getMaxChannels() {
+			return this.maxChannels;
+		}
+
+		public void setMaxChannels(int maxChannels) {
+			this.maxChannels = maxChannels;
+		}
+
+		public SshTransport getTransport() {
+			return this.transport;
+		}
+
+		public void setTransport(SshTransport transport) {
+			this.transport = transport;
+		}
+
+		public DataSize getMaxBandwidth() {
+			return this.maxBandwidth;
+		}
+
+		public void setMaxBandwidth(DataSize maxBandwidth) {
+			this.maxBandwidth = maxBandwidth;
+		}
 	}
 }
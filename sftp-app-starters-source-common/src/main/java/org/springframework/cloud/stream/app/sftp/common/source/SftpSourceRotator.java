@@ -16,21 +16,24 @@
 
 package org.springframework.cloud.stream.app.sftp.common.source;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 import org.springframework.integration.aop.AbstractMessageSourceAdvice;
 import org.springframework.integration.core.MessageSource;
-import org.springframework.integration.expression.ExpressionEvalMap;
 import org.springframework.integration.expression.FunctionExpression;
 import org.springframework.integration.file.remote.aop.RotatingServerAdvice;
+import org.springframework.lang.Nullable;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 
 import static org.springframework.cloud.stream.app.sftp.common.source.SftpHeaders.SFTP_HOST_PROPERTY_KEY;
 import static org.springframework.cloud.stream.app.sftp.common.source.SftpHeaders.SFTP_PASSWORD_PROPERTY_KEY;
 import static org.springframework.cloud.stream.app.sftp.common.source.SftpHeaders.SFTP_PORT_PROPERTY_KEY;
+import static org.springframework.cloud.stream.app.sftp.common.source.SftpHeaders.SFTP_SELECTED_DIRECTORY;
 import static org.springframework.cloud.stream.app.sftp.common.source.SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY;
 import static org.springframework.cloud.stream.app.sftp.common.source.SftpHeaders.SFTP_USERNAME_PROPERTY_KEY;
 
@@ -46,11 +49,46 @@ public class SftpSourceRotator extends RotatingServerAdvice {
 
 	private final SftpSourceProperties properties;
 	private final StandardRotationPolicy rotationPolicy;
+	private final SftpServerCircuitBreaker circuitBreaker;
+	private final int rotationSize;
+	private final Map<String, Map<String, Object>> serverHeaders = new ConcurrentHashMap<>();
 
 	public SftpSourceRotator(SftpSourceProperties properties, StandardRotationPolicy rotationPolicy) {
+		this(properties, rotationPolicy, null);
+	}
+
+	public SftpSourceRotator(SftpSourceProperties properties, StandardRotationPolicy rotationPolicy,
+			@Nullable SftpServerCircuitBreaker circuitBreaker) {
 		super(rotationPolicy);
 		this.properties = properties;
 		this.rotationPolicy = rotationPolicy;
+		this.circuitBreaker = circuitBreaker != null && circuitBreaker.isEnabled() ? circuitBreaker : null;
+		this.rotationSize = SftpSourceProperties.keyDirectories(properties).size();
+	}
+
+	/**
+	 * Select the next server and directory, skipping the servers whose circuit is open.
+	 * @param source the source.
+	 * @return false, to skip the poll, if the circuits of all the servers are open.
+	 */
+	@Override
+	public boolean beforeReceive(MessageSource<?> source) {
+		boolean receive = super.beforeReceive(source);
+		if (this.circuitBreaker != null) {
+			for (int skipped = 0; skipped < this.rotationSize && this.circuitBreaker.isOpen(getCurrentKey());
+					skipped++) {
+				if (this.properties.isFair()) {
+					this.rotationPolicy.beforeReceive(source);
+				}
+				else {
+					// a non-fair policy moves on after an empty poll, which clears the thread key
+					this.rotationPolicy.afterReceive(false, source);
+					this.rotationPolicy.beforeReceive(source);
+				}
+			}
+			return receive && !this.circuitBreaker.isOpen(getCurrentKey());
+		}
+		return receive;
 	}
 
 	/**
@@ -76,6 +114,39 @@ public class SftpSourceRotator extends RotatingServerAdvice {
 		return map;
 	}
 
+	/**
+	 * The headers of the server currently selected; they only depend on the server key, so
+	 * they are built once per key, without any expression evaluation.
+	 * @return the headers, the values of those of {@link #headers()}.
+	 */
+	public Map<String, Object> currentHeaders() {
+		return this.serverHeaders.computeIfAbsent(getCurrentKey(), key -> {
+			SftpSourceProperties.Factory selected = this.properties.getFactories().get(key);
+			if (selected == null) {
+				// missing key used default factory
+				selected = this.properties.getFactory();
+			}
+			Map<String, Object> map = new HashMap<>();
+			map.put(SFTP_SELECTED_SERVER_PROPERTY_KEY, key);
+			map.put(SFTP_HOST_PROPERTY_KEY, selected.getHost());
+			map.put(SFTP_PORT_PROPERTY_KEY, selected.getPort());
+			map.put(SFTP_USERNAME_PROPERTY_KEY, selected.getUsername());
+			map.put(SFTP_PASSWORD_PROPERTY_KEY, selected.getPassword());
+			return Collections.unmodifiableMap(map);
+		});
+	}
+
+	/**
+	 * Add the headers of the server currently selected to a message, once per poll rather
+	 * than per file; the headers already present are kept, as with
+	 * {@code IntegrationFlowBuilder.enrichHeaders()}.
+	 * @param message the message.
+	 * @return the message with the headers.
+	 */
+	public Message<?> enrichHeaders(Message<?> message) {
+		return MessageBuilder.fromMessage(message).copyHeadersIfAbsent(currentHeaders()).build();
+	}
+
 	public String getCurrentKey() {
 		return this.rotationPolicy.getCurrent().getKey().toString();
 	}
@@ -87,8 +158,10 @@ public class SftpSourceRotator extends RotatingServerAdvice {
 	@Override
 	public Message<?> afterReceive(Message<?> result, MessageSource<?> source) {
 		if (result != null) {
+			// stamped before a fair rotation moves on, for the handlers downstream
 			result = MessageBuilder.fromMessage(result).
-					setHeader(SFTP_SELECTED_SERVER_PROPERTY_KEY, this.getCurrentKey()).build();
+					setHeader(SFTP_SELECTED_SERVER_PROPERTY_KEY, this.getCurrentKey()).
+					setHeader(SFTP_SELECTED_DIRECTORY, this.getCurrentDirectory()).build();
 		}
 		this.rotationPolicy.afterReceive(result != null, source);
 		return result;
@@ -99,8 +172,6 @@ public class SftpSourceRotator extends RotatingServerAdvice {
 	 * @return a {@code Map<String,Object>}
 	 */
 	public Map<String, Object> evaluateHeaders() {
-		return ExpressionEvalMap.from(headers())
-				.usingSimpleCallback()
-				.build();
+		return currentHeaders();
 	}
 }
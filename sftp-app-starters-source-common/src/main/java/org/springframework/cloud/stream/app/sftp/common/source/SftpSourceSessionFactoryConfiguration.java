@@ -18,16 +18,34 @@ package org.springframework.cloud.stream.app.sftp.common.source;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Properties;
 
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.AnyNestedCondition;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetricsConfiguration;
+import org.springframework.cloud.stream.app.sftp.common.session.BoundedSessionFactory;
+import org.springframework.cloud.stream.app.sftp.common.session.SftpBandwidthEndpointConfiguration;
+import org.springframework.cloud.stream.app.sftp.common.session.SftpBandwidthLimiter;
+import org.springframework.cloud.stream.app.sftp.common.session.MinaSftpSessionFactory;
+import org.springframework.cloud.stream.app.sftp.common.session.SftpClientType;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Import;
+import org.springframework.expression.Expression;
+import org.springframework.integration.config.GlobalChannelInterceptor;
 import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.integration.file.remote.aop.RotatingServerAdvice;
+import org.springframework.integration.file.remote.session.CachingSessionFactory;
 import org.springframework.integration.file.remote.session.DelegatingSessionFactory;
 import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.metadata.ConcurrentMetadataStore;
 import org.springframework.integration.sftp.session.DefaultSftpSessionFactory;
+import org.springframework.util.unit.DataSize;
 
 import com.jcraft.jsch.ChannelSftp.LsEntry;
 import org.springframework.lang.Nullable;
@@ -40,22 +58,80 @@ import org.springframework.lang.Nullable;
  * @author David Turanski
  *
  */
+@Import({ SftpMetricsConfiguration.class, SftpBandwidthEndpointConfiguration.class })
 public class SftpSourceSessionFactoryConfiguration {
 
 	@Bean
 	@ConditionalOnMissingBean
-	public SessionFactory<LsEntry> sftpSessionFactory(SftpSourceProperties properties, BeanFactory beanFactory) {
-		return buildFactory(beanFactory, properties.getFactory());
+	public SessionFactory<LsEntry> sftpSessionFactory(SftpSourceProperties properties, BeanFactory beanFactory,
+			SftpMetrics metrics, @Nullable SftpLatencyTracker latencyTracker, SftpBandwidthLimiter bandwidthLimiter) {
+		return decorate(buildFactory(beanFactory, properties.getFactory()), properties.getFactory(),
+				properties.getFactory().getHost(), metrics, latencyTracker, bandwidthLimiter);
 	}
 
 	@Bean
 	public DelegatingFactoryWrapper delegatingFactoryWrapper(SftpSourceProperties properties,
-			SessionFactory<LsEntry> defaultFactory, BeanFactory beanFactory) {
+			SessionFactory<LsEntry> defaultFactory, BeanFactory beanFactory, SftpMetrics metrics,
+			@Nullable SftpLatencyTracker latencyTracker, SftpBandwidthLimiter bandwidthLimiter,
+			SftpServerCircuitBreaker circuitBreaker) {
 		return properties.isMultiSource()
-				? new DelegatingFactoryWrapper(properties, defaultFactory, beanFactory)
+				? new DelegatingFactoryWrapper(properties, defaultFactory, beanFactory, metrics, latencyTracker,
+						bandwidthLimiter, circuitBreaker)
 				: null;
 	}
 
+	@Bean
+	public SftpServerCircuitBreaker sftpServerCircuitBreaker(SftpSourceProperties properties) {
+		return new SftpServerCircuitBreaker(properties);
+	}
+
+	@Bean
+	public SftpBandwidthLimiter sftpBandwidthLimiter(SftpSourceProperties properties, SftpMetrics metrics) {
+		Map<String, Long> serverLimits = new HashMap<>();
+		serverLimits.put(properties.getFactory().getHost(), bytes(properties.getFactory().getMaxBandwidth()));
+		if (properties.isMultiSource()) {
+			properties.getFactories().forEach((key, factory) -> serverLimits.put(key, bytes(factory.getMaxBandwidth())));
+		}
+		return new SftpBandwidthLimiter(bytes(properties.getMaxBandwidth()),
+				bytes(properties.getMaxTransferBandwidth()), serverLimits, metrics);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "sftp.listing-chunk-size")
+	public SftpStreamingLister sftpStreamingLister(SftpSourceProperties properties,
+			SessionFactory<LsEntry> defaultFactory, @Nullable DelegatingFactoryWrapper factory) {
+		return new SftpStreamingLister(properties.isMultiSource() ? factory.getFactory() : defaultFactory,
+				properties);
+	}
+
+	@Bean
+	public SftpLaunchThrottle sftpLaunchThrottle(SftpSourceProperties properties, SftpMetrics metrics) {
+		return new SftpLaunchThrottle(properties, metrics);
+	}
+
+	@Bean
+	@Conditional(RemoteFileActionsCondition.class)
+	public SftpRemoteFileActions sftpRemoteFileActions(SftpSourceProperties properties,
+			SessionFactory<LsEntry> defaultFactory, @Nullable DelegatingFactoryWrapper factory,
+			ObjectProvider<ConcurrentMetadataStore> metadataStore, SftpMetrics metrics) {
+		return new SftpRemoteFileActions(properties.isMultiSource() ? factory.getFactory() : defaultFactory,
+				properties, metadataStore.getObject(), metrics);
+	}
+
+	@Bean
+	@Conditional(LocalStagingCondition.class)
+	public SftpLocalStaging sftpLocalStaging(SftpSourceProperties properties, SftpMetrics metrics) {
+		return new SftpLocalStaging(properties, metrics);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "sftp.latency-tracking", havingValue = "true")
+	@GlobalChannelInterceptor(patterns = "output")
+	public SftpLatencyTracker sftpLatencyTracker(SftpSourceProperties properties,
+			ObjectProvider<SftpSourceRotator> rotator, SftpMetrics metrics) {
+		return new SftpLatencyTracker(properties, rotator, metrics);
+	}
+
 	@Bean
 	RotatingServerAdvice.StandardRotationPolicy rotationPolicy(SftpSourceProperties properties,
 															   @Nullable DelegatingFactoryWrapper factory) {
@@ -68,13 +144,50 @@ public class SftpSourceSessionFactoryConfiguration {
 
 	@Bean
 	public SftpSourceRotator rotatingAdvice(SftpSourceProperties properties,
-											@Nullable RotatingServerAdvice.StandardRotationPolicy rotationPolicy) {
+											@Nullable RotatingServerAdvice.StandardRotationPolicy rotationPolicy,
+											SftpServerCircuitBreaker circuitBreaker) {
 		return properties.isMultiSource()
-				? new SftpSourceRotator(properties, rotationPolicy)
+				? new SftpSourceRotator(properties, rotationPolicy, circuitBreaker)
 				: null;
 	}
 
+	@Bean
+	@ConditionalOnProperty(name = "sftp.recursive", havingValue = "true")
+	public SftpRecursiveDirectoryLister sftpRecursiveDirectoryLister(SftpSourceProperties properties,
+			SessionFactory<LsEntry> defaultFactory, @Nullable DelegatingFactoryWrapper factory) {
+		return new SftpRecursiveDirectoryLister(properties.isMultiSource() ? factory.getFactory() : defaultFactory,
+				properties);
+	}
+
+	static SessionFactory<LsEntry> decorate(SessionFactory<LsEntry> sessionFactory,
+			SftpSourceProperties.Factory factory, String server, SftpMetrics metrics,
+			@Nullable SftpLatencyTracker latencyTracker, SftpBandwidthLimiter bandwidthLimiter) {
+		SessionFactory<LsEntry> decorated = sessionFactory;
+		if (factory.getMaxChannels() > 0) {
+			// pooled channels of the shared connection
+			decorated = new CachingSessionFactory<>(decorated, factory.getMaxChannels());
+		}
+		if (bandwidthLimiter.isEnabled()) {
+			decorated = bandwidthLimiter.sessionFactory(decorated, server);
+		}
+		decorated = metrics.sessionFactory(decorated, server);
+		if (latencyTracker != null) {
+			decorated = latencyTracker.sessionFactory(decorated, server);
+		}
+		if (factory.getMaxConcurrency() > 0 || factory.getMaxTransfers() > 0) {
+			decorated = new BoundedSessionFactory(decorated, factory.getMaxConcurrency(), factory.getMaxTransfers());
+		}
+		return decorated;
+	}
+
 	static SessionFactory<LsEntry> buildFactory(BeanFactory beanFactory, SftpSourceProperties.Factory factory) {
+		if (factory.getClientType() == SftpClientType.mina) {
+			return new MinaSftpSessionFactory(factory.getHost(), factory.getPort(), factory.getUsername(),
+					factory.getPassword(), factory.getPrivateKey(), factory.getPassPhrase(),
+					factory.isAllowUnknownKeys(), knownHosts(beanFactory, factory.getKnownHostsExpression()),
+					factory.getTransport())
+					.destroyWith(beanFactory);
+		}
 		DefaultSftpSessionFactory sftpSessionFactory = new DefaultSftpSessionFactory(true);
 		sftpSessionFactory.setHost(factory.getHost());
 		sftpSessionFactory.setPort(factory.getPort());
@@ -84,13 +197,28 @@ public class SftpSourceSessionFactoryConfiguration {
 		sftpSessionFactory.setPrivateKeyPassphrase(factory.getPassPhrase());
 		sftpSessionFactory.setAllowUnknownKeys(factory.isAllowUnknownKeys());
 		if (factory.getKnownHostsExpression() != null) {
-			sftpSessionFactory.setKnownHosts(factory.getKnownHostsExpression()
-					.getValue(IntegrationContextUtils.getEvaluationContext(beanFactory), String.class));
+			sftpSessionFactory.setKnownHosts(knownHosts(beanFactory, factory.getKnownHostsExpression()));
+		}
+		Properties sessionConfig = factory.getTransport().jschConfig();
+		if (!sessionConfig.isEmpty()) {
+			sftpSessionFactory.setSessionConfig(sessionConfig);
 		}
 
 		return sftpSessionFactory;
 	}
 
+	@Nullable
+	private static Long bytes(@Nullable DataSize dataSize) {
+		return dataSize != null ? dataSize.toBytes() : null;
+	}
+
+	@Nullable
+	private static String knownHosts(BeanFactory beanFactory, @Nullable Expression knownHostsExpression) {
+		return knownHostsExpression != null
+				? knownHostsExpression.getValue(IntegrationContextUtils.getEvaluationContext(beanFactory), String.class)
+				: null;
+	}
+
 	public final static class DelegatingFactoryWrapper implements DisposableBean {
 
 		private final DelegatingSessionFactory<LsEntry> delegatingSessionFactory;
@@ -98,11 +226,19 @@ public class SftpSourceSessionFactoryConfiguration {
 		private final Map<Object, SessionFactory<LsEntry>> factories = new HashMap<>();
 
 		DelegatingFactoryWrapper(SftpSourceProperties properties, SessionFactory<LsEntry> defaultFactory,
-				BeanFactory beanFactory) {
+				BeanFactory beanFactory, SftpMetrics metrics, @Nullable SftpLatencyTracker latencyTracker,
+				SftpBandwidthLimiter bandwidthLimiter, SftpServerCircuitBreaker circuitBreaker) {
 			properties.getFactories().forEach((key, factory) -> {
-				this.factories.put(key, SftpSourceSessionFactoryConfiguration.buildFactory(beanFactory, factory));
+				SessionFactory<LsEntry> sessionFactory = SftpSourceSessionFactoryConfiguration.decorate(
+						SftpSourceSessionFactoryConfiguration.buildFactory(beanFactory, factory), factory, key,
+						metrics, latencyTracker, bandwidthLimiter);
+				this.factories.put(key, circuitBreaker.isEnabled()
+						? circuitBreaker.sessionFactory(sessionFactory, key)
+						: sessionFactory);
 			});
-			this.delegatingSessionFactory = new DelegatingSessionFactory<>(this.factories, defaultFactory);
+			this.delegatingSessionFactory = new DelegatingSessionFactory<>(this.factories, circuitBreaker.isEnabled()
+					? circuitBreaker.defaultSessionFactory(defaultFactory)
+					: defaultFactory);
 		}
 
 		public DelegatingSessionFactory<LsEntry> getFactory() {
@@ -124,5 +260,41 @@ public class SftpSourceSessionFactoryConfiguration {
 		}
 
 	}
+
+	static class RemoteFileActionsCondition extends AnyNestedCondition {
+
+		RemoteFileActionsCondition() {
+			super(ConfigurationPhase.REGISTER_BEAN);
+		}
+
+		@ConditionalOnProperty(name = "sftp.async-remote-actions", havingValue = "true")
+		static class AsyncRemoteActions {
+
+		}
+
+		@ConditionalOnProperty(name = "sftp.move-to-directory")
+		static class MoveToDirectory {
+
+		}
+
+	}
+
+	static class LocalStagingCondition extends AnyNestedCondition {
+
+		LocalStagingCondition() {
+			super(ConfigurationPhase.REGISTER_BEAN);
+		}
+
+		@ConditionalOnProperty(name = "sftp.local-dir-max-size")
+		static class LocalDirMaxSize {
+
+		}
+
+		@ConditionalOnProperty(name = "sftp.local-file-max-age")
+		static class LocalFileMaxAge {
+
+		}
+
+	}
 }
 
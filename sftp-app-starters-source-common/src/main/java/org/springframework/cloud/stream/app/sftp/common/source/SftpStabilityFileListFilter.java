@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+
+import org.springframework.integration.file.filters.FileListFilter;
+import org.springframework.lang.Nullable;
+
+/**
+ * Passes only files that are no longer being written: files whose size and modification
+ * time have not changed for the stability period, across consecutive listings, or files
+ * for which a marker file (the file name plus one of the marker suffixes) is present in
+ * the same listing. Marker files themselves are not passed.
+ * <p>
+ * The size and modification time of the files are kept in memory, per server and directory
+ * listed, so that same-named files of the rotation do not reset each other; files not
+ * seen for a while (e.g. removed from the server) are forgotten.
+ *
+ * @since 2.1.6
+ */
+public class SftpStabilityFileListFilter implements FileListFilter<LsEntry> {
+
+	private static final long PRUNE_INTERVAL = Duration.ofMinutes(1).toMillis();
+
+	private static final long FORGET_AFTER = Duration.ofHours(1).toMillis();
+
+	private final Map<String, FileState> files = new ConcurrentHashMap<>();
+
+	private final long stabilityPeriod;
+
+	private final String[] markerSuffixes;
+
+	private final Supplier<String> location;
+
+	private volatile long lastPrune = System.currentTimeMillis();
+
+	/**
+	 * @param stabilityPeriod the time a file's size and modification time must remain
+	 * unchanged; null to pass only files with a marker.
+	 * @param markerSuffixes the suffixes of the marker files.
+	 */
+	public SftpStabilityFileListFilter(@Nullable Duration stabilityPeriod, String... markerSuffixes) {
+		this(stabilityPeriod, () -> "", markerSuffixes);
+	}
+
+	/**
+	 * @param stabilityPeriod the time a file's size and modification time must remain
+	 * unchanged; null to pass only files with a marker.
+	 * @param location supplies the server and directory being listed.
+	 * @param markerSuffixes the suffixes of the marker files.
+	 */
+	public SftpStabilityFileListFilter(@Nullable Duration stabilityPeriod, Supplier<String> location,
+			String... markerSuffixes) {
+		this.stabilityPeriod = stabilityPeriod != null ? stabilityPeriod.toMillis() : -1;
+		this.location = location;
+		this.markerSuffixes = markerSuffixes != null ? markerSuffixes : new String[0];
+	}
+
+	@Override
+	public List<LsEntry> filterFiles(LsEntry[] files) {
+		long now = System.currentTimeMillis();
+		String location = this.location.get() + '/';
+		Set<String> names = new HashSet<>();
+		for (LsEntry file : files) {
+			names.add(file.getFilename());
+		}
+		List<LsEntry> accepted = new ArrayList<>();
+		for (LsEntry file : files) {
+			String name = file.getFilename();
+			SftpATTRS attrs = file.getAttrs();
+			if (attrs.isDir()) {
+				accepted.add(file);
+			}
+			else if (!isMarker(name) && (hasMarker(location, name, names) || isStable(location + name, attrs, now))) {
+				accepted.add(file);
+			}
+		}
+		if (now - this.lastPrune > PRUNE_INTERVAL) {
+			this.lastPrune = now;
+			this.files.values().removeIf(state -> now - state.lastSeen > FORGET_AFTER + this.stabilityPeriod);
+		}
+		return accepted;
+	}
+
+	private boolean isMarker(String name) {
+		for (String suffix : this.markerSuffixes) {
+			if (name.endsWith(suffix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean hasMarker(String location, String name, Set<String> names) {
+		for (String suffix : this.markerSuffixes) {
+			if (names.contains(name + suffix)) {
+				this.files.remove(location + name);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isStable(String key, SftpATTRS attrs, long now) {
+		if (this.stabilityPeriod < 0) {
+			return false;
+		}
+		FileState state = this.files.get(key);
+		if (state == null || state.size != attrs.getSize() || state.modified != attrs.getMTime()) {
+			this.files.put(key, new FileState(attrs.getSize(), attrs.getMTime(), now));
+			return false;
+		}
+		state.lastSeen = now;
+		return now - state.unchangedSince >= this.stabilityPeriod;
+	}
+
+	private static final class FileState {
+
+		private final long size;
+
+		private final int modified;
+
+		private final long unchangedSince;
+
+		private volatile long lastSeen;
+
+		FileState(long size, int modified, long unchangedSince) {
+			this.size = size;
+			this.modified = modified;
+			this.unchangedSince = unchangedSince;
+			this.lastSeen = unchangedSince;
+		}
+
+	}
+
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.ChannelSftp.LsEntrySelector;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.sshd.client.subsystem.sftp.SftpClient;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.file.remote.session.DelegatingSessionFactory;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.util.CloseableIterator;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * Lists the files in a remote directory as an iterator that reads the directory while it
+ * is iterated, so that a splitter emits the names without the whole listing in memory.
+ * <p>
+ * Both clients read a directory with successive {@code READDIR} requests, each returning
+ * a chunk of entries: with the MINA client the iterator issues them on its directory
+ * handle as it is iterated, while JSch's {@link ChannelSftp#ls(String, LsEntrySelector)}
+ * is fed by a listing thread that blocks once {@code listingChunkSize} names are waiting
+ * to be iterated. As with the {@code LS} gateway, the hidden files, directories and links
+ * are skipped.
+ * <p>
+ * Closing the iterator closes the directory handle and releases the session; with JSch,
+ * the session is released as soon as the listing thread has stopped, which it does at the
+ * end of the chunk being read.
+ *
+ * @since 2.1.6
+ */
+public class SftpStreamingLister implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(SftpStreamingLister.class);
+
+	private static final Object END = new Object();
+
+	private final SessionFactory<LsEntry> sessionFactory;
+
+	private final String separator;
+
+	private final int chunkSize;
+
+	private final ExecutorService executor;
+
+	private final Set<LsEntryIterator> listings = ConcurrentHashMap.newKeySet();
+
+	public SftpStreamingLister(SessionFactory<LsEntry> sessionFactory, SftpSourceProperties properties) {
+		Assert.notNull(sessionFactory, "'sessionFactory' is required");
+		this.sessionFactory = sessionFactory;
+		this.separator = properties.getRemoteFileSeparator();
+		this.chunkSize = properties.getListingChunkSize();
+		this.executor = SftpExecutors.newExecutor(properties, properties.getListingConcurrency(),
+				"sftp-streaming-lister-");
+	}
+
+	/**
+	 * Normalize a directory so that it ends with the remote file separator.
+	 * @param directory the directory.
+	 * @return the directory with a trailing separator.
+	 */
+	public String directoryPath(String directory) {
+		return directory.endsWith(this.separator) ? directory : directory + this.separator;
+	}
+
+	/**
+	 * List the files in the directory; the session is held until the iterator is exhausted
+	 * or closed.
+	 * @param directory the directory.
+	 * @param key the key of the session factory to use when the session factory is a
+	 * {@link DelegatingSessionFactory}; null for the default factory.
+	 * @param filter the filter of the file names.
+	 * @return the file names.
+	 */
+	public CloseableIterator<String> listFiles(String directory, @Nullable Object key, Predicate<String> filter) {
+		Session<LsEntry> session = session(key);
+		Object client;
+		try {
+			client = session.getClientInstance();
+			if (client instanceof SftpClient) {
+				SftpClient sftpClient = (SftpClient) client;
+				return new DirEntryIterator(session, sftpClient, sftpClient.openDir(directoryPath(directory)),
+						filter);
+			}
+			Assert.state(client instanceof ChannelSftp, () -> "Unsupported client " + client);
+		}
+		catch (IOException e) {
+			session.close();
+			throw new UncheckedIOException(e);
+		}
+		catch (RuntimeException e) {
+			session.close();
+			throw e;
+		}
+		LsEntryIterator iterator = new LsEntryIterator(session, (ChannelSftp) client, directoryPath(directory),
+				filter);
+		this.listings.add(iterator);
+		try {
+			this.executor.execute(iterator);
+		}
+		catch (RuntimeException e) {
+			// rejected, e.g. after destroy(): the listing never runs and the session is released
+			iterator.abandon(e);
+			iterator.close();
+			throw e;
+		}
+		return iterator;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Session<LsEntry> session(Object key) {
+		if (key != null && this.sessionFactory instanceof DelegatingSessionFactory) {
+			return ((DelegatingSessionFactory<LsEntry>) this.sessionFactory).getSession(key);
+		}
+		return this.sessionFactory.getSession();
+	}
+
+	private static boolean isFile(String name, boolean directory, boolean link) {
+		return !name.startsWith(".") && !directory && !link;
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+		// the listings dropped from the executor's queue never run
+		IllegalStateException destroyed = new IllegalStateException("The streaming lister was destroyed");
+		this.listings.forEach(listing -> listing.abandon(destroyed));
+	}
+
+	private static final class DirEntryIterator implements CloseableIterator<String> {
+
+		private final Session<LsEntry> session;
+
+		private final SftpClient client;
+
+		private final SftpClient.CloseableHandle handle;
+
+		private final Predicate<String> filter;
+
+		private Iterator<SftpClient.DirEntry> chunk = Collections.emptyIterator();
+
+		private String next;
+
+		private boolean closed;
+
+		DirEntryIterator(Session<LsEntry> session, SftpClient client, SftpClient.CloseableHandle handle,
+				Predicate<String> filter) {
+			this.session = session;
+			this.client = client;
+			this.handle = handle;
+			this.filter = filter;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (this.next == null && !this.closed) {
+				if (!this.chunk.hasNext()) {
+					List<SftpClient.DirEntry> entries = readChunk();
+					if (entries == null) {
+						close();
+						break;
+					}
+					this.chunk = entries.iterator();
+					continue;
+				}
+				SftpClient.DirEntry entry = this.chunk.next();
+				SftpClient.Attributes attributes = entry.getAttributes();
+				if (isFile(entry.getFilename(), attributes.isDirectory(), attributes.isSymbolicLink())
+						&& this.filter.test(entry.getFilename())) {
+					this.next = entry.getFilename();
+				}
+			}
+			return this.next != null;
+		}
+
+		/*
+		 * One READDIR request; null at the end of the directory.
+		 */
+		private List<SftpClient.DirEntry> readChunk() {
+			try {
+				return this.client.readDir(this.handle);
+			}
+			catch (IOException e) {
+				close();
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			String name = this.next;
+			this.next = null;
+			return name;
+		}
+
+		@Override
+		public void close() {
+			if (!this.closed) {
+				this.closed = true;
+				try {
+					this.handle.close();
+				}
+				catch (IOException e) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("Failed to close the directory handle", e);
+					}
+				}
+				finally {
+					this.session.close();
+				}
+			}
+		}
+
+	}
+
+	private final class LsEntryIterator implements CloseableIterator<String>, Runnable {
+
+		private final Session<LsEntry> session;
+
+		private final ChannelSftp channel;
+
+		private final String directory;
+
+		private final Predicate<String> filter;
+
+		private final BlockingQueue<Object> names = new ArrayBlockingQueue<>(SftpStreamingLister.this.chunkSize);
+
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		private final AtomicBoolean iterated = new AtomicBoolean();
+
+		/*
+		 * The listing thread and the iteration both hold the session; the last one done
+		 * releases it.
+		 */
+		private final AtomicInteger holders = new AtomicInteger(2);
+
+		private volatile boolean closed;
+
+		private Object next;
+
+		LsEntryIterator(Session<LsEntry> session, ChannelSftp channel, String directory, Predicate<String> filter) {
+			this.session = session;
+			this.channel = channel;
+			this.directory = directory;
+			this.filter = filter;
+		}
+
+		@Override
+		public void run() {
+			if (!this.started.compareAndSet(false, true)) {
+				// abandoned before it ran
+				return;
+			}
+			Object end = END;
+			try {
+				if (!this.closed) {
+					this.channel.ls(this.directory, entry -> {
+						if (isFile(entry.getFilename(), entry.getAttrs().isDir(), entry.getAttrs().isLink())
+								&& this.filter.test(entry.getFilename()) && !put(entry.getFilename())) {
+							return LsEntrySelector.BREAK;
+						}
+						return this.closed ? LsEntrySelector.BREAK : LsEntrySelector.CONTINUE;
+					});
+				}
+				if (Thread.currentThread().isInterrupted()) {
+					end = new InterruptedException("Interrupted while listing " + this.directory);
+				}
+			}
+			catch (Exception e) {
+				end = e;
+			}
+			finally {
+				if (!put(end) && !this.closed) {
+					// interrupted while the queue is full: make room for the outcome
+					this.names.clear();
+					this.names.offer(end);
+				}
+				SftpStreamingLister.this.listings.remove(this);
+				release();
+			}
+		}
+
+		/**
+		 * Stand in for a listing that has not started and never will.
+		 * @param cause the reason, reported to the iteration.
+		 */
+		void abandon(Exception cause) {
+			if (this.started.compareAndSet(false, true)) {
+				this.names.offer(cause);
+				SftpStreamingLister.this.listings.remove(this);
+				release();
+			}
+		}
+
+		/*
+		 * Wait for room in the queue; false if the iteration was closed or the thread
+		 * interrupted, to stop listing.
+		 */
+		private boolean put(Object name) {
+			try {
+				while (!this.closed) {
+					if (this.names.offer(name, 100, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		private void release() {
+			if (this.holders.decrementAndGet() == 0) {
+				this.session.close();
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.next == null) {
+				try {
+					this.next = this.names.take();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					close();
+					throw new IllegalStateException("Interrupted while listing a remote directory", e);
+				}
+				if (this.next instanceof Exception) {
+					Exception cause = (Exception) this.next;
+					close();
+					throw new IllegalStateException("Failed to list remote directory", cause);
+				}
+				if (this.next == END) {
+					close();
+				}
+			}
+			return this.next != END;
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			String name = (String) this.next;
+			this.next = null;
+			return name;
+		}
+
+		@Override
+		public void close() {
+			this.closed = true;
+			this.next = END;
+			// wakes the listing thread if it waits for room
+			this.names.clear();
+			if (this.iterated.compareAndSet(false, true)) {
+				release();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpExecutorsTests {
+
+	private static final Log logger = LogFactory.getLog(SftpExecutorsTests.class);
+
+	private static final int TASKS = 500;
+
+	private static final long TASK_MILLIS = 20;
+
+	@Test
+	public void platformModeUsesAPoolAndPollsOnThePollerThread() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		ExecutorService executor = SftpExecutors.newExecutor(properties, 2, "test-");
+		try {
+			assertThat(executor, not(instanceOf(SftpExecutors.BoundedExecutorService.class)));
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertNull(SftpExecutors.newPollExecutor(properties, "test-poll-"));
+	}
+
+	@Test
+	public void virtualModeRunsEachTaskOnItsOwnThreadWithinTheBound() throws Exception {
+		assumeTrue(virtualThreadsAvailable());
+		ExecutorService executor = SftpExecutors.newExecutor(virtual(), 4, "test-");
+		assertThat(executor, instanceOf(SftpExecutors.BoundedExecutorService.class));
+		Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(20);
+		try {
+			for (int i = 0; i < 20; i++) {
+				executor.execute(() -> {
+					threads.add(Thread.currentThread());
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					sleep(TASK_MILLIS);
+					running.decrementAndGet();
+					done.countDown();
+				});
+			}
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertThat(threads.size(), equalTo(20));
+		assertThat(maxRunning.get(), lessThanOrEqualTo(4));
+	}
+
+	@Test
+	public void pollsDoNotOverlap() throws Exception {
+		assumeTrue(virtualThreadsAvailable());
+		Executor executor = SftpExecutors.newPollExecutor(virtual(), "test-poll-");
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger polls = new AtomicInteger();
+		executor.execute(() -> {
+			polls.incrementAndGet();
+			await(release);
+		});
+		// skipped while the first poll is running
+		executor.execute(polls::incrementAndGet);
+		release.countDown();
+		int n = 0;
+		CountDownLatch next = new CountDownLatch(1);
+		while (n++ < 100 && next.getCount() > 0) {
+			executor.execute(next::countDown);
+			Thread.sleep(10);
+		}
+		assertTrue(next.await(1, TimeUnit.SECONDS));
+		assertThat(polls.get(), equalTo(1));
+	}
+
+	/**
+	 * Not a rigorous benchmark: compares the time of many blocking tasks, all allowed to
+	 * run at once, on a pool of platform threads and on virtual threads.
+	 */
+	@Test
+	public void blockingTasksOnPlatformAndVirtualThreads() throws Exception {
+		assumeTrue(virtualThreadsAvailable());
+		long platform = run(new SftpSourceProperties());
+		long virtual = run(virtual());
+		logger.info(TASKS + " blocking tasks of " + TASK_MILLIS + "ms: platform threads " + platform
+				+ "ms, virtual threads " + virtual + "ms");
+		// both modes run every task at once rather than in waves
+		assertThat(platform, lessThanOrEqualTo(TASK_MILLIS * 50));
+		assertThat(virtual, lessThanOrEqualTo(TASK_MILLIS * 50));
+	}
+
+	private static long run(SftpSourceProperties properties) throws InterruptedException {
+		ExecutorService executor = SftpExecutors.newExecutor(properties, TASKS, "bench-");
+		CountDownLatch done = new CountDownLatch(TASKS);
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < TASKS; i++) {
+				executor.execute(() -> {
+					sleep(TASK_MILLIS);
+					done.countDown();
+				});
+			}
+			assertTrue(done.await(30, TimeUnit.SECONDS));
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static SftpSourceProperties virtual() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setExecutionMode(SftpSourceProperties.ExecutionMode.virtual);
+		return properties;
+	}
+
+	private static boolean virtualThreadsAvailable() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		}
+		catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
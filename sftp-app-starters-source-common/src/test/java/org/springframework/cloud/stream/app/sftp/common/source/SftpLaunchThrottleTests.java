@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpLaunchThrottleTests {
+
+	@Test
+	public void disabledByDefault() {
+		SftpLaunchThrottle throttle = new SftpLaunchThrottle(new SftpSourceProperties(), new SftpMetrics(null));
+		assertFalse(throttle.isEnabled());
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			throttle.acquire(() -> { });
+		}
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(1000L));
+		throttle.destroy();
+	}
+
+	@Test
+	public void launchesArePacedAtTheRate() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setLaunchRate(20);
+		SftpLaunchThrottle throttle = new SftpLaunchThrottle(properties, new SftpMetrics(null));
+		try {
+			long start = System.nanoTime();
+			for (int i = 0; i < 11; i++) {
+				throttle.acquire(() -> { });
+			}
+			// the first launch is immediate, the next ten 50ms apart
+			assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(450L));
+		}
+		finally {
+			throttle.destroy();
+		}
+	}
+
+	@Test
+	public void outstandingLaunchesExpireAfterTheTimeout() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setMaxOutstandingLaunches(2);
+		properties.setOutstandingLaunchTimeout(Duration.ofMillis(300));
+		SftpLaunchThrottle throttle = new SftpLaunchThrottle(properties, new SftpMetrics(null));
+		try {
+			long start = System.nanoTime();
+			throttle.acquire(() -> { });
+			throttle.acquire(() -> { });
+			assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(250L));
+			throttle.acquire(() -> { });
+			assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(250L));
+		}
+		finally {
+			throttle.destroy();
+		}
+	}
+
+	@Test
+	public void interruptedLaunchIsUnmarked() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setMaxOutstandingLaunches(1);
+		properties.setOutstandingLaunchTimeout(Duration.ofMinutes(1));
+		SftpLaunchThrottle throttle = new SftpLaunchThrottle(properties, new SftpMetrics(null));
+		AtomicBoolean unmarked = new AtomicBoolean();
+		try {
+			throttle.acquire(() -> { });
+			Thread.currentThread().interrupt();
+			throttle.acquire(() -> unmarked.set(true));
+			fail("expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			assertTrue(unmarked.get());
+			assertTrue(Thread.interrupted());
+		}
+		finally {
+			throttle.destroy();
+		}
+	}
+
+}
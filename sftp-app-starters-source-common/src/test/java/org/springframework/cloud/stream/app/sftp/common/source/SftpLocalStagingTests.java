@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.integration.file.filters.FileListFilter;
+import org.springframework.integration.file.filters.ReversibleFileListFilter;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.util.unit.DataSize;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpLocalStagingTests {
+
+	@Rule
+	public TemporaryFolder localDir = new TemporaryFolder();
+
+	@Test
+	public void transfersAreDeferredUntilSentFilesAreEvicted() throws Exception {
+		SftpLocalStaging staging = new SftpLocalStaging(properties(Duration.ZERO), new SftpMetrics(null));
+		staging.afterPropertiesSet();
+		try {
+			File staged = write("staged.txt", 20, System.currentTimeMillis());
+			assertTrue(staging.isQuotaEnabled());
+			assertThat(staging.usage(), equalTo(20L));
+			LsEntry entry = entry(5);
+			@SuppressWarnings("unchecked")
+			ReversibleFileListFilter<LsEntry> acceptOnce = mock(ReversibleFileListFilter.class);
+			FileListFilter<LsEntry> filter = staging.filter(acceptOnce);
+			assertTrue(filter.filterFiles(new LsEntry[] { entry }).isEmpty());
+			verify(acceptOnce).rollback(entry, Collections.singletonList(entry));
+			// not sent yet: kept
+			Thread.sleep(300);
+			assertTrue(staged.exists());
+			staging.afterSend().afterSendCompletion(MessageBuilder.withPayload(staged).build(),
+					mock(MessageChannel.class), true, null);
+			int n = 0;
+			while (n++ < 100 && staged.exists()) {
+				Thread.sleep(100);
+			}
+			assertFalse(staged.exists());
+			assertThat(filter.filterFiles(new LsEntry[] { entry }), equalTo(Collections.singletonList(entry)));
+		}
+		finally {
+			staging.destroy();
+		}
+	}
+
+	@Test
+	public void filesLeftByAPreviousRunAreEvicted() throws Exception {
+		long now = System.currentTimeMillis();
+		File old = write("old.txt", 20, now - TimeUnit.HOURS.toMillis(2));
+		File recent = write("recent.txt", 5, now);
+		SftpLocalStaging staging = new SftpLocalStaging(properties(Duration.ofHours(1)), new SftpMetrics(null));
+		staging.afterPropertiesSet();
+		try {
+			int n = 0;
+			while (n++ < 100 && old.exists()) {
+				Thread.sleep(100);
+			}
+			assertFalse(old.exists());
+			assertTrue(recent.exists());
+			assertThat(staging.usage(), equalTo(5L));
+		}
+		finally {
+			staging.destroy();
+		}
+	}
+
+	@Test
+	public void preservedTimestampsAreNotTakenAsSendTimes() throws Exception {
+		File old = write("old.txt", 20, System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+		SftpSourceProperties properties = properties(Duration.ofHours(1));
+		properties.setPreserveTimestamp(true);
+		SftpLocalStaging staging = new SftpLocalStaging(properties, new SftpMetrics(null));
+		staging.afterPropertiesSet();
+		try {
+			// past the first eviction run
+			Thread.sleep(1500);
+			assertTrue(old.exists());
+			assertThat(staging.usage(), equalTo(20L));
+		}
+		finally {
+			staging.destroy();
+		}
+	}
+
+	private SftpSourceProperties properties(Duration maxAge) {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setLocalDir(this.localDir.getRoot());
+		properties.setLocalDirMaxSize(DataSize.ofBytes(10));
+		properties.setLocalFileMaxAge(maxAge);
+		return properties;
+	}
+
+	private File write(String name, int size, long lastModified) throws Exception {
+		File file = new File(this.localDir.getRoot(), name);
+		Files.write(file.toPath(), new byte[size]);
+		assertTrue(file.setLastModified(lastModified));
+		return file;
+	}
+
+	private static LsEntry entry(long size) {
+		LsEntry entry = mock(LsEntry.class);
+		SftpATTRS attrs = mock(SftpATTRS.class);
+		when(entry.getAttrs()).thenReturn(attrs);
+		when(attrs.getSize()).thenReturn(size);
+		return entry;
+	}
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.metadata.SimpleMetadataStore;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpRecursiveDirectoryListerTests {
+
+	private final AtomicInteger deepMtime = new AtomicInteger(200);
+
+	private Session<LsEntry> session;
+
+	private SessionFactory<LsEntry> sessionFactory;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		this.session = mock(Session.class);
+		this.sessionFactory = mock(SessionFactory.class);
+		when(this.sessionFactory.getSession()).thenReturn(this.session);
+		when(this.session.list("/in/")).thenReturn(new LsEntry[] { file("a.csv"), file(".hidden"), link("link"),
+				dir("sub", 100), dir(".git", 100) });
+		LsEntry deep = dir("deep", 0);
+		when(deep.getAttrs().getMTime()).thenAnswer(invocation -> this.deepMtime.get());
+		when(this.session.list("/in/sub/")).thenReturn(new LsEntry[] { file("b.csv"), deep });
+		when(this.session.list("/in/sub/deep/")).thenReturn(new LsEntry[] { file("c.csv") });
+	}
+
+	@Test
+	public void treeIsListedLevelByLevel() {
+		SftpRecursiveDirectoryLister lister = new SftpRecursiveDirectoryLister(this.sessionFactory, properties());
+		try {
+			assertThat(lister.listFiles("/in", null).toString(), equalTo("[a.csv, sub/b.csv, sub/deep/c.csv]"));
+		}
+		finally {
+			lister.destroy();
+		}
+	}
+
+	@Test
+	public void depthAndDirectoryFiltersLimitTheTree() {
+		SftpSourceProperties properties = properties();
+		properties.setMaxDepth(1);
+		SftpRecursiveDirectoryLister lister = new SftpRecursiveDirectoryLister(this.sessionFactory, properties);
+		try {
+			assertThat(lister.listFiles("/in/", null).toString(), equalTo("[a.csv, sub/b.csv]"));
+		}
+		finally {
+			lister.destroy();
+		}
+		properties = properties();
+		properties.setExcludeDirectoryRegex(Pattern.compile("d.*"));
+		lister = new SftpRecursiveDirectoryLister(this.sessionFactory, properties);
+		try {
+			assertThat(lister.listFiles("/in/", null).toString(), equalTo("[a.csv, sub/b.csv]"));
+		}
+		finally {
+			lister.destroy();
+		}
+	}
+
+	@Test
+	public void listingFilterMatchesFileNamesAndDropsStoredPaths() {
+		SftpSourceProperties properties = properties();
+		properties.setFilenameRegex(Pattern.compile("[ab]\\.csv"));
+		SimpleMetadataStore metadataStore = new SimpleMetadataStore();
+		metadataStore.put("/in/a.csv", "1");
+		SftpRecursiveDirectoryLister lister = new SftpRecursiveDirectoryLister(this.sessionFactory, properties);
+		try {
+			assertThat(lister.listFiles("/in/", null,
+					SftpSourceFilters.listingFilter(properties, metadataStore, name -> "/in/" + name)).toString(),
+					equalTo("[sub/b.csv]"));
+		}
+		finally {
+			lister.destroy();
+		}
+	}
+
+	@Test
+	public void unchangedLeavesAreSkippedOnceConfirmed() throws Exception {
+		SftpSourceProperties properties = properties();
+		properties.setSkipUnchangedDirectories(true);
+		SftpRecursiveDirectoryLister lister = new SftpRecursiveDirectoryLister(this.sessionFactory, properties);
+		try {
+			assertThat(lister.listFiles("/in/", null).size(), equalTo(3));
+			assertThat(lister.listFiles("/in/", null).size(), equalTo(3));
+			// confirmed unchanged: the leaf is no longer listed
+			List<String> files = lister.listFiles("/in/", null);
+			assertThat(files.toString(), equalTo("[a.csv, sub/b.csv]"));
+			verify(this.session, times(2)).list("/in/sub/deep/");
+			this.deepMtime.set(300);
+			assertThat(lister.listFiles("/in/", null).size(), equalTo(3));
+			verify(this.session, times(3)).list("/in/sub/deep/");
+			// directories with sub-directories are always listed
+			verify(this.session, times(4)).list("/in/sub/");
+		}
+		finally {
+			lister.destroy();
+		}
+	}
+
+	@Test
+	public void unchangedLeavesAreListedByDefault() throws Exception {
+		SftpRecursiveDirectoryLister lister = new SftpRecursiveDirectoryLister(this.sessionFactory, properties());
+		try {
+			for (int i = 0; i < 3; i++) {
+				assertThat(lister.listFiles("/in/", null).size(), equalTo(3));
+			}
+			verify(this.session, times(3)).list("/in/sub/deep/");
+		}
+		finally {
+			lister.destroy();
+		}
+	}
+
+	@Test
+	public void skippedLeafIsListedAgainWhenAFileIsUnmarked() throws Exception {
+		SftpSourceProperties properties = properties();
+		properties.setSkipUnchangedDirectories(true);
+		SftpRecursiveDirectoryLister lister = new SftpRecursiveDirectoryLister(this.sessionFactory, properties);
+		try {
+			lister.listFiles("/in/", null);
+			lister.listFiles("/in/", null);
+			assertThat(lister.listFiles("/in/", null).size(), equalTo(2));
+			lister.relist("/in/sub/deep/c.csv");
+			assertThat(lister.listFiles("/in/", null).size(), equalTo(3));
+			verify(this.session, times(3)).list("/in/sub/deep/");
+		}
+		finally {
+			lister.destroy();
+		}
+	}
+
+	private static SftpSourceProperties properties() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setListingConcurrency(2);
+		return properties;
+	}
+
+	private static LsEntry file(String name) {
+		return entry(name, false, false, 0);
+	}
+
+	private static LsEntry link(String name) {
+		return entry(name, false, true, 0);
+	}
+
+	private static LsEntry dir(String name, int mtime) {
+		return entry(name, true, false, mtime);
+	}
+
+	private static LsEntry entry(String name, boolean dir, boolean link, int mtime) {
+		LsEntry entry = mock(LsEntry.class);
+		SftpATTRS attrs = mock(SftpATTRS.class);
+		when(entry.getFilename()).thenReturn(name);
+		when(entry.getAttrs()).thenReturn(attrs);
+		when(attrs.isDir()).thenReturn(dir);
+		when(attrs.isLink()).thenReturn(link);
+		when(attrs.getMTime()).thenReturn(mtime);
+		return entry;
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.junit.After;
+import org.junit.Test;
+
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpServerCircuitBreakerTests {
+
+	private final SftpServerCircuitBreaker circuitBreaker = new SftpServerCircuitBreaker(properties(2));
+
+	@After
+	public void tearDown() {
+		this.circuitBreaker.destroy();
+	}
+
+	@Test
+	public void disabledWithoutMultiSource() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setCircuitBreakerThreshold(2);
+		assertFalse(new SftpServerCircuitBreaker(properties).isEnabled());
+		assertFalse(new SftpServerCircuitBreaker(properties(0)).isEnabled());
+		assertTrue(this.circuitBreaker.isEnabled());
+	}
+
+	@Test
+	public void circuitOpensAtTheThresholdAndClosesOnceAProbeConnects() throws Exception {
+		Server server = new Server();
+		SessionFactory<LsEntry> sessionFactory = this.circuitBreaker.sessionFactory(server, "one");
+		refused(sessionFactory);
+		assertFalse(this.circuitBreaker.isOpen("one"));
+		refused(sessionFactory);
+		assertTrue(this.circuitBreaker.isOpen("one"));
+		refused(sessionFactory);
+		// fails fast while open, without connecting
+		assertThat(server.attempts.get(), equalTo(2));
+		server.up.set(true);
+		int n = 0;
+		while (n++ < 100 && this.circuitBreaker.isOpen("one")) {
+			Thread.sleep(100);
+		}
+		assertFalse(this.circuitBreaker.isOpen("one"));
+		assertNotNull(sessionFactory.getSession());
+	}
+
+	@Test
+	public void successResetsTheFailureCount() {
+		Server server = new Server();
+		SessionFactory<LsEntry> sessionFactory = this.circuitBreaker.sessionFactory(server, "one");
+		refused(sessionFactory);
+		server.up.set(true);
+		sessionFactory.getSession();
+		server.up.set(false);
+		refused(sessionFactory);
+		assertFalse(this.circuitBreaker.isOpen("one"));
+	}
+
+	@Test
+	public void keysWithoutAFactoryShareTheDefaultCircuit() {
+		Server one = new Server();
+		one.up.set(true);
+		this.circuitBreaker.sessionFactory(one, "one");
+		SessionFactory<LsEntry> defaultFactory = this.circuitBreaker.defaultSessionFactory(new Server());
+		refused(defaultFactory);
+		refused(defaultFactory);
+		assertTrue(this.circuitBreaker.isOpen("junk"));
+		assertFalse(this.circuitBreaker.isOpen("one"));
+	}
+
+	private static void refused(SessionFactory<LsEntry> sessionFactory) {
+		try {
+			sessionFactory.getSession();
+			fail("expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	private static SftpSourceProperties properties(int threshold) {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setDirectories(new String[] { "one.in", "two.in" });
+		properties.setCircuitBreakerThreshold(threshold);
+		properties.setCircuitBreakerProbeInterval(Duration.ofMillis(100));
+		return properties;
+	}
+
+	private static final class Server implements SessionFactory<LsEntry> {
+
+		private final AtomicBoolean up = new AtomicBoolean();
+
+		private final AtomicInteger attempts = new AtomicInteger();
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Session<LsEntry> getSession() {
+			this.attempts.incrementAndGet();
+			if (!this.up.get()) {
+				throw new IllegalStateException("Connection refused");
+			}
+			return mock(Session.class);
+		}
+
+	}
+
+}
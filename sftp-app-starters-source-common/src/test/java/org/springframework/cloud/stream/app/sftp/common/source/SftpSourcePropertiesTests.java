@@ -17,23 +17,37 @@
 package org.springframework.cloud.stream.app.sftp.common.source;
 
 import java.io.File;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import org.junit.Test;
 
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.cloud.stream.app.sftp.common.session.MinaSftpSessionFactory;
+import org.springframework.cloud.stream.app.sftp.common.session.SftpBandwidthLimiter;
 import org.springframework.cloud.stream.config.SpelExpressionConverterConfiguration;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.integration.config.EnableIntegration;
+import org.springframework.integration.file.remote.session.CachingSessionFactory;
 import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.metadata.SimpleMetadataStore;
+import org.springframework.integration.sftp.session.DefaultSftpSessionFactory;
 import org.springframework.integration.test.util.TestUtils;
+import org.springframework.util.unit.DataSize;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.endsWith;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -180,6 +194,141 @@ public class SftpSourcePropertiesTests {
 		context.close();
 	}
 
+	@Test
+	public void leaderRoleCanBeCustomized() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.leader-role:sftpLeader");
+		context.register(Conf.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertThat(properties.getLeaderRole(), equalTo("sftpLeader"));
+		context.close();
+	}
+
+	@Test
+	public void recursiveListingCanBeCustomized() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.list-only:true", "sftp.recursive:true", "sftp.max-depth:3",
+				"sftp.exclude-directory-regex:archive", "sftp.listing-concurrency:8",
+				"sftp.skip-unchanged-directories:true");
+		context.register(Conf.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertTrue(properties.isRecursive());
+		assertThat(properties.getMaxDepth(), equalTo(3));
+		assertThat(properties.getExcludeDirectoryRegex().pattern(), equalTo("archive"));
+		assertThat(properties.getListingConcurrency(), equalTo(8));
+		assertThat(properties.isSkipUnchangedDirectories(), equalTo(true));
+		context.close();
+	}
+
+	@Test
+	public void fetchOrderCanBeCustomized() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.fetch-order:smallest", "sftp.fetch-priorities[.*\\.urgent]:10");
+		context.register(Conf.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertThat(properties.getFetchOrder(), equalTo(SftpSourceProperties.FetchOrder.smallest));
+		assertThat(properties.getFetchPriorities().get(".*\\.urgent"), equalTo(10));
+		context.close();
+	}
+
+	@Test
+	public void stabilityCanBeCustomized() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.stability-period:5s", "sftp.marker-suffixes:.done,.ok");
+		context.register(Conf.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertThat(properties.getStabilityPeriod(), equalTo(Duration.ofSeconds(5)));
+		assertThat(properties.getMarkerSuffixes(), equalTo(new String[] { ".done", ".ok" }));
+		context.close();
+	}
+
+	@Test
+	public void manifestCanBeCustomized() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.manifest-regex:.*\\.manifest", "sftp.manifest-output:sequence",
+				"sftp.manifest-concurrency:2");
+		context.register(Conf.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertThat(properties.getManifestRegex().pattern(), equalTo(".*\\.manifest"));
+		assertThat(properties.getManifestOutput(), equalTo(SftpSourceProperties.ManifestOutput.sequence));
+		assertThat(properties.getManifestConcurrency(), equalTo(2));
+		context.close();
+	}
+
+	@Test
+	public void latencyTrackingCanBeEnabled() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.latency-tracking:true");
+		context.register(Conf.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertTrue(properties.isLatencyTracking());
+		context.close();
+	}
+
+	@Test
+	public void reactiveCanBeCustomized() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.reactive:true", "sftp.reactive-concurrency:8",
+				"sftp.reactive-idle-delay:500ms");
+		context.register(Conf.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertTrue(properties.isReactive());
+		assertThat(properties.getReactiveConcurrency(), equalTo(8));
+		assertThat(properties.getReactiveIdleDelay(), equalTo(Duration.ofMillis(500)));
+		context.close();
+	}
+
+	@Test
+	public void executionModeCanBeCustomized() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.execution-mode:virtual", "sftp.factory.max-concurrency:5");
+		context.register(Conf.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertThat(properties.getExecutionMode(), equalTo(SftpSourceProperties.ExecutionMode.virtual));
+		assertThat(properties.getFactory().getMaxConcurrency(), equalTo(5));
+		context.close();
+	}
+
+	@Test
+	public void serverLimitsCanBeCustomized() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.factories.one.max-concurrency:2", "sftp.factories.one.max-transfers:1",
+				"sftp.factories.two.max-transfers:20");
+		context.register(Conf.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertThat(properties.getFactories().get("one").getMaxConcurrency(), equalTo(2));
+		assertThat(properties.getFactories().get("one").getMaxTransfers(), equalTo(1));
+		assertThat(properties.getFactories().get("two").getMaxConcurrency(), equalTo(0));
+		assertThat(properties.getFactories().get("two").getMaxTransfers(), equalTo(20));
+		context.close();
+	}
+
+	@Test
+	public void circuitBreakerCanBeEnabled() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.factories.one.host:host1", "sftp.factories.one.username:user1",
+				"sftp.factories.two.host:host2", "sftp.factories.two.username:user2",
+				"sftp.directories:one.dir1,two.dir2", "sftp.circuit-breaker-threshold:3",
+				"sftp.circuit-breaker-probe-interval:10s");
+		context.register(Factory.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertThat(properties.getCircuitBreakerProbeInterval(), equalTo(Duration.ofSeconds(10)));
+		SftpServerCircuitBreaker circuitBreaker = context.getBean(SftpServerCircuitBreaker.class);
+		assertTrue(circuitBreaker.isEnabled());
+		assertFalse(circuitBreaker.isOpen("one"));
+		context.close();
+	}
+
 	@Test
 	public void knownHostsLocation() {
 		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
@@ -205,10 +354,225 @@ public class SftpSourcePropertiesTests {
 		context.close();
 	}
 
+	@Test
+	public void channelsCanBePooled() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.factory.max-channels = 4");
+		context.register(Factory.class);
+		context.refresh();
+		SessionFactory<?> sessionFactory = context.getBean(SessionFactory.class);
+		assertThat(sessionFactory, instanceOf(CachingSessionFactory.class));
+		assertTrue(TestUtils.getPropertyValue(sessionFactory, "sessionFactory.isSharedSession", Boolean.class));
+		context.close();
+	}
+
+	@Test
+	public void transportCanBeTuned() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.factory.transport.ciphers = aes256-gcm@openssh.com,aes128-ctr",
+				"sftp.factory.transport.compression = true", "sftp.factory.transport.compression-level = 1");
+		context.register(Factory.class);
+		context.refresh();
+		SessionFactory<?> sessionFactory = context.getBean(SessionFactory.class);
+		Properties sessionConfig = TestUtils.getPropertyValue(sessionFactory, "sessionConfig", Properties.class);
+		assertThat(sessionConfig.getProperty("cipher.c2s"), equalTo("aes128-ctr"));
+		assertThat(sessionConfig.getProperty("compression.s2c"), equalTo("zlib@openssh.com,zlib,none"));
+		assertThat(sessionConfig.getProperty("compression_level"), equalTo("1"));
+		context.close();
+	}
+
+	@Test
+	public void bandwidthCanBeLimited() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.max-bandwidth = 1MB", "sftp.factory.max-bandwidth = 0");
+		context.register(Factory.class);
+		context.refresh();
+		SftpBandwidthLimiter limiter = context.getBean(SftpBandwidthLimiter.class);
+		assertTrue(limiter.isEnabled());
+		assertThat(limiter.getLimits().get("global"), equalTo(1048576L));
+		assertThat(limiter.getLimits().get("transfer"), equalTo(0L));
+		assertThat(context.getBean(SessionFactory.class), not(instanceOf(DefaultSftpSessionFactory.class)));
+		limiter.setTransferLimit(1024);
+		assertThat(limiter.getLimits().get("transfer"), equalTo(1024L));
+		context.close();
+	}
+
+	@Test
+	public void launchesCanBeThrottled() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.launch-rate = 10", "sftp.max-outstanding-launches = 1",
+				"sftp.outstanding-launch-timeout = 200ms");
+		context.register(Factory.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertThat(properties.getLaunchRate(), equalTo(10.0));
+		assertThat(properties.getMaxOutstandingLaunches(), equalTo(1));
+		assertThat(properties.getOutstandingLaunchTimeout(), equalTo(Duration.ofMillis(200)));
+		SftpLaunchThrottle throttle = context.getBean(SftpLaunchThrottle.class);
+		assertTrue(throttle.isEnabled());
+		long start = System.nanoTime();
+		throttle.acquire(() -> { });
+		throttle.acquire(() -> { });
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+		context.close();
+	}
+
+	@Test
+	public void listingCanBeStreamed() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.listing-chunk-size = 500");
+		context.register(Factory.class);
+		context.refresh();
+		assertThat(context.getBean(SftpSourceProperties.class).getListingChunkSize(), equalTo(500));
+		assertThat(context.getBean("sftpStreamingLister"), instanceOf(SftpStreamingLister.class));
+		context.close();
+	}
+
+	@Test
+	public void optionalBeansAreOnlyRegisteredWhenConfigured() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context);
+		context.register(Factory.class);
+		context.refresh();
+		assertFalse(context.containsBean("sftpStreamingLister"));
+		assertFalse(context.containsBean("sftpRemoteFileActions"));
+		assertFalse(context.containsBean("sftpLocalStaging"));
+		assertThat(context.getBeansOfType(SftpStreamingLister.class).size(), equalTo(0));
+		context.close();
+	}
+
+	@Test
+	public void listingIsFilteredBeforeSplitting() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.filename-pattern = *.txt");
+		context.register(Conf.class);
+		context.refresh();
+		SimpleMetadataStore metadataStore = new SimpleMetadataStore();
+		metadataStore.put("/remote/seen.txt", "seen.txt");
+		Predicate<String> filter = SftpSourceFilters.listingFilter(context.getBean(SftpSourceProperties.class),
+				metadataStore, name -> "/remote/" + name);
+		assertTrue(filter.test("new.txt"));
+		assertFalse(filter.test("seen.txt"));
+		assertFalse(filter.test("new.csv"));
+		context.close();
+	}
+
+	@Test
+	public void listRecordsCanBeBatched() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.list-only = true", "sftp.list-batch-size = 100");
+		context.register(Conf.class);
+		context.refresh();
+		assertThat(context.getBean(SftpSourceProperties.class).getListBatchSize(), equalTo(100));
+		context.close();
+	}
+
+	@Test
+	public void listRecordsRequireListOnly() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.list-batch-size = 100");
+		context.register(Conf.class);
+		try {
+			context.refresh();
+			fail("listBatchSize requires listOnly");
+		}
+		catch (Exception e) {
+			assertThat(e.getMessage(), containsString("listBatchSize requires listOnly"));
+		}
+		finally {
+			context.close();
+		}
+	}
+
+	@Test
+	public void minaClientCanBeSelected() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.factory.client-type = mina");
+		context.register(Factory.class);
+		context.refresh();
+		assertThat(context.getBean(SessionFactory.class), instanceOf(MinaSftpSessionFactory.class));
+		context.close();
+	}
+
 	private void testPropertyValues(ConfigurableApplicationContext context, String... props) {
 		TestPropertyValues.of("sftp.factory.username=foo").and(props).applyTo(context);
 	}
 
+	@Test
+	public void moveToDirectoryCannotBeUsedWithDelete() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.move-to-directory = processed", "sftp.delete-remote-files = true");
+		context.register(Conf.class);
+		try {
+			context.refresh();
+			fail("moveToDirectory cannot be used with deleteRemoteFiles");
+		}
+		catch (Exception e) {
+			assertThat(e.getMessage(), containsString("moveToDirectory cannot be used with deleteRemoteFiles"));
+		}
+		finally {
+			context.close();
+		}
+	}
+
+	@Test
+	public void remoteFileActionsCannotBeUsedWithTaskLauncherOutput() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.move-to-directory = processed", "sftp.task-launcher-output = true");
+		context.register(Conf.class);
+		try {
+			context.refresh();
+			fail("moveToDirectory cannot be used with taskLauncherOutput");
+		}
+		catch (Exception e) {
+			assertThat(e.getMessage(), containsString("moveToDirectory cannot be used with deleteRemoteFiles, "
+					+ "listOnly, taskLauncherOutput"));
+		}
+		finally {
+			context.close();
+		}
+		context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.async-remote-actions = true", "sftp.task-launcher-output = true");
+		context.register(Conf.class);
+		try {
+			context.refresh();
+			fail("asyncRemoteActions cannot be used with taskLauncherOutput");
+		}
+		catch (Exception e) {
+			assertThat(e.getMessage(), containsString("asyncRemoteActions cannot be used with listOnly, "
+					+ "taskLauncherOutput"));
+		}
+		finally {
+			context.close();
+		}
+	}
+
+	@Test
+	public void localDirectoryQuotaRequiresMaxAge() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.local-dir-max-size = 10MB");
+		context.register(Conf.class);
+		try {
+			context.refresh();
+			fail("localDirMaxSize requires localFileMaxAge");
+		}
+		catch (Exception e) {
+			assertThat(e.getMessage(), containsString("localDirMaxSize requires localFileMaxAge"));
+		}
+		finally {
+			context.close();
+		}
+		context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.local-dir-max-size = 10MB", "sftp.local-file-max-age = 1h");
+		context.register(Factory.class);
+		context.refresh();
+		SftpSourceProperties properties = context.getBean(SftpSourceProperties.class);
+		assertThat(properties.getLocalDirMaxSize(), equalTo(DataSize.ofMegabytes(10)));
+		assertThat(properties.getLocalFileMaxAge(), equalTo(Duration.ofHours(1)));
+		assertTrue(context.getBean(SftpLocalStaging.class).isQuotaEnabled());
+		context.close();
+	}
+
 	@Configuration
 	@EnableIntegration
 	@EnableConfigurationProperties(SftpSourceProperties.class)
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.junit.After;
+import org.junit.Test;
+
+import org.springframework.integration.file.remote.aop.RotatingServerAdvice;
+import org.springframework.integration.file.remote.session.DelegatingSessionFactory;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.sftp.inbound.SftpStreamingMessageSource;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpSourceRotatorTests {
+
+	private final Map<Object, SessionFactory<LsEntry>> factories = new HashMap<>();
+
+	private final SessionFactory<LsEntry> defaultFactory = factory();
+
+	private final SftpStreamingMessageSource source = mock(SftpStreamingMessageSource.class);
+
+	private SftpServerCircuitBreaker circuitBreaker;
+
+	@After
+	public void tearDown() {
+		this.circuitBreaker.destroy();
+	}
+
+	@Test
+	public void nonFairRotationSkipsAnOpenServerWithItsSessionFactory() {
+		DelegatingSessionFactory<LsEntry> sessionFactory = sessionFactory();
+		SftpSourceRotator rotator = rotator(properties(false), sessionFactory);
+		open("one");
+		assertTrue(rotator.beforeReceive(this.source));
+		assertThat(rotator.getCurrentKey(), equalTo("two"));
+		assertThat(sessionFactory.getFactory(), sameInstance(this.factories.get("two")));
+		verify(this.source).setRemoteDirectory("second");
+		// an empty poll moves on
+		rotator.afterReceive(null, this.source);
+		assertThat(sessionFactory.getFactory(), sameInstance(this.defaultFactory));
+		assertTrue(rotator.beforeReceive(this.source));
+		assertThat(rotator.getCurrentKey(), equalTo("three"));
+		assertThat(sessionFactory.getFactory(), sameInstance(this.factories.get("three")));
+	}
+
+	@Test
+	public void fairRotationSkipsAnOpenServerWithItsSessionFactory() {
+		DelegatingSessionFactory<LsEntry> sessionFactory = sessionFactory();
+		SftpSourceRotator rotator = rotator(properties(true), sessionFactory);
+		open("three");
+		assertTrue(rotator.beforeReceive(this.source));
+		assertThat(rotator.getCurrentKey(), equalTo("one"));
+		rotator.afterReceive(null, this.source);
+		assertTrue(rotator.beforeReceive(this.source));
+		assertThat(rotator.getCurrentKey(), equalTo("two"));
+		rotator.afterReceive(null, this.source);
+		assertTrue(rotator.beforeReceive(this.source));
+		assertThat(rotator.getCurrentKey(), equalTo("one"));
+		assertThat(sessionFactory.getFactory(), sameInstance(this.factories.get("one")));
+		verify(this.source, times(2)).setRemoteDirectory("first");
+	}
+
+	@Test
+	public void pollIsSkippedWhenEveryServerIsOpen() {
+		SftpSourceRotator rotator = rotator(properties(false), sessionFactory());
+		open("one");
+		open("two");
+		open("three");
+		assertFalse(rotator.beforeReceive(this.source));
+	}
+
+	private DelegatingSessionFactory<LsEntry> sessionFactory() {
+		return new DelegatingSessionFactory<>(this.factories, this.defaultFactory);
+	}
+
+	private SftpSourceRotator rotator(SftpSourceProperties properties,
+			DelegatingSessionFactory<LsEntry> sessionFactory) {
+		this.circuitBreaker = new SftpServerCircuitBreaker(properties);
+		for (String key : new String[] { "one", "two", "three" }) {
+			this.factories.put(key, this.circuitBreaker.sessionFactory(refusing(), key));
+		}
+		RotatingServerAdvice.StandardRotationPolicy rotationPolicy = new RotatingServerAdvice.StandardRotationPolicy(
+				sessionFactory, SftpSourceProperties.keyDirectories(properties), properties.isFair());
+		return new SftpSourceRotator(properties, rotationPolicy, this.circuitBreaker);
+	}
+
+	/*
+	 * The rotator never connects: a single refused session opens the circuit of a server.
+	 */
+	private void open(String key) {
+		try {
+			this.factories.get(key).getSession();
+			fail("expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	private static SftpSourceProperties properties(boolean fair) {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setDirectories(new String[] { "one.first", "two.second", "three.third" });
+		properties.setFair(fair);
+		properties.setCircuitBreakerThreshold(1);
+		properties.setCircuitBreakerProbeInterval(Duration.ofMinutes(1));
+		return properties;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static SessionFactory<LsEntry> factory() {
+		return mock(SessionFactory.class);
+	}
+
+	private static SessionFactory<LsEntry> refusing() {
+		return () -> {
+			throw new IllegalStateException("Connection refused");
+		};
+	}
+
+}
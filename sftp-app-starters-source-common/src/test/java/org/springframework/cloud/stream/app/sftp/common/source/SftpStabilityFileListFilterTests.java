@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpStabilityFileListFilterTests {
+
+	@Test
+	public void filesArePassedOnceQuiescent() throws Exception {
+		SftpStabilityFileListFilter filter = new SftpStabilityFileListFilter(Duration.ofMillis(200));
+		assertTrue(filter.filterFiles(new LsEntry[] { entry("a.csv", 10) }).isEmpty());
+		Thread.sleep(300);
+		// still being written
+		assertTrue(filter.filterFiles(new LsEntry[] { entry("a.csv", 20) }).isEmpty());
+		Thread.sleep(300);
+		assertThat(names(filter.filterFiles(new LsEntry[] { entry("a.csv", 20) })), equalTo("a.csv"));
+	}
+
+	@Test
+	public void filesArePassedWithTheirMarker() {
+		SftpStabilityFileListFilter filter = new SftpStabilityFileListFilter(null, ".done", ".ok");
+		List<LsEntry> accepted = filter.filterFiles(new LsEntry[] { entry("a.csv", 10), entry("a.csv.done", 0),
+				entry("b.csv", 10), entry("c.csv", 10), entry("c.csv.ok", 0) });
+		assertThat(names(accepted), equalTo("a.csv,c.csv"));
+	}
+
+	@Test
+	public void sameNamedFilesOfEachLocationAreTrackedApart() throws Exception {
+		AtomicReference<String> location = new AtomicReference<>("one:in");
+		SftpStabilityFileListFilter filter = new SftpStabilityFileListFilter(Duration.ofMillis(200), location::get);
+		for (int i = 0; i < 3; i++) {
+			location.set("one:in");
+			filter.filterFiles(new LsEntry[] { entry("a.csv", 10) });
+			location.set("two:in");
+			filter.filterFiles(new LsEntry[] { entry("a.csv", 20) });
+			Thread.sleep(150);
+		}
+		location.set("one:in");
+		assertThat(names(filter.filterFiles(new LsEntry[] { entry("a.csv", 10) })), equalTo("a.csv"));
+		location.set("two:in");
+		assertThat(names(filter.filterFiles(new LsEntry[] { entry("a.csv", 20) })), equalTo("a.csv"));
+	}
+
+	private static LsEntry entry(String name, long size) {
+		LsEntry entry = mock(LsEntry.class);
+		SftpATTRS attrs = mock(SftpATTRS.class);
+		when(entry.getFilename()).thenReturn(name);
+		when(entry.getAttrs()).thenReturn(attrs);
+		when(attrs.getSize()).thenReturn(size);
+		when(attrs.getMTime()).thenReturn((int) size);
+		return entry;
+	}
+
+	private static String names(List<LsEntry> entries) {
+		StringBuilder names = new StringBuilder();
+		for (LsEntry entry : entries) {
+			names.append(names.length() > 0 ? "," : "").append(entry.getFilename());
+		}
+		return names.toString();
+	}
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.common.source;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.stream.app.sftp.common.session.MinaSftpSessionFactory;
+import org.springframework.integration.file.remote.session.CachingSessionFactory;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.sftp.session.DefaultSftpSessionFactory;
+import org.springframework.integration.util.CloseableIterator;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Streams the listing of a directory of many files from an embedded server, in chunks,
+ * with both clients.
+ *
+ * @since 2.1.6
+ */
+public class SftpStreamingListerTests {
+
+	private static final int FILES = 1000;
+
+	@ClassRule
+	public static final TemporaryFolder remote = new TemporaryFolder();
+
+	@ClassRule
+	public static final TemporaryFolder keys = new TemporaryFolder();
+
+	private static SshServer server;
+
+	private static List<String> names;
+
+	@BeforeClass
+	public static void createServer() throws Exception {
+		File dir = remote.newFolder("many");
+		names = new ArrayList<>(FILES);
+		for (int i = 0; i < FILES; i++) {
+			String name = String.format("file%04d.txt", i);
+			Files.write(new File(dir, name).toPath(), name.getBytes());
+			names.add(name);
+		}
+		Files.write(new File(dir, ".hidden").toPath(), "hidden".getBytes());
+		new File(dir, "sub").mkdir();
+		server = SshServer.setUpDefaultServer();
+		server.setPasswordAuthenticator((username, password, session) -> "pass".equals(password));
+		server.setPort(0);
+		server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(new File(keys.getRoot(), "hostkey.ser")));
+		server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+		server.setFileSystemFactory(new VirtualFileSystemFactory(remote.getRoot().toPath()));
+		server.start();
+	}
+
+	@AfterClass
+	public static void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void jschListingIsStreamedAndReleasesTheSession() throws Exception {
+		listingIsStreamedAndReleasesTheSession(SftpStreamingListerTests::jsch);
+	}
+
+	@Test
+	public void minaListingIsStreamedAndReleasesTheSession() throws Exception {
+		listingIsStreamedAndReleasesTheSession(SftpStreamingListerTests::mina);
+	}
+
+	@Test
+	public void jschListingClosedEarlyReleasesTheSession() throws Exception {
+		listingClosedEarlyReleasesTheSession(SftpStreamingListerTests::jsch);
+	}
+
+	@Test
+	public void minaListingClosedEarlyReleasesTheSession() throws Exception {
+		listingClosedEarlyReleasesTheSession(SftpStreamingListerTests::mina);
+	}
+
+	@Test
+	public void listingRejectedAfterDestroyReleasesTheSession() throws Exception {
+		CachingSessionFactory<LsEntry> pool = pool(jsch());
+		SftpStreamingLister lister = new SftpStreamingLister(pool, properties());
+		lister.destroy();
+		try {
+			lister.listFiles("/many", null, name -> true);
+			fail("expected RejectedExecutionException");
+		}
+		catch (RejectedExecutionException e) {
+			// expected
+		}
+		pool.getSession().close();
+		pool.destroy();
+	}
+
+	private void listingIsStreamedAndReleasesTheSession(Supplier<SessionFactory<LsEntry>> factory) throws Exception {
+		SessionFactory<LsEntry> sessionFactory = factory.get();
+		CachingSessionFactory<LsEntry> pool = pool(sessionFactory);
+		SftpStreamingLister lister = new SftpStreamingLister(pool, properties());
+		try {
+			List<String> listed = new ArrayList<>();
+			try (CloseableIterator<String> iterator = lister.listFiles("/many", null, name -> !name.endsWith("7.txt"))) {
+				iterator.forEachRemaining(listed::add);
+				assertFalse(iterator.hasNext());
+				// the session is released once the listing is exhausted, before the iterator is closed
+				pool.getSession().close();
+			}
+			Collections.sort(listed);
+			List<String> expected = new ArrayList<>(names);
+			expected.removeIf(name -> name.endsWith("7.txt"));
+			assertThat(listed, equalTo(expected));
+		}
+		finally {
+			lister.destroy();
+			pool.destroy();
+			if (sessionFactory instanceof DisposableBean) {
+				((DisposableBean) sessionFactory).destroy();
+			}
+		}
+	}
+
+	private void listingClosedEarlyReleasesTheSession(Supplier<SessionFactory<LsEntry>> factory) throws Exception {
+		SessionFactory<LsEntry> sessionFactory = factory.get();
+		CachingSessionFactory<LsEntry> pool = pool(sessionFactory);
+		SftpStreamingLister lister = new SftpStreamingLister(pool, properties());
+		try {
+			CloseableIterator<String> iterator = lister.listFiles("/many", null, name -> true);
+			for (int i = 0; i < 5; i++) {
+				iterator.next();
+			}
+			iterator.close();
+			assertFalse(iterator.hasNext());
+			pool.getSession().close();
+			// the same session can list again
+			try (CloseableIterator<String> again = lister.listFiles("/many", null, name -> true)) {
+				assertTrue(again.next().startsWith("file"));
+			}
+		}
+		finally {
+			lister.destroy();
+			pool.destroy();
+			if (sessionFactory instanceof DisposableBean) {
+				((DisposableBean) sessionFactory).destroy();
+			}
+		}
+	}
+
+	/*
+	 * A single pooled session: a session that is not released makes the next getSession()
+	 * time out.
+	 */
+	private static CachingSessionFactory<LsEntry> pool(SessionFactory<LsEntry> factory) {
+		CachingSessionFactory<LsEntry> pool = new CachingSessionFactory<>(factory, 1);
+		pool.setSessionWaitTimeout(10_000);
+		return pool;
+	}
+
+	private static SftpSourceProperties properties() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setListingChunkSize(10);
+		return properties;
+	}
+
+	private static SessionFactory<LsEntry> jsch() {
+		DefaultSftpSessionFactory factory = new DefaultSftpSessionFactory(false);
+		factory.setHost("localhost");
+		factory.setPort(server.getPort());
+		factory.setUser("user");
+		factory.setPassword("pass");
+		factory.setAllowUnknownKeys(true);
+		return factory;
+	}
+
+	private static SessionFactory<LsEntry> mina() {
+		return new MinaSftpSessionFactory("localhost", server.getPort(), "user", "pass", null, null, true, null,
+				null);
+	}
+
+}
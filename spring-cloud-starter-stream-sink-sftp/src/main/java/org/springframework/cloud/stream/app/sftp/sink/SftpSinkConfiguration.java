@@ -18,6 +18,8 @@ package org.springframework.cloud.stream.app.sftp.sink;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetricsAdvice;
 import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
@@ -43,7 +45,8 @@ public class SftpSinkConfiguration {
 	Sink sink;
 
 	@Bean
-	public IntegrationFlow ftpInboundFlow(SftpSinkProperties properties, SessionFactory<LsEntry> ftpSessionFactory) {
+	public IntegrationFlow ftpInboundFlow(SftpSinkProperties properties, SessionFactory<LsEntry> ftpSessionFactory,
+			SftpMetrics metrics) {
 		SftpMessageHandlerSpec handlerSpec =
 				Sftp.outboundAdapter(new SftpRemoteFileTemplate(ftpSessionFactory), properties.getMode())
 						.remoteDirectory(properties.getRemoteDir())
@@ -54,7 +57,10 @@ public class SftpSinkConfiguration {
 			handlerSpec.fileNameExpression(properties.getFilenameExpression().getExpressionString());
 		}
 		return IntegrationFlows.from(Sink.INPUT)
-				.handle(handlerSpec)
+				.handle(handlerSpec, e -> e.advice(new SftpMetricsAdvice(metrics, "sftp.sink.upload", null,
+						message -> new String[] { SftpMetrics.SERVER, properties.getFactory().getHost(),
+								SftpMetrics.DIRECTORY, properties.getRemoteDir() }),
+						new SftpSinkLatencyAdvice(metrics)))
 				.get();
 	}
 
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.sink;
+
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpLatency;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.integration.handler.advice.AbstractRequestHandlerAdvice;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * Records the latency stages of the files uploaded by the sink in the
+ * {@code sftp.sink.latency} histograms, from the {@link SftpLatency} headers stamped by
+ * the SFTP source: {@code transit} (from the emission by the source to the start of the
+ * upload), {@code upload} and {@code total} (from the remote modification to the end of
+ * the upload); tagged with the source server and the stage.
+ *
+ * @since 2.1.6
+ */
+public class SftpSinkLatencyAdvice extends AbstractRequestHandlerAdvice {
+
+	static final String LATENCY_TIMER = "sftp.sink.latency";
+
+	private final SftpMetrics metrics;
+
+	public SftpSinkLatencyAdvice(SftpMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	protected Object doInvoke(ExecutionCallback callback, Object target, Message<?> message) throws Exception {
+		MessageHeaders headers = message.getHeaders();
+		if (!this.metrics.isEnabled() || !headers.containsKey(SftpLatency.EMITTED)) {
+			return callback.execute();
+		}
+		long start = System.currentTimeMillis();
+		Object result = callback.execute();
+		long end = System.currentTimeMillis();
+		String server = headers.get(SftpLatency.SERVER, String.class);
+		SftpLatency.record(this.metrics, LATENCY_TIMER, server, "transit",
+				SftpLatency.get(headers, SftpLatency.EMITTED), start);
+		SftpLatency.record(this.metrics, LATENCY_TIMER, server, "upload", start, end);
+		SftpLatency.record(this.metrics, LATENCY_TIMER, server, "total",
+				SftpLatency.get(headers, SftpLatency.REMOTE_MODIFIED), end);
+		return result;
+	}
+
+}
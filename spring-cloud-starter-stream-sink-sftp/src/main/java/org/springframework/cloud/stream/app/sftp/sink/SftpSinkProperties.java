@@ -15,15 +15,20 @@
 
 package org.springframework.cloud.stream.app.sftp.sink;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 
 import org.hibernate.validator.constraints.Range;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
+import org.springframework.cloud.stream.app.sftp.common.session.SftpClientType;
+import org.springframework.cloud.stream.app.sftp.common.session.SshTransport;
 import org.springframework.core.io.Resource;
 import org.springframework.expression.Expression;
 import org.springframework.integration.file.support.FileExistsMode;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
 /**
@@ -76,6 +81,16 @@ public class SftpSinkProperties {
 	 */
 	private String remoteFileSeparator = "/";
 
+	/**
+	 * The bandwidth of the uploads, per second; 0 for no limit, adjustable at runtime.
+	 */
+	private DataSize maxBandwidth;
+
+	/**
+	 * The bandwidth of each upload, per second; 0 for no limit, adjustable at runtime.
+	 */
+	private DataSize maxTransferBandwidth;
+
 	@NotBlank
 	public String getTemporaryRemoteDir() {
 		return this.temporaryRemoteDir;
@@ -145,6 +160,22 @@ public class SftpSinkProperties {
 		this.remoteFileSeparator = remoteFileSeparator;
 	}
 
+	public DataSize getMaxBandwidth() {
+		return this.maxBandwidth;
+	}
+
+	public void setMaxBandwidth(DataSize maxBandwidth) {
+		this.maxBandwidth = maxBandwidth;
+	}
+
+	public DataSize getMaxTransferBandwidth() {
+		return this.maxTransferBandwidth;
+	}
+
+	public void setMaxTransferBandwidth(DataSize maxTransferBandwidth) {
+		this.maxTransferBandwidth = maxTransferBandwidth;
+	}
+
 	public Factory getFactory() {
 		return this.factory;
 	}
@@ -197,6 +228,23 @@ public class SftpSinkProperties {
 		 */
 		private Expression knownHostsExpression = null;
 
+		/**
+		 * The SSH client: JSch, or Apache MINA sshd to multiplex the sessions over one
+		 * connection.
+		 */
+		private SftpClientType clientType = SftpClientType.jsch;
+
+		/**
+		 * The number of SFTP channels kept open over a single SSH connection to the server and
+		 * shared by the uploads; 0 for a connection per session.
+		 */
+		private int maxChannels = 0;
+
+		/**
+		 * The SSH transport settings: algorithms, compression, window and packet sizes.
+		 */
+		@NestedConfigurationProperty
+		private SshTransport transport = new SshTransport();
 
 		@NotBlank
 		public String getHost() {
@@ -273,6 +321,31 @@ public class SftpSinkProperties {
 			this.knownHostsExpression = knownHosts;
 		}
 
+		public SftpClientType getClientType() {
+			return this.clientType;
+		}
+
+		public void setClientType(SftpClientType clientType) {
+			this.clientType = clientType;
+		}
+
+		@Min(0)
+		public int getMaxChannels() {
+			return this.maxChannels;
+		}
+
+		public void setMaxChannels(int maxChannels) {
+			this.maxChannels = maxChannels;
+		}
+
+		public SshTransport getTransport() {
+			return this.transport;
+		}
+
+		public void setTransport(SshTransport transport) {
+			this.transport = transport;
+		}
+
 	}
 
 }
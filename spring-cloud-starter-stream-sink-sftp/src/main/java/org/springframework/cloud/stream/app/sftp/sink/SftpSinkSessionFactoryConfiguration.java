@@ -16,14 +16,25 @@
 
 package org.springframework.cloud.stream.app.sftp.sink;
 
+import java.util.Collections;
+import java.util.Properties;
+
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetricsConfiguration;
+import org.springframework.cloud.stream.app.sftp.common.session.MinaSftpSessionFactory;
+import org.springframework.cloud.stream.app.sftp.common.session.SftpBandwidthEndpointConfiguration;
+import org.springframework.cloud.stream.app.sftp.common.session.SftpBandwidthLimiter;
+import org.springframework.cloud.stream.app.sftp.common.session.SftpClientType;
 import org.springframework.cloud.stream.app.sftp.sink.SftpSinkProperties.Factory;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
 import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.integration.file.remote.session.CachingSessionFactory;
 import org.springframework.integration.file.remote.session.SessionFactory;
 import org.springframework.integration.sftp.session.DefaultSftpSessionFactory;
+import org.springframework.util.unit.DataSize;
 
 import com.jcraft.jsch.ChannelSftp.LsEntry;
 
@@ -33,13 +44,54 @@ import com.jcraft.jsch.ChannelSftp.LsEntry;
  * @author Gary Russell
  *
  */
+@Import({ SftpMetricsConfiguration.class, SftpBandwidthEndpointConfiguration.class })
 public class SftpSinkSessionFactoryConfiguration {
 
 	@Bean
 	@ConditionalOnMissingBean
-	public SessionFactory<LsEntry> sftpSessionFactory(SftpSinkProperties properties, BeanFactory beanFactory) {
-		DefaultSftpSessionFactory sftpSessionFactory = new DefaultSftpSessionFactory();
+	public SessionFactory<LsEntry> sftpSessionFactory(SftpSinkProperties properties, BeanFactory beanFactory,
+			SftpMetrics metrics, SftpBandwidthLimiter bandwidthLimiter) {
 		Factory factory = properties.getFactory();
+		String knownHosts = factory.getKnownHostsExpression() != null
+				? factory.getKnownHostsExpression()
+						.getValue(IntegrationContextUtils.getEvaluationContext(beanFactory), String.class)
+				: null;
+		SessionFactory<LsEntry> sessionFactory = metrics.sessionFactory(
+				factory.getClientType() == SftpClientType.mina
+						? new MinaSftpSessionFactory(factory.getHost(), factory.getPort(), factory.getUsername(),
+								factory.getPassword(), factory.getPrivateKey(), factory.getPassPhrase(),
+								factory.isAllowUnknownKeys(), knownHosts, factory.getTransport())
+										.destroyWith(beanFactory)
+						: jschSessionFactory(factory, knownHosts),
+				factory.getHost());
+		if (bandwidthLimiter.isEnabled()) {
+			sessionFactory = bandwidthLimiter.sessionFactory(sessionFactory, factory.getHost());
+		}
+		if (factory.getMaxChannels() > 0) {
+			return new CachingSessionFactory<>(sessionFactory, factory.getMaxChannels());
+		}
+		else if (factory.getCacheSessions() != null) {
+			CachingSessionFactory<LsEntry> csf = new CachingSessionFactory<>(sessionFactory);
+			return csf;
+		}
+		else {
+			return sessionFactory;
+		}
+	}
+
+	@Bean
+	public SftpBandwidthLimiter sftpBandwidthLimiter(SftpSinkProperties properties, SftpMetrics metrics) {
+		return new SftpBandwidthLimiter(bytes(properties.getMaxBandwidth()), bytes(properties.getMaxTransferBandwidth()),
+				Collections.emptyMap(), metrics);
+	}
+
+	private static Long bytes(DataSize dataSize) {
+		return dataSize != null ? dataSize.toBytes() : null;
+	}
+
+	private static DefaultSftpSessionFactory jschSessionFactory(Factory factory, String knownHosts) {
+		// pooled channels share one connection
+		DefaultSftpSessionFactory sftpSessionFactory = new DefaultSftpSessionFactory(factory.getMaxChannels() > 0);
 		sftpSessionFactory.setHost(factory.getHost());
 		sftpSessionFactory.setPort(factory.getPort());
 		sftpSessionFactory.setUser(factory.getUsername());
@@ -47,17 +99,14 @@ public class SftpSinkSessionFactoryConfiguration {
 		sftpSessionFactory.setPrivateKey(factory.getPrivateKey());
 		sftpSessionFactory.setPrivateKeyPassphrase(factory.getPassPhrase());
 		sftpSessionFactory.setAllowUnknownKeys(factory.isAllowUnknownKeys());
-		if (factory.getKnownHostsExpression() != null) {
-			sftpSessionFactory.setKnownHosts(factory.getKnownHostsExpression()
-					.getValue(IntegrationContextUtils.getEvaluationContext(beanFactory), String.class));
-		}
-		if (factory.getCacheSessions() != null) {
-			CachingSessionFactory<LsEntry> csf = new CachingSessionFactory<>(sftpSessionFactory);
-			return csf;
+		if (knownHosts != null) {
+			sftpSessionFactory.setKnownHosts(knownHosts);
 		}
-		else {
-			return sftpSessionFactory;
+		Properties sessionConfig = factory.getTransport().jschConfig();
+		if (!sessionConfig.isEmpty()) {
+			sftpSessionFactory.setSessionConfig(sessionConfig);
 		}
+		return sftpSessionFactory;
 	}
 
 }
@@ -17,6 +17,7 @@ package org.springframework.cloud.stream.app.sftp.sink;
 
 import static org.hamcrest.CoreMatchers.endsWith;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -25,12 +26,14 @@ import org.junit.Test;
 
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.cloud.stream.app.sftp.common.session.MinaSftpSessionFactory;
 import org.springframework.cloud.stream.config.SpelExpressionConverterConfiguration;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.integration.config.EnableIntegration;
+import org.springframework.integration.file.remote.session.CachingSessionFactory;
 import org.springframework.integration.file.remote.session.SessionFactory;
 import org.springframework.integration.file.support.FileExistsMode;
 import org.springframework.integration.test.util.TestUtils;
@@ -134,6 +137,28 @@ public class SftpSinkPropertiesTests {
 		context.close();
 	}
 
+	@Test
+	public void channelsCanBePooled() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.factory.max-channels = 4");
+		context.register(Factory.class);
+		context.refresh();
+		SessionFactory<?> sessionFactory = context.getBean(SessionFactory.class);
+		assertThat(sessionFactory, instanceOf(CachingSessionFactory.class));
+		assertTrue(TestUtils.getPropertyValue(sessionFactory, "sessionFactory.isSharedSession", Boolean.class));
+		context.close();
+	}
+
+	@Test
+	public void minaClientCanBeSelected() {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		testPropertyValues(context, "sftp.factory.client-type = mina");
+		context.register(Factory.class);
+		context.refresh();
+		assertThat(context.getBean(SessionFactory.class), instanceOf(MinaSftpSessionFactory.class));
+		context.close();
+	}
+
 	@Configuration
 	@EnableConfigurationProperties(SftpSinkProperties.class)
 	static class Conf {
@@ -17,24 +17,46 @@
 package org.springframework.cloud.stream.app.sftp.dataflow.source;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.aopalliance.aop.Advice;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.context.properties.bind.Bindable;
 import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetricsAdvice;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetricsChannelInterceptor;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpExecutors;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpFetchPriority;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpLatencyTracker;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpLaunchThrottle;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpLocalStaging;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpRecursiveDirectoryLister;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpRemoteFileActions;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceFilters;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceLeaderElectionConfiguration;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceMetricsTags;
 import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
 import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceRotator;
 import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceSessionFactoryConfiguration;
 import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceSessionFactoryConfiguration.DelegatingFactoryWrapper;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpStreamingLister;
 import org.springframework.cloud.stream.app.sftp.dataflow.source.metadata.SftpDataflowSourceIdempotentReceiverConfiguration;
 import org.springframework.cloud.stream.app.sftp.dataflow.source.tasklauncher.SftpMultiSourceTaskNameMapper;
 import org.springframework.cloud.stream.app.sftp.dataflow.source.tasklauncher.SftpMultiSourceTaskNameProperties;
+import org.springframework.cloud.stream.app.sftp.dataflow.source.tasklauncher.SftpTaskLaunchBatchProperties;
+import org.springframework.cloud.stream.app.sftp.dataflow.source.tasklauncher.SftpTaskLaunchBatches;
 import org.springframework.cloud.stream.app.sftp.dataflow.source.tasklauncher.SftpTaskLaunchRequestArgumentsMapper;
 import org.springframework.cloud.stream.app.tasklaunchrequest.DataflowTaskLaunchRequestProperties;
 import org.springframework.cloud.stream.app.tasklaunchrequest.TaskLaunchRequestFunction;
@@ -52,6 +74,7 @@ import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.integration.annotation.IdempotentReceiver;
 import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.config.GlobalChannelInterceptor;
 import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.dsl.IntegrationFlowBuilder;
 import org.springframework.integration.dsl.IntegrationFlows;
@@ -64,13 +87,12 @@ import org.springframework.integration.metadata.ConcurrentMetadataStore;
 import org.springframework.integration.scheduling.PollerMetadata;
 import org.springframework.integration.sftp.dsl.Sftp;
 import org.springframework.integration.sftp.dsl.SftpInboundChannelAdapterSpec;
-import org.springframework.integration.sftp.filters.SftpPersistentAcceptOnceFileListFilter;
-import org.springframework.integration.sftp.filters.SftpRegexPatternFileListFilter;
-import org.springframework.integration.sftp.filters.SftpSimplePatternFileListFilter;
 import org.springframework.integration.sftp.session.SftpRemoteFileTemplate;
+import org.springframework.lang.Nullable;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
@@ -88,11 +110,12 @@ import com.jcraft.jsch.ChannelSftp.LsEntry;
 @EnableConfigurationProperties({
 	   SftpSourceProperties.class,
 	   TriggerPropertiesMaxMessagesDefaultUnlimited.class,
-	   SftpMultiSourceTaskNameProperties.class
+	   SftpMultiSourceTaskNameProperties.class,
+	   SftpTaskLaunchBatchProperties.class
 })
 
 @Import({ TriggerConfiguration.class, SftpSourceSessionFactoryConfiguration.class,
-	SftpDataflowSourceIdempotentReceiverConfiguration.class })
+	SftpSourceLeaderElectionConfiguration.class, SftpDataflowSourceIdempotentReceiverConfiguration.class })
 public class SftpDataflowSourceConfiguration {
 
 	@Autowired
@@ -111,6 +134,32 @@ public class SftpDataflowSourceConfiguration {
 	@Autowired(required = false)
 	private DelegatingFactoryWrapper delegatingSessionFactory;
 
+	@Autowired(required = false)
+	private SftpRecursiveDirectoryLister recursiveLister;
+
+	@Autowired(required = false)
+	private SftpStreamingLister streamingLister;
+
+	@Autowired
+	private SftpMetrics sftpMetrics;
+
+	@Autowired(required = false)
+	private SftpLatencyTracker latencyTracker;
+
+	@Autowired(required = false)
+	private SftpRemoteFileActions remoteFileActions;
+
+	@Autowired(required = false)
+	private SftpLocalStaging localStaging;
+
+	@Autowired
+	private SftpTaskLaunchBatchProperties batchProperties;
+
+	@Autowired(required = false)
+	private SftpTaskLaunchBatches taskLaunchBatches;
+
+	@Autowired
+	private SftpLaunchThrottle launchThrottle;
 
 	@Autowired
 	CommandLineArgumentsMessageMapper taskLaunchRequestContextProvider;
@@ -131,10 +180,22 @@ public class SftpDataflowSourceConfiguration {
 		return new DirectChannel();
 	}
 
+	@Bean
+	public MessageChannel sftpListOutputChannel() {
+		return new DirectChannel();
+	}
+
 	@Bean
 	public CommandLineArgumentsMessageMapper taskLaunchRequestContextProvider(
 		SftpSourceProperties sourceProperties) {
-		return new SftpTaskLaunchRequestArgumentsMapper(sourceProperties, sftpSourceRotator);
+		return new SftpTaskLaunchRequestArgumentsMapper(sourceProperties, sftpSourceRotator, this.batchProperties);
+	}
+
+	@Bean
+	public IntegrationFlow sftpListOutputFlow() {
+		return batch(IntegrationFlows.from(sftpListOutputChannel()))
+			.channel(taskLaunchRequestChannel())
+			.get();
 	}
 
 	@Bean
@@ -145,14 +206,9 @@ public class SftpDataflowSourceConfiguration {
 
 	@Bean
 	public IntegrationFlow sftpDataFlowInboundFlow(SessionFactory<LsEntry> sftpSessionFactory) {
-		ChainFileListFilter<LsEntry> filterChain = new ChainFileListFilter<>();
-		if (StringUtils.hasText(this.properties.getFilenamePattern())) {
-			filterChain.addFilter(new SftpSimplePatternFileListFilter(this.properties.getFilenamePattern()));
-		}
-		else if (this.properties.getFilenameRegex() != null) {
-			filterChain.addFilter(new SftpRegexPatternFileListFilter(this.properties.getFilenameRegex()));
-		}
-		filterChain.addFilter(new SftpPersistentAcceptOnceFileListFilter(metadataStore, "sftpSource/"));
+		ChainFileListFilter<LsEntry> filterChain = SftpSourceFilters.filterChain(this.properties,
+			this.metadataStore, this.sftpMetrics, metricsTags(), this.latencyTracker, this.localStaging);
+		SftpFetchPriority fetchPriority = new SftpFetchPriority(this.properties);
 
 		IntegrationFlowBuilder flowBuilder;
 
@@ -161,28 +217,84 @@ public class SftpDataflowSourceConfiguration {
 		}
 
 		else {
+			if (isRemoteFileActions()) {
+				filterChain.addFilter(this.remoteFileActions.synchronizedFiles(this.sftpSourceRotator));
+			}
+			if (isBatched()) {
+				filterChain.addFilter(this.taskLaunchBatches.synchronizedFiles());
+			}
 			//Save remote file to local file system
 			SftpInboundChannelAdapterSpec messageSourceBuilder = Sftp.inboundAdapter(
-				this.properties.isMultiSource() ? this.delegatingSessionFactory.getFactory() : sftpSessionFactory)
+				this.properties.isMultiSource() ? this.delegatingSessionFactory.getFactory() : sftpSessionFactory,
+				fetchPriority.isEnabled() ? fetchPriority.localComparator() : null)
 				.preserveTimestamp(this.properties.isPreserveTimestamp())
 				.remoteDirectory(this.properties.getRemoteDir())
 				.remoteFileSeparator(this.properties.getRemoteFileSeparator())
 				.localDirectory(new File(properties.getLocalDir().getPath()))
 				.autoCreateLocalDirectory(this.properties.isAutoCreateLocalDir())
 				.temporaryFileSuffix(this.properties.getTmpFileSuffix())
-				.deleteRemoteFiles(this.properties.isDeleteRemoteFiles())
+				.deleteRemoteFiles(this.properties.isDeleteRemoteFiles() && this.remoteFileActions == null)
 				.filter(filterChain);
 			if (this.properties.getMaxFetch() != null) {
 				messageSourceBuilder.maxFetchSize(this.properties.getMaxFetch());
 			}
 
-			flowBuilder = IntegrationFlows.from(messageSourceBuilder, consumerSpec(this.sftpSourceRotator));
+			flowBuilder = afterSource(
+				IntegrationFlows.from(messageSourceBuilder, consumerSpec(this.sftpSourceRotator)));
 
 		}
 
-		flowBuilder.channel(taskLaunchRequestChannel());
+		return batch(flowBuilder)
+			.channel(taskLaunchRequestChannel())
+			.get();
+	}
+
+	/**
+	 * Intercept the messages sent by the source: to queue the moves, or asynchronous deletes,
+	 * of the remote files and to acknowledge the local files.
+	 */
+	private IntegrationFlowBuilder afterSource(IntegrationFlowBuilder flowBuilder) {
+		List<ChannelInterceptor> interceptors = new ArrayList<>();
+		if (isRemoteFileActions()) {
+			interceptors.add(this.remoteFileActions.afterSend(this.sftpSourceRotator));
+		}
+		if (this.localStaging != null) {
+			interceptors.add(this.localStaging.afterSend());
+		}
+		if (interceptors.isEmpty()) {
+			return flowBuilder;
+		}
+		return flowBuilder.channel(c -> c.direct()
+			.interceptor(interceptors.toArray(new ChannelInterceptor[0])));
+	}
+
+	/**
+	 * Whether the remote files are moved, or deleted asynchronously, once their messages
+	 * are sent.
+	 */
+	private boolean isRemoteFileActions() {
+		return this.remoteFileActions != null
+			&& (this.properties.isDeleteRemoteFiles() || this.properties.getMoveToDirectory() != null);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "sftp.batch.size")
+	public SftpTaskLaunchBatches sftpTaskLaunchBatches() {
+		return new SftpTaskLaunchBatches(this.batchProperties, this.properties, this.sftpSourceRotator,
+			this.metadataStore);
+	}
 
-		return flowBuilder.get();
+	private boolean isBatched() {
+		return this.taskLaunchBatches != null && this.batchProperties.isEnabled();
+	}
+
+	private IntegrationFlowBuilder batch(IntegrationFlowBuilder flowBuilder) {
+		if (!isBatched()) {
+			return flowBuilder;
+		}
+		return flowBuilder
+			.transform(Message.class, this.taskLaunchBatches::open)
+			.aggregate(this.taskLaunchBatches.aggregator());
 	}
 
 	private IntegrationFlow listingFlow(SessionFactory<LsEntry> sftpSessionFactory) {
@@ -193,37 +305,103 @@ public class SftpDataflowSourceConfiguration {
 	}
 
 	private IntegrationFlowBuilder singleSourceListingFlowBuilder(SessionFactory<LsEntry> sftpSessionFactory) {
-		return IntegrationFlows.from(() -> this.properties.getRemoteDir(), consumerSpec(this
-			.sftpSourceRotator))
-			.handle(Sftp.outboundGateway(sftpSessionFactory, AbstractRemoteFileOutboundGateway.Command.LS.getCommand(),
-				"payload").options(AbstractRemoteFileOutboundGateway.Option.NAME_ONLY.getOption()))
+		return listRemoteDirectory(IntegrationFlows.from(() -> this.properties.getRemoteDir(), consumerSpec(this
+			.sftpSourceRotator)), sftpSessionFactory)
 			.split()
 			.channel(sftpListInputChannel());
 
 	}
 
 	private IntegrationFlowBuilder multiSourceListingFlowBuilder() {
-		IntegrationFlowBuilder flow = IntegrationFlows.from(() -> this.sftpSourceRotator.getCurrentDirectory(),
-			consumerSpec(this.sftpSourceRotator))
-			.handle(Sftp.outboundGateway(this.delegatingSessionFactory.getFactory(),
-				AbstractRemoteFileOutboundGateway.Command.LS.getCommand(), "payload")
-				.options(AbstractRemoteFileOutboundGateway.Option.NAME_ONLY.getOption()));
+		IntegrationFlowBuilder flow = listRemoteDirectory(
+			IntegrationFlows.from(() -> this.sftpSourceRotator.getCurrentDirectory(),
+				consumerSpec(this.sftpSourceRotator)),
+			this.delegatingSessionFactory.getFactory());
 
 		return flow
 			.split()
 			.channel(sftpListInputChannel());
 	}
 
+	private IntegrationFlowBuilder listRemoteDirectory(IntegrationFlowBuilder flow,
+		SessionFactory<LsEntry> sessionFactory) {
+		if (this.recursiveLister != null) {
+			return flow.handle(String.class, (directory, headers) ->
+				MessageBuilder.withPayload(this.recursiveLister.listFiles(directory,
+					this.sftpSourceRotator != null ? this.sftpSourceRotator.getCurrentKey() : null, listingFilter()))
+					.setHeader(FileHeaders.REMOTE_DIRECTORY, this.recursiveLister.directoryPath(directory))
+					.build(),
+				e -> e.advice(listMetricsAdvice()));
+		}
+		if (this.streamingLister != null) {
+			return flow.handle(String.class, (directory, headers) ->
+				MessageBuilder.withPayload(this.streamingLister.listFiles(directory,
+					this.sftpSourceRotator != null ? this.sftpSourceRotator.getCurrentKey() : null, listingFilter()))
+					.setHeader(FileHeaders.REMOTE_DIRECTORY, this.streamingLister.directoryPath(directory))
+					.build(),
+				e -> e.advice(listMetricsAdvice()));
+		}
+		return flow.handle(Sftp.outboundGateway(sessionFactory,
+			AbstractRemoteFileOutboundGateway.Command.LS.getCommand(), "payload")
+			.options(AbstractRemoteFileOutboundGateway.Option.NAME_ONLY.getOption())
+			.filter(SftpSourceFilters.listingFileListFilter(this::listingFilter)),
+			e -> e.advice(listMetricsAdvice()));
+	}
+
+	/**
+	 * The filter of the listed names; the names are the idempotent keys, as in
+	 * {@link SftpDataflowSourceIdempotentReceiverConfiguration}.
+	 */
+	private Predicate<String> listingFilter() {
+		return SftpSourceFilters.listingFilter(this.properties, this.metadataStore, Function.identity());
+	}
+
+	private SftpMetricsAdvice listMetricsAdvice() {
+		return new SftpMetricsAdvice(this.sftpMetrics, "sftp.source.list", "sftp.source.list.size", metricsTags());
+	}
+
+	private SftpSourceMetricsTags metricsTags() {
+		return new SftpSourceMetricsTags(this.properties, this.sftpSourceRotator);
+	}
+
 	private Consumer<SourcePollingChannelAdapterSpec> consumerSpec(Advice advice) {
-		if (advice == null) {
-			return spec -> spec.poller(this.defaultPoller);
+		PollerMetadata poller = poller();
+		if (advice == null && poller.getTaskExecutor() == null) {
+			return spec -> leaderRole(spec.poller(this.defaultPoller));
 		}
 		else {
-			PollerMetadata poller = new PollerMetadata();
-			BeanUtils.copyProperties(this.defaultPoller, poller, "transactionSynchronizationFactory");
-			poller.setAdviceChain(Arrays.asList(advice));
-			return spec -> spec.poller(poller);
+			if (advice != null) {
+				poller.setAdviceChain(Arrays.asList(advice));
+			}
+			return spec -> leaderRole(spec.poller(poller));
+		}
+	}
+
+	/**
+	 * A copy of the default poller; in virtual mode, the polls run on virtual threads.
+	 */
+	private PollerMetadata poller() {
+		PollerMetadata poller = new PollerMetadata();
+		BeanUtils.copyProperties(this.defaultPoller, poller, "transactionSynchronizationFactory");
+		Executor pollExecutor = SftpExecutors.newPollExecutor(this.properties, "sftp-poll-");
+		if (pollExecutor != null) {
+			poller.setTaskExecutor(pollExecutor);
 		}
+		return poller;
+	}
+
+	private void leaderRole(SourcePollingChannelAdapterSpec spec) {
+		if (StringUtils.hasText(this.properties.getLeaderRole())) {
+			// started by the role controller when leadership is granted
+			spec.role(this.properties.getLeaderRole())
+				.autoStartup(false);
+		}
+	}
+
+	@Bean
+	@GlobalChannelInterceptor(patterns = Source.OUTPUT)
+	public ChannelInterceptor sftpEmitMetricsInterceptor() {
+		return new SftpMetricsChannelInterceptor(this.sftpMetrics, "sftp.source.emit", metricsTags());
 	}
 
 	@Bean
@@ -233,7 +411,7 @@ public class SftpDataflowSourceConfiguration {
 	}
 
 	@IdempotentReceiver("idempotentReceiverInterceptor")
-	@ServiceActivator(inputChannel = "sftpListInputChannel", outputChannel = "taskLaunchRequestChannel")
+	@ServiceActivator(inputChannel = "sftpListInputChannel", outputChannel = "sftpListOutputChannel")
 	public Message<?> transformSftpMessage(Message<?> message) {
 
 		MessageHeaders messageHeaders = message.getHeaders();
@@ -249,9 +427,51 @@ public class SftpDataflowSourceConfiguration {
 
 	@ServiceActivator(inputChannel = "taskLaunchRequestChannel", outputChannel = Source.OUTPUT)
 	public Message<?> transformToTaskLaunchRequestIfNecessary(Message<?> message) {
+		this.launchThrottle.acquire(() -> unmark(message));
 		return taskLaunchRequest.apply(message);
 	}
 
+	/**
+	 * Remove the keys of the files of a launch held back, so that they are listed and
+	 * launched again: the names listed, relative to the remote directory when recursive,
+	 * as in {@link #listingFilter()}, or else those of the accept once filter.
+	 */
+	private void unmark(Message<?> message) {
+		String directory = message.getHeaders().get(FileHeaders.REMOTE_DIRECTORY, String.class);
+		if (message.getPayload() instanceof String) {
+			String name = (String) message.getPayload();
+			this.metadataStore.remove(name);
+			relist(directory, name);
+		}
+		else if (message.getPayload() instanceof List) {
+			for (Object remotePath : (List<?>) message.getPayload()) {
+				String name = relativePath((String) remotePath, directory);
+				this.metadataStore.remove(this.properties.isListOnly() ? name
+					: SftpSourceFilters.ACCEPT_ONCE_PREFIX + StringUtils.getFilename(name));
+				relist(directory, name);
+			}
+		}
+	}
+
+	private String relativePath(String remotePath, @Nullable String directory) {
+		if (directory != null && remotePath.startsWith(directory)) {
+			String name = remotePath.substring(directory.length());
+			String separator = this.properties.getRemoteFileSeparator();
+			return name.startsWith(separator) ? name.substring(separator.length()) : name;
+		}
+		return StringUtils.getFilename(remotePath);
+	}
+
+	/**
+	 * List the directory of an unmarked file again, even if the recursive lister skips it as
+	 * unchanged.
+	 */
+	private void relist(@Nullable String directory, String name) {
+		if (this.recursiveLister != null && directory != null) {
+			this.recursiveLister.relist(this.recursiveLister.directoryPath(directory) + name);
+		}
+	}
+
 	/**
 	 * Condition required to configure the SftpMultiSourceTaskNameMapper.
 	 */
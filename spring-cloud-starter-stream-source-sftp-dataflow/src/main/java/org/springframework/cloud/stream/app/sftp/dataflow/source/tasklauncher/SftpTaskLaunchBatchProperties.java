@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.dataflow.source.tasklauncher;
+
+import java.time.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Configures the batching of the files into task launch requests.
+ *
+ * @since 2.1.6
+ */
+@Validated
+@ConfigurationProperties(prefix = SftpTaskLaunchBatchProperties.PREFIX)
+public class SftpTaskLaunchBatchProperties {
+
+	public static final String PREFIX = "sftp.batch";
+
+	/**
+	 * The maximum number of files of a server directory launched by one task; 0 to launch a
+	 * task per file.
+	 */
+	private int size = 0;
+
+	/**
+	 * The maximum total size of the downloaded files launched by one task; no limit if not set.
+	 */
+	private DataSize maxBytes;
+
+	/**
+	 * How long a batch stays open for more files after its first file.
+	 */
+	private Duration timeout = Duration.ofSeconds(10);
+
+	/**
+	 * The number of files above which a batch is passed to the task as a manifest file
+	 * rather than as command line arguments.
+	 */
+	private int manifestThreshold = 100;
+
+	public boolean isEnabled() {
+		return this.size > 0;
+	}
+
+	@Min(0)
+	public int getSize() {
+		return this.size;
+	}
+
+	public void setSize(int size) {
+		this.size = size;
+	}
+
+	public DataSize getMaxBytes() {
+		return this.maxBytes;
+	}
+
+	public void setMaxBytes(DataSize maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	@NotNull
+	public Duration getTimeout() {
+		return this.timeout;
+	}
+
+	public void setTimeout(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	@Min(1)
+	public int getManifestThreshold() {
+		return this.manifestThreshold;
+	}
+
+	public void setManifestThreshold(int manifestThreshold) {
+		this.manifestThreshold = manifestThreshold;
+	}
+
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.dataflow.source.tasklauncher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.cloud.stream.app.file.remote.FilePathUtils;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpHeaders;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceFilters;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceRotator;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.dsl.AggregatorSpec;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.file.filters.FileListFilter;
+import org.springframework.integration.metadata.ConcurrentMetadataStore;
+import org.springframework.integration.store.MessageGroup;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.StringUtils;
+
+/**
+ * Groups the files to launch by server key and remote directory, so that one task is
+ * launched per batch of files rather than per file.
+ * <p>
+ * A batch is released when it reaches {@link SftpTaskLaunchBatchProperties#getSize()}
+ * files or {@link SftpTaskLaunchBatchProperties#getMaxBytes()} downloaded bytes, or
+ * {@link SftpTaskLaunchBatchProperties#getTimeout()} after its first file. Its payload is
+ * the list of the remote file paths, and the local file paths of the downloaded files are
+ * in the {@link #LOCAL_FILE_PATHS} header.
+ * <p>
+ * The files fetched by the synchronizer only carry the local file, and are emitted after
+ * the rotation may have moved on, so the server key, remote directory and remote file name
+ * are stamped on each message, by {@link #open(Message)}, before the aggregator: the server
+ * and directory each file was synchronized from, as recorded by
+ * {@link #synchronizedFiles()}, and the local file name.
+ * <p>
+ * The files of the open batches are already marked as fetched or emitted, so their keys
+ * in the metadata store are journaled, under a single entry, until their batch is
+ * released; the keys still journaled when the application starts, those of the batches
+ * open when it stopped or crashed, are removed, so that their files are listed again.
+ *
+ * @since 2.1.6
+ */
+public class SftpTaskLaunchBatches implements InitializingBean {
+
+	public static final String LOCAL_FILE_PATHS = "sftp_localFilePaths";
+
+	private static final Log logger = LogFactory.getLog(SftpTaskLaunchBatches.class);
+
+	private static final String OPEN = "sftpBatches/open";
+
+	private final SftpTaskLaunchBatchProperties properties;
+
+	private final SftpSourceProperties sourceProperties;
+
+	private final SftpSourceRotator rotator;
+
+	private final ConcurrentMetadataStore metadataStore;
+
+	private final Map<String, Origin> localFiles = new ConcurrentHashMap<>();
+
+	private final Set<String> open = new LinkedHashSet<>();
+
+	public SftpTaskLaunchBatches(SftpTaskLaunchBatchProperties properties, SftpSourceProperties sourceProperties,
+			@Nullable SftpSourceRotator rotator, ConcurrentMetadataStore metadataStore) {
+		this.properties = properties;
+		this.sourceProperties = sourceProperties;
+		this.rotator = rotator;
+		this.metadataStore = metadataStore;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		String journaled = this.metadataStore.get(OPEN);
+		if (StringUtils.hasLength(journaled)) {
+			String[] keys = StringUtils.delimitedListToStringArray(journaled, "\n");
+			for (String key : keys) {
+				this.metadataStore.remove(key);
+				if (key.startsWith(SftpSourceFilters.ACCEPT_ONCE_PREFIX)) {
+					// fetched again, from its own server
+					new File(this.sourceProperties.getLocalDir(),
+							key.substring(SftpSourceFilters.ACCEPT_ONCE_PREFIX.length())).delete();
+				}
+			}
+			this.metadataStore.remove(OPEN);
+			logger.info("Listing again the " + keys.length + " files of the batches open at the last stop");
+		}
+	}
+
+	/**
+	 * A filter, for the end of the synchronizing adapter's filter chain, that records the
+	 * server and directory of the files it accepts, since the synchronizer runs on the
+	 * polling thread before the rotator moves on.
+	 * @return the filter.
+	 */
+	public FileListFilter<LsEntry> synchronizedFiles() {
+		return files -> {
+			Origin origin = new Origin(server(),
+					this.rotator != null ? this.rotator.getCurrentDirectory() : this.sourceProperties.getRemoteDir());
+			List<LsEntry> accepted = new ArrayList<>(files.length);
+			for (LsEntry file : files) {
+				if (!file.getAttrs().isDir()) {
+					File localFile = new File(this.sourceProperties.getLocalDir(), file.getFilename());
+					this.localFiles.put(localFile.getAbsolutePath(), origin);
+				}
+				accepted.add(file);
+			}
+			return accepted;
+		};
+	}
+
+	/**
+	 * Stamp a message with the headers the aggregator groups on, and journal the key of its
+	 * file until its batch is released.
+	 * @param message the message of a file.
+	 * @return the message with the headers.
+	 */
+	public Message<?> open(Message<?> message) {
+		MessageBuilder<?> builder = MessageBuilder.fromMessage(message);
+		Object payload = message.getPayload();
+		if (payload instanceof File) {
+			File file = (File) payload;
+			Origin origin = this.localFiles.get(file.getAbsolutePath());
+			if (origin != null) {
+				builder.setHeader(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY, origin.key)
+						.setHeader(FileHeaders.REMOTE_DIRECTORY, origin.directory);
+			}
+			else {
+				// synchronized before a restart
+				builder.setHeaderIfAbsent(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY, server())
+						.setHeaderIfAbsent(FileHeaders.REMOTE_DIRECTORY, directory(message));
+			}
+			builder.setHeaderIfAbsent(FileHeaders.REMOTE_FILE, file.getName());
+		}
+		else {
+			builder.setHeaderIfAbsent(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY, server())
+					.setHeaderIfAbsent(FileHeaders.REMOTE_DIRECTORY, directory(message));
+			if (payload instanceof String) {
+				builder.setHeaderIfAbsent(FileHeaders.REMOTE_FILE, payload);
+			}
+		}
+		String key = key(message);
+		if (key != null) {
+			synchronized (this.open) {
+				if (this.open.add(key)) {
+					journal();
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	@Nullable
+	private String server() {
+		return this.rotator != null ? this.rotator.getCurrentKey() : null;
+	}
+
+	private String directory(Message<?> message) {
+		String directory = message.getHeaders().get(SftpHeaders.SFTP_SELECTED_DIRECTORY, String.class);
+		return directory != null ? directory : this.sourceProperties.getRemoteDir();
+	}
+
+	/**
+	 * The key marking the file of a message in the metadata store: that of the accept once
+	 * filter for a downloaded file, else that of the idempotent receiver, the name listed.
+	 */
+	@Nullable
+	private static String key(Message<?> message) {
+		Object payload = message.getPayload();
+		if (payload instanceof File) {
+			return SftpSourceFilters.ACCEPT_ONCE_PREFIX + ((File) payload).getName();
+		}
+		return payload instanceof String ? (String) payload : null;
+	}
+
+	private void journal() {
+		if (this.open.isEmpty()) {
+			this.metadataStore.remove(OPEN);
+		}
+		else {
+			this.metadataStore.put(OPEN, StringUtils.collectionToDelimitedString(this.open, "\n"));
+		}
+	}
+
+	public Consumer<AggregatorSpec> aggregator() {
+		long maxBytes = this.properties.getMaxBytes() != null
+				? this.properties.getMaxBytes().toBytes()
+				: Long.MAX_VALUE;
+		return aggregator -> aggregator
+				.correlationStrategy(message -> message.getHeaders().get(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY)
+						+ ":" + message.getHeaders().get(FileHeaders.REMOTE_DIRECTORY))
+				.releaseStrategy(group -> group.size() >= this.properties.getSize() || bytes(group) >= maxBytes)
+				.groupTimeoutExpression("timestamp + " + this.properties.getTimeout().toMillis()
+						+ " - T(System).currentTimeMillis()")
+				.sendPartialResultOnExpiry(true)
+				.expireGroupsUponCompletion(true)
+				.expireGroupsUponTimeout(true)
+				.outputProcessor(this::batch);
+	}
+
+	private Message<?> batch(MessageGroup group) {
+		List<String> remoteFilePaths = new ArrayList<>(group.size());
+		List<String> localFilePaths = new ArrayList<>(group.size());
+		List<String> keys = new ArrayList<>(group.size());
+		for (Message<?> message : group.getMessages()) {
+			remoteFilePaths.add(FilePathUtils.getRemoteFilePath(message));
+			if (message.getPayload() instanceof File) {
+				String localFilePath = ((File) message.getPayload()).getAbsolutePath();
+				localFilePaths.add(localFilePath);
+				this.localFiles.remove(localFilePath);
+			}
+			String key = key(message);
+			if (key != null) {
+				keys.add(key);
+			}
+		}
+		synchronized (this.open) {
+			if (this.open.removeAll(keys)) {
+				journal();
+			}
+		}
+		return MessageBuilder.withPayload(remoteFilePaths)
+				.copyHeaders(group.getOne().getHeaders())
+				.removeHeaders(FileHeaders.REMOTE_FILE, FileHeaders.FILENAME, FileHeaders.ORIGINAL_FILE,
+						IntegrationMessageHeaderAccessor.CORRELATION_ID,
+						IntegrationMessageHeaderAccessor.SEQUENCE_NUMBER,
+						IntegrationMessageHeaderAccessor.SEQUENCE_SIZE)
+				.setHeader(LOCAL_FILE_PATHS, localFilePaths)
+				.build();
+	}
+
+	private static long bytes(MessageGroup group) {
+		long bytes = 0;
+		for (Message<?> message : group.getMessages()) {
+			if (message.getPayload() instanceof File) {
+				bytes += ((File) message.getPayload()).length();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * The server and directory a file was synchronized from.
+	 */
+	private static final class Origin {
+
+		private final String key;
+
+		private final String directory;
+
+		Origin(@Nullable String key, String directory) {
+			this.key = key;
+			this.directory = directory;
+		}
+
+	}
+
+	/**
+	 * Write the manifest of a batch, one file per line: the remote file path, followed by a
+	 * tab and the local file path if the file was downloaded.
+	 * @param directory the directory of the manifest.
+	 * @param remoteFilePaths the remote file paths.
+	 * @param localFilePaths the local file paths; empty if the files were not downloaded.
+	 * @return the manifest.
+	 */
+	public static File writeManifest(File directory, List<String> remoteFilePaths, List<String> localFilePaths) {
+		List<String> lines = new ArrayList<>(remoteFilePaths.size());
+		for (int i = 0; i < remoteFilePaths.size(); i++) {
+			lines.add(i < localFilePaths.size()
+					? remoteFilePaths.get(i) + "\t" + localFilePaths.get(i)
+					: remoteFilePaths.get(i));
+		}
+		try {
+			Files.createDirectories(directory.toPath());
+			File manifest = new File(directory, "sftp-batch-" + UUID.randomUUID() + ".manifest");
+			Files.write(manifest.toPath(), lines, StandardCharsets.UTF_8);
+			return manifest;
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Failed to write a batch manifest to " + directory, e);
+		}
+	}
+
+}
@@ -19,7 +19,10 @@ package org.springframework.cloud.stream.app.sftp.dataflow.source.tasklauncher;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -47,17 +50,35 @@ public class SftpTaskLaunchRequestArgumentsMapper implements CommandLineArgument
 
 	public static final String REMOTE_FILE_PATH_PARAM_NAME = "remoteFilePath";
 
+	public static final String LOCAL_FILE_PATHS_PARAM_NAME = "localFilePaths";
+
+	public static final String REMOTE_FILE_PATHS_PARAM_NAME = "remoteFilePaths";
+
+	public static final String MANIFEST_FILE_PATH_PARAM_NAME = "manifestFilePath";
+
 	private final SftpSourceProperties sourceProperties;
 
 	private final SftpSourceRotator sftpSourceRotator;
 
+	private final SftpTaskLaunchBatchProperties batchProperties;
+
+	private final Map<String, ServerCommandLineArgs> serverCommandLineArgs = new ConcurrentHashMap<>();
+
 	public SftpTaskLaunchRequestArgumentsMapper(
 			SftpSourceProperties sourceProperties,
 			SftpSourceRotator sftpSourceRotator) {
+		this(sourceProperties, sftpSourceRotator, new SftpTaskLaunchBatchProperties());
+	}
+
+	public SftpTaskLaunchRequestArgumentsMapper(
+			SftpSourceProperties sourceProperties,
+			SftpSourceRotator sftpSourceRotator,
+			SftpTaskLaunchBatchProperties batchProperties) {
 		Assert.notNull(sourceProperties, "'sourceProperties' is required");
 
 		this.sourceProperties = sourceProperties;
 		this.sftpSourceRotator = sftpSourceRotator;
+		this.batchProperties = batchProperties;
 	}
 
 	@Override
@@ -67,17 +88,89 @@ public class SftpTaskLaunchRequestArgumentsMapper implements CommandLineArgument
 
 		Collection<String> commandLineArgs = new ArrayList<>();
 
-		addRemoteFileCommandLineArgs(commandLineArgs, message);
-		if (sourceProperties.isListOnly()) {
-			addSftpConnectionInfoToTaskCommandLineArgs(commandLineArgs);
+		ServerCommandLineArgs serverArgs = serverCommandLineArgs(message);
+		if (message.getPayload() instanceof List) {
+			addBatchCommandLineArgs(commandLineArgs, message);
 		}
 		else {
+			addRemoteFileCommandLineArgs(commandLineArgs, message);
+		}
+		commandLineArgs.addAll(serverArgs.selectedServer);
+		if (this.sourceProperties.isListOnly()) {
+			commandLineArgs.addAll(serverArgs.connection);
+		}
+		else if (!(message.getPayload() instanceof List)) {
 			addLocalFileCommandLineArgs(commandLineArgs, message);
 		}
 
 		return commandLineArgs;
 	}
 
+	@SuppressWarnings("unchecked")
+	private void addBatchCommandLineArgs(Collection<String> commandLineArgs, Message<?> message) {
+		List<String> remoteFilePaths = (List<String>) message.getPayload();
+		List<String> localFilePaths = message.getHeaders().get(SftpTaskLaunchBatches.LOCAL_FILE_PATHS, List.class);
+		if (localFilePaths == null) {
+			localFilePaths = Collections.emptyList();
+		}
+		if (remoteFilePaths.size() > this.batchProperties.getManifestThreshold()) {
+			File manifest = SftpTaskLaunchBatches.writeManifest(this.sourceProperties.getLocalDir(), remoteFilePaths,
+					localFilePaths);
+			commandLineArgs.add(MANIFEST_FILE_PATH_PARAM_NAME + "=" + manifest.getAbsolutePath());
+		}
+		else {
+			commandLineArgs.add(REMOTE_FILE_PATHS_PARAM_NAME + "="
+					+ StringUtils.collectionToCommaDelimitedString(remoteFilePaths));
+			if (!localFilePaths.isEmpty()) {
+				commandLineArgs.add(LOCAL_FILE_PATHS_PARAM_NAME + "="
+						+ StringUtils.collectionToCommaDelimitedString(localFilePaths));
+			}
+		}
+	}
+
+	/**
+	 * The arguments of the selected server and, when listing only, its connection info;
+	 * they only depend on the server, so they are built once per server key.
+	 */
+	private ServerCommandLineArgs serverCommandLineArgs(Message<?> message) {
+		if (!this.sourceProperties.isMultiSource()) {
+			return this.serverCommandLineArgs.computeIfAbsent("", this::buildServerCommandLineArgs);
+		}
+		// a batch may be released after the rotation has moved on, so the header wins
+		String key = message.getHeaders().get(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY, String.class);
+		return this.serverCommandLineArgs.computeIfAbsent(key != null ? key : this.sftpSourceRotator.getCurrentKey(),
+				this::buildServerCommandLineArgs);
+	}
+
+	private ServerCommandLineArgs buildServerCommandLineArgs(String key) {
+		List<String> selectedServer = new ArrayList<>();
+		List<String> connection = new ArrayList<>();
+		if (this.sourceProperties.isMultiSource()) {
+			String selected = String.format("%s=%s", SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY, key);
+			selectedServer.add(selected);
+			SftpSourceProperties.Factory factory = this.sourceProperties.getFactories().get(key);
+			if (factory == null) {
+				// missing key used default factory
+				factory = this.sourceProperties.getFactory();
+			}
+			connection.add(selected);
+			connection.add(String.format("%s=%s", SftpHeaders.SFTP_HOST_PROPERTY_KEY, factory.getHost()));
+			connection.add(String.format("%s=%s", SftpHeaders.SFTP_PORT_PROPERTY_KEY,
+					String.valueOf(factory.getPort())));
+			connection.add(String.format("%s=%s", SftpHeaders.SFTP_USERNAME_PROPERTY_KEY, factory.getUsername()));
+			connection.add(String.format("%s=%s", SftpHeaders.SFTP_PASSWORD_PROPERTY_KEY, factory.getPassword()));
+		}
+		else {
+			SftpSourceProperties.Factory factory = this.sourceProperties.getFactory();
+			connection.add(String.format("%s=%s", SftpHeaders.SFTP_HOST_PROPERTY_KEY, factory.getHost()));
+			connection.add(String.format("%s=%s", SftpHeaders.SFTP_USERNAME_PROPERTY_KEY, factory.getUsername()));
+			connection.add(String.format("%s=%s", SftpHeaders.SFTP_PASSWORD_PROPERTY_KEY, factory.getPassword()));
+			connection.add(String.format("%s=%s", SftpHeaders.SFTP_PORT_PROPERTY_KEY,
+					String.valueOf(factory.getPort())));
+		}
+		return new ServerCommandLineArgs(selectedServer, connection);
+	}
+
 	private void addLocalFileCommandLineArgs(Collection<String> commandLineArgs , Message<?>
 		message) {
 
@@ -104,46 +197,23 @@ public class SftpTaskLaunchRequestArgumentsMapper implements CommandLineArgument
 		if (StringUtils.hasText(remoteFilePath)) {
 			commandLineArgs.add(REMOTE_FILE_PATH_PARAM_NAME + "=" + remoteFilePath);
 		}
-		if (this.sourceProperties.isMultiSource()) {
-			Map<String, Object> headers = sftpSourceRotator.evaluateHeaders();
-			commandLineArgs.add(
-					String.format("%s=%s", SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY,
-							headers.get(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY)));
-		}
 	}
 
-	private void addSftpConnectionInfoToTaskCommandLineArgs(Collection<String> commandLineArgs) {
-		if (!this.sourceProperties.isMultiSource()) {
-			commandLineArgs.add(
-				String.format("%s=%s", SftpHeaders.SFTP_HOST_PROPERTY_KEY, sourceProperties.getFactory().getHost()));
-			commandLineArgs.add(String.format("%s=%s", SftpHeaders.SFTP_USERNAME_PROPERTY_KEY,
-				sourceProperties.getFactory().getUsername()));
-			commandLineArgs.add(String.format("%s=%s", SftpHeaders.SFTP_PASSWORD_PROPERTY_KEY,
-				sourceProperties.getFactory().getPassword()));
-			commandLineArgs.add(String.format("%s=%s", SftpHeaders.SFTP_PORT_PROPERTY_KEY,
-				String.valueOf(sourceProperties.getFactory().getPort())));
-		}
-		else {
-			Map<String, Object> headers = sftpSourceRotator.evaluateHeaders();
-			commandLineArgs.add(
-					String.format("%s=%s", SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY,
-							headers.get(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY)));
-
-			commandLineArgs.add(
-					String.format("%s=%s", SftpHeaders.SFTP_HOST_PROPERTY_KEY,
-							String.valueOf(headers.get(SftpHeaders.SFTP_HOST_PROPERTY_KEY))));
+	/**
+	 * The arguments of a server, in the order they have always been emitted: the selected
+	 * server follows the remote file path, and is repeated ahead of the connection info.
+	 */
+	private static final class ServerCommandLineArgs {
 
-			commandLineArgs.add(
-				String.format("%s=%s", SftpHeaders.SFTP_PORT_PROPERTY_KEY,
-					String.valueOf(headers.get(SftpHeaders.SFTP_PORT_PROPERTY_KEY))));
+		private final List<String> selectedServer;
 
-			commandLineArgs.add(String.format("%s=%s", SftpHeaders.SFTP_USERNAME_PROPERTY_KEY,
-				headers.get(SftpHeaders.SFTP_USERNAME_PROPERTY_KEY)));
+		private final List<String> connection;
 
-			commandLineArgs.add(String.format("%s=%s", SftpHeaders.SFTP_PASSWORD_PROPERTY_KEY,
-				headers.get(SftpHeaders.SFTP_PASSWORD_PROPERTY_KEY)));
+		ServerCommandLineArgs(List<String> selectedServer, List<String> connection) {
+			this.selectedServer = Collections.unmodifiableList(selectedServer);
+			this.connection = Collections.unmodifiableList(connection);
 		}
-	}
 
+	}
 
 }
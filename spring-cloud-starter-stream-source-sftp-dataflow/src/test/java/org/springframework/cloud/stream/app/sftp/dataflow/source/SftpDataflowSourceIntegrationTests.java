@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
@@ -59,9 +60,11 @@ import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.Matchers.isOneOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.springframework.cloud.stream.app.sftp.common.source.SftpSourceSessionFactoryConfiguration.DelegatingFactoryWrapper;
 
 
@@ -172,6 +175,48 @@ public abstract class SftpDataflowSourceIntegrationTests extends SftpTestSupport
 		}
 	}
 
+	@TestPropertySource(properties = { "task.launch.request.task-name=foo", "sftp.delete-remote-files = true",
+		"sftp.async-remote-actions = true" })
+	public static class AsyncDeleteTests extends SftpDataflowSourceIntegrationTests {
+
+		@Test
+		public void synchronizedFilesAreDeletedInTheBackground() throws Exception {
+			BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.sftpSource.output());
+			for (int i = 1; i <= 2; i++) {
+				assertNotNull(messages.poll(10, TimeUnit.SECONDS));
+			}
+			int n = 0;
+			while (n++ < 100 && getSourceRemoteDirectory().list().length > 0) {
+				Thread.sleep(100);
+			}
+			assertThat(getSourceRemoteDirectory().list().length, equalTo(0)); // deleted
+			assertNull(messages.poll(10, TimeUnit.MICROSECONDS));
+		}
+
+	}
+
+	@TestPropertySource(properties = { "task.launch.request.task-name=foo", "sftp.move-to-directory = processed" })
+	public static class MoveToDirectoryTests extends SftpDataflowSourceIntegrationTests {
+
+		@Test
+		public void synchronizedFilesAreMoved() throws Exception {
+			BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.sftpSource.output());
+			for (int i = 1; i <= 2; i++) {
+				assertNotNull(messages.poll(10, TimeUnit.SECONDS));
+			}
+			File processed = new File(getSourceRemoteDirectory(), "processed");
+			int n = 0;
+			while (n++ < 100 && (!processed.exists() || processed.list().length < 2)) {
+				Thread.sleep(100);
+			}
+			assertTrue(new File(processed, "sftpSource1.txt").exists());
+			assertTrue(new File(processed, "sftpSource2.txt").exists());
+			assertFalse(new File(getSourceRemoteDirectory(), "sftpSource1.txt").exists());
+			assertNull(messages.poll(10, TimeUnit.MICROSECONDS));
+		}
+
+	}
+
 	@TestPropertySource(properties = { "sftp.listOnly = true", "sftp.factory.host = 127.0.0.1",
 		"sftp.factory.username = user", "sftp.factory.password = pass", "logging.level.org.springframework"
 		+ ".integration=DEBUG", "task.launch.request.task-name=foo"})
@@ -331,6 +376,62 @@ public abstract class SftpDataflowSourceIntegrationTests extends SftpTestSupport
 		}
 	}
 
+	@TestPropertySource(properties = { "sftp.factories.one.host=localhost",
+									   "sftp.factories.one.port=${sftp.factory.port}",
+									   "sftp.factories.one.username = user",
+									   "sftp.factories.one.password = pass",
+									   "sftp.factories.one.allowUnknownKeys = true",
+									   "sftp.factories.two.host=localhost",
+									   "sftp.factories.two.port=${sftp.factory.port}",
+									   "sftp.factories.two.username = user",
+									   "sftp.factories.two.password = pass",
+									   "sftp.factories.two.allowUnknownKeys = true",
+									   "sftp.directories=one.sftpSource,two.sftpSecondSource",
+									   "sftp.fair=true",
+									   "sftp.batch.size=2",
+									   "sftp.batch.timeout=1s",
+									   "task.launch.request.task-name=foo"})
+	public static class MultiSourceBatchTests extends SftpDataflowSourceIntegrationTests {
+
+		@BeforeClass
+		public static void setup() throws Exception {
+			File secondFolder = remoteTemporaryFolder.newFolder("sftpSecondSource");
+			File file = new File(secondFolder, "sftpSource3.txt");
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write("source3".getBytes());
+			fos.close();
+		}
+
+		@Test
+		public void batchesAreLaunchedAgainstTheirOwnServer() throws Exception {
+			BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.sftpSource.output());
+			Map<String, String> remoteFilePaths = new HashMap<>();
+			for (int i = 0; i < 2; i++) {
+				Message<?> received = messages.poll(10, TimeUnit.SECONDS);
+				assertNotNull(received);
+				DataFlowTaskLaunchRequest payload = objectMapper.readValue((String) received.getPayload(),
+						DataFlowTaskLaunchRequest.class);
+				remoteFilePaths.put(argument(payload, SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY),
+						argument(payload, SftpTaskLaunchRequestArgumentsMapper.REMOTE_FILE_PATHS_PARAM_NAME));
+			}
+			assertThat(remoteFilePaths.get("one").split(",")).containsExactlyInAnyOrder(
+					Paths.get("sftpSource", "sftpSource1.txt").toString(),
+					Paths.get("sftpSource", "sftpSource2.txt").toString());
+			// released by the timeout, after the rotation has moved back to 'one'
+			assertThat(remoteFilePaths.get("two")).isEqualTo(Paths.get("sftpSecondSource", "sftpSource3.txt").toString());
+			assertNull(messages.poll(2, TimeUnit.SECONDS));
+		}
+
+		private static String argument(DataFlowTaskLaunchRequest payload, String name) {
+			return payload.getCommandlineArguments().stream()
+					.filter(arg -> arg.startsWith(name + "="))
+					.findFirst()
+					.map(arg -> arg.substring(name.length() + 1))
+					.orElse(null);
+		}
+
+	}
+
 	@SpringBootApplication
 	static class SftpDataflowSourceApplication {
 	}
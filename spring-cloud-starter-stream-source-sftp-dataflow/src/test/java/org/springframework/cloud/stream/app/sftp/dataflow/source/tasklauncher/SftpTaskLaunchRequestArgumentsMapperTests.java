@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.dataflow.source.tasklauncher;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import org.springframework.cloud.stream.app.file.remote.FilePathUtils;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpHeaders;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceRotator;
+import org.springframework.integration.expression.ExpressionEvalMap;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.file.remote.aop.RotatingServerAdvice;
+import org.springframework.integration.file.remote.session.DelegatingSessionFactory;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpTaskLaunchRequestArgumentsMapperTests {
+
+	private static final Log logger = LogFactory.getLog(SftpTaskLaunchRequestArgumentsMapperTests.class);
+
+	private static final int MESSAGES = 100_000;
+
+	@Test
+	public void multiSourceListOnlyArgumentsAreUnchanged() {
+		SftpSourceProperties properties = multiSourceProperties();
+		SftpSourceRotator rotator = rotator(properties);
+		SftpTaskLaunchRequestArgumentsMapper mapper = new SftpTaskLaunchRequestArgumentsMapper(properties, rotator);
+		Message<?> message = listed("a.csv");
+		List<String> expected = Arrays.asList(
+				"remoteFilePath=" + FilePathUtils.getRemoteFilePath(message),
+				"sftp_selectedServer=one",
+				"sftp_selectedServer=one",
+				"sftp_host=host1",
+				"sftp_port=2222",
+				"sftp_username=user1",
+				"sftp_password=pass1");
+		assertThat(new ArrayList<>(mapper.processMessage(message)), equalTo(expected));
+		assertThat(new ArrayList<>(legacyArguments(properties, rotator, message)), equalTo(expected));
+	}
+
+	@Test
+	public void singleSourceListOnlyArgumentsAreUnchanged() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setListOnly(true);
+		properties.getFactory().setHost("host0");
+		properties.getFactory().setPort(22);
+		properties.getFactory().setUsername("user0");
+		properties.getFactory().setPassword("pass0");
+		SftpTaskLaunchRequestArgumentsMapper mapper = new SftpTaskLaunchRequestArgumentsMapper(properties, null);
+		Message<?> message = listed("a.csv");
+		assertThat(new ArrayList<>(mapper.processMessage(message)), equalTo(Arrays.asList(
+				"remoteFilePath=" + FilePathUtils.getRemoteFilePath(message),
+				"sftp_host=host0",
+				"sftp_username=user0",
+				"sftp_password=pass0",
+				"sftp_port=22")));
+	}
+
+	/**
+	 * Compares the arguments cached per server with the per-message evaluation of the
+	 * rotator's header expressions that they replace.
+	 */
+	@Test
+	public void cachedServerArgumentsAllocateLessThanPerMessageEvaluation() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue(threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported());
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		SftpSourceProperties properties = multiSourceProperties();
+		SftpSourceRotator rotator = rotator(properties);
+		SftpTaskLaunchRequestArgumentsMapper mapper = new SftpTaskLaunchRequestArgumentsMapper(properties, rotator);
+		Message<?> message = listed("a.csv");
+		for (int i = 0; i < MESSAGES / 10; i++) {
+			mapper.processMessage(message);
+			legacyArguments(properties, rotator, message);
+		}
+		long thread = Thread.currentThread().getId();
+
+		long bytes = allocations.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < MESSAGES; i++) {
+			legacyArguments(properties, rotator, message);
+		}
+		long legacyNanos = System.nanoTime() - start;
+		long legacyBytes = allocations.getThreadAllocatedBytes(thread) - bytes;
+
+		bytes = allocations.getThreadAllocatedBytes(thread);
+		start = System.nanoTime();
+		for (int i = 0; i < MESSAGES; i++) {
+			mapper.processMessage(message);
+		}
+		long cachedNanos = System.nanoTime() - start;
+		long cachedBytes = allocations.getThreadAllocatedBytes(thread) - bytes;
+
+		logger.info(String.format("%d messages: per-message evaluation %d ms, %d bytes/message; "
+						+ "cached %d ms, %d bytes/message", MESSAGES,
+				TimeUnit.NANOSECONDS.toMillis(legacyNanos), legacyBytes / MESSAGES,
+				TimeUnit.NANOSECONDS.toMillis(cachedNanos), cachedBytes / MESSAGES));
+		assertThat(cachedBytes, lessThan(legacyBytes));
+	}
+
+	/*
+	 * The arguments as they were built before they were cached: the rotator's header
+	 * expressions are evaluated, and the arguments formatted, for each message.
+	 */
+	private static Collection<String> legacyArguments(SftpSourceProperties properties, SftpSourceRotator rotator,
+			Message<?> message) {
+		Collection<String> commandLineArgs = new ArrayList<>();
+		commandLineArgs.add("remoteFilePath=" + FilePathUtils.getRemoteFilePath(message));
+		Map<String, Object> headers = ExpressionEvalMap.from(rotator.headers()).usingSimpleCallback().build();
+		commandLineArgs.add(String.format("%s=%s", SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY,
+				headers.get(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY)));
+		headers = ExpressionEvalMap.from(rotator.headers()).usingSimpleCallback().build();
+		commandLineArgs.add(String.format("%s=%s", SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY,
+				headers.get(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY)));
+		commandLineArgs.add(String.format("%s=%s", SftpHeaders.SFTP_HOST_PROPERTY_KEY,
+				String.valueOf(headers.get(SftpHeaders.SFTP_HOST_PROPERTY_KEY))));
+		commandLineArgs.add(String.format("%s=%s", SftpHeaders.SFTP_PORT_PROPERTY_KEY,
+				String.valueOf(headers.get(SftpHeaders.SFTP_PORT_PROPERTY_KEY))));
+		commandLineArgs.add(String.format("%s=%s", SftpHeaders.SFTP_USERNAME_PROPERTY_KEY,
+				headers.get(SftpHeaders.SFTP_USERNAME_PROPERTY_KEY)));
+		commandLineArgs.add(String.format("%s=%s", SftpHeaders.SFTP_PASSWORD_PROPERTY_KEY,
+				headers.get(SftpHeaders.SFTP_PASSWORD_PROPERTY_KEY)));
+		return commandLineArgs;
+	}
+
+	private static Message<?> listed(String name) {
+		return MessageBuilder.withPayload(name)
+				.setHeader(FileHeaders.REMOTE_DIRECTORY, "in")
+				.setHeader(SftpHeaders.SFTP_SELECTED_SERVER_PROPERTY_KEY, "one")
+				.build();
+	}
+
+	private static SftpSourceProperties multiSourceProperties() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setListOnly(true);
+		Map<String, SftpSourceProperties.Factory> factories = new HashMap<>();
+		for (int i = 1; i <= 2; i++) {
+			SftpSourceProperties.Factory factory = new SftpSourceProperties.Factory();
+			factory.setHost("host" + i);
+			factory.setPort(2222);
+			factory.setUsername("user" + i);
+			factory.setPassword("pass" + i);
+			factories.put(i == 1 ? "one" : "two", factory);
+		}
+		properties.setFactories(factories);
+		properties.setDirectories(new String[] { "one.in", "two.in" });
+		return properties;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static SftpSourceRotator rotator(SftpSourceProperties properties) {
+		Map<Object, SessionFactory<LsEntry>> factories = new HashMap<>();
+		factories.put("one", mock(SessionFactory.class));
+		factories.put("two", mock(SessionFactory.class));
+		DelegatingSessionFactory<LsEntry> sessionFactory = new DelegatingSessionFactory<>(factories,
+				mock(SessionFactory.class));
+		SftpSourceRotator rotator = spy(new SftpSourceRotator(properties,
+				new RotatingServerAdvice.StandardRotationPolicy(sessionFactory,
+						SftpSourceProperties.keyDirectories(properties), true), null));
+		// the server of the poll, as after RotatingServerAdvice.beforeReceive
+		doReturn("one").when(rotator).getCurrentKey();
+		return rotator;
+	}
+
+}
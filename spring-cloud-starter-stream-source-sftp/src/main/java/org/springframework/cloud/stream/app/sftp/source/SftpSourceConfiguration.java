@@ -16,9 +16,13 @@
 
 package org.springframework.cloud.stream.app.sftp.source;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import com.jcraft.jsch.ChannelSftp.LsEntry;
 import org.aopalliance.aop.Advice;
@@ -33,11 +37,27 @@ import org.springframework.cloud.stream.app.file.FileConsumerProperties;
 import org.springframework.cloud.stream.app.file.FileReadingMode;
 import org.springframework.cloud.stream.app.file.FileUtils;
 import org.springframework.cloud.stream.app.file.remote.RemoteFileDeletingTransactionSynchronizationProcessor;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetricsAdvice;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetricsChannelInterceptor;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpExecutors;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpFetchPriority;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpLatencyTracker;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpLocalStaging;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpRecursiveDirectoryLister;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpRemoteFileActions;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceFilters;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceLeaderElectionConfiguration;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceMetricsTags;
 import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceRotator;
 import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
 import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceSessionFactoryConfiguration;
 import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceSessionFactoryConfiguration.DelegatingFactoryWrapper;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpStreamingLister;
+import org.springframework.cloud.stream.app.sftp.source.listing.SftpListingBatches;
+import org.springframework.cloud.stream.app.sftp.source.manifest.SftpManifestBatchProcessor;
 import org.springframework.cloud.stream.app.sftp.source.metadata.SftpSourceIdempotentReceiverConfiguration;
+import org.springframework.cloud.stream.app.sftp.source.reactive.SftpReactiveFileSource;
 import org.springframework.cloud.stream.app.sftp.source.tasklauncher.SftpSourceTaskLauncherConfiguration;
 import org.springframework.cloud.stream.app.trigger.TriggerConfiguration;
 import org.springframework.cloud.stream.app.trigger.TriggerPropertiesMaxMessagesDefaultUnlimited;
@@ -47,6 +67,7 @@ import org.springframework.context.annotation.Import;
 import org.springframework.integration.annotation.IdempotentReceiver;
 import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.config.GlobalChannelInterceptor;
 import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.dsl.IntegrationFlowBuilder;
 import org.springframework.integration.dsl.IntegrationFlows;
@@ -60,16 +81,15 @@ import org.springframework.integration.scheduling.PollerMetadata;
 import org.springframework.integration.sftp.dsl.Sftp;
 import org.springframework.integration.sftp.dsl.SftpInboundChannelAdapterSpec;
 import org.springframework.integration.sftp.dsl.SftpStreamingInboundChannelAdapterSpec;
-import org.springframework.integration.sftp.filters.SftpPersistentAcceptOnceFileListFilter;
-import org.springframework.integration.sftp.filters.SftpRegexPatternFileListFilter;
-import org.springframework.integration.sftp.filters.SftpSimplePatternFileListFilter;
 import org.springframework.integration.sftp.session.SftpRemoteFileTemplate;
+import org.springframework.integration.support.SmartLifecycleRoleController;
 import org.springframework.integration.transaction.DefaultTransactionSynchronizationFactory;
 import org.springframework.integration.transaction.PseudoTransactionManager;
 import org.springframework.integration.transaction.TransactionSynchronizationProcessor;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.transaction.interceptor.MatchAlwaysTransactionAttributeSource;
 import org.springframework.transaction.interceptor.TransactionInterceptor;
@@ -89,6 +109,7 @@ import org.springframework.util.StringUtils;
 	TriggerPropertiesMaxMessagesDefaultUnlimited.class })
 @Import({ TriggerConfiguration.class,
 		SftpSourceSessionFactoryConfiguration.class,
+		SftpSourceLeaderElectionConfiguration.class,
 		SftpSourceIdempotentReceiverConfiguration.class,
 		SftpSourceTaskLauncherConfiguration.class })
 public class SftpSourceConfiguration {
@@ -115,6 +136,33 @@ public class SftpSourceConfiguration {
 	@Autowired(required = false)
 	private DelegatingFactoryWrapper delegatingSessionFactory;
 
+	@Autowired(required = false)
+	private SftpRecursiveDirectoryLister recursiveLister;
+
+	@Autowired(required = false)
+	private SftpStreamingLister streamingLister;
+
+	@Autowired(required = false)
+	private SftpListingBatches listingBatches;
+
+	@Autowired(required = false)
+	private SftpManifestBatchProcessor manifestBatchProcessor;
+
+	@Autowired(required = false)
+	private SftpReactiveFileSource reactiveFileSource;
+
+	@Autowired
+	private SftpMetrics sftpMetrics;
+
+	@Autowired(required = false)
+	private SftpLatencyTracker latencyTracker;
+
+	@Autowired(required = false)
+	private SftpRemoteFileActions remoteFileActions;
+
+	@Autowired(required = false)
+	private SftpLocalStaging localStaging;
+
 
 	@Bean
 	public MessageChannel sftpFileListChannel() {
@@ -130,14 +178,16 @@ public class SftpSourceConfiguration {
 	@Bean
 	public IntegrationFlow sftpInboundFlow(SessionFactory<LsEntry> sftpSessionFactory,
 			FileConsumerProperties fileConsumerProperties) {
-		ChainFileListFilter<LsEntry> filterChain = new ChainFileListFilter<>();
-		if (StringUtils.hasText(this.properties.getFilenamePattern())) {
-			filterChain.addFilter(new SftpSimplePatternFileListFilter(this.properties.getFilenamePattern()));
+		if (this.manifestBatchProcessor != null) {
+			return manifestFlow();
 		}
-		else if (this.properties.getFilenameRegex() != null) {
-			filterChain.addFilter(new SftpRegexPatternFileListFilter(this.properties.getFilenameRegex()));
+		if (this.reactiveFileSource != null) {
+			return reactiveFlow(fileConsumerProperties);
 		}
-		filterChain.addFilter(new SftpPersistentAcceptOnceFileListFilter(metadataStore, "sftpSource/"));
+
+		ChainFileListFilter<LsEntry> filterChain = SftpSourceFilters.filterChain(this.properties,
+				this.metadataStore, this.sftpMetrics, metricsTags(), this.latencyTracker, this.localStaging);
+		SftpFetchPriority fetchPriority = new SftpFetchPriority(this.properties);
 
 		IntegrationFlowBuilder flowBuilder;
 
@@ -152,33 +202,38 @@ public class SftpSourceConfiguration {
 			}
 
 			flowBuilder = FileUtils.enhanceStreamFlowForReadingMode(
-					IntegrationFlows.from(messageSourceStreamingSpec,
-							this.properties.isDeleteRemoteFiles()
+					afterSource(IntegrationFlows.from(messageSourceStreamingSpec,
+							this.properties.isDeleteRemoteFiles() && this.remoteFileActions == null
 								? consumerSpecWithDelete(this.sftpSourceRotator)
-								: consumerSpec(this.sftpSourceRotator)),
+								: consumerSpec(this.sftpSourceRotator))),
 					fileConsumerProperties);
 		}
 		else if (properties.isListOnly() || properties.isTaskLauncherOutput()) {
 			return listingFlow(sftpSessionFactory);
 		}
 		else {
+			if (isRemoteFileActions()) {
+				filterChain.addFilter(this.remoteFileActions.synchronizedFiles(this.sftpSourceRotator));
+			}
 			SftpInboundChannelAdapterSpec messageSourceBuilder =
 					Sftp.inboundAdapter(this.properties.isMultiSource()
-								? this.delegatingSessionFactory.getFactory() : sftpSessionFactory)
+								? this.delegatingSessionFactory.getFactory() : sftpSessionFactory,
+								fetchPriority.isEnabled() ? fetchPriority.localComparator() : null)
 							.preserveTimestamp(this.properties.isPreserveTimestamp())
 							.remoteDirectory(this.properties.getRemoteDir())
 							.remoteFileSeparator(this.properties.getRemoteFileSeparator())
 							.localDirectory(this.properties.getLocalDir())
 							.autoCreateLocalDirectory(this.properties.isAutoCreateLocalDir())
 							.temporaryFileSuffix(this.properties.getTmpFileSuffix())
-							.deleteRemoteFiles(this.properties.isDeleteRemoteFiles())
+							.deleteRemoteFiles(this.properties.isDeleteRemoteFiles() && this.remoteFileActions == null)
 							.filter(filterChain);
 
 			if (this.properties.getMaxFetch() != null) {
 				messageSourceBuilder.maxFetchSize(this.properties.getMaxFetch());
 			}
 
-			flowBuilder = IntegrationFlows.from(messageSourceBuilder, consumerSpec(this.sftpSourceRotator));
+			flowBuilder = afterSource(
+					IntegrationFlows.from(messageSourceBuilder, consumerSpec(this.sftpSourceRotator)));
 
 			if (fileConsumerProperties.getMode() != FileReadingMode.ref) {
 				flowBuilder = FileUtils.enhanceFlowForReadingMode(flowBuilder, fileConsumerProperties);
@@ -190,7 +245,59 @@ public class SftpSourceConfiguration {
 				.get();
 	}
 
+	private IntegrationFlow manifestFlow() {
+		return IntegrationFlows.from(() -> this.properties.isMultiSource()
+						? this.sftpSourceRotator.getCurrentDirectory() : this.properties.getRemoteDir(),
+					consumerSpec(this.sftpSourceRotator))
+				.handle(String.class, (directory, headers) -> {
+					this.manifestBatchProcessor.process(directory,
+							this.sftpSourceRotator != null ? this.sftpSourceRotator.getCurrentKey() : null);
+					return null;
+				})
+				.get();
+	}
+
+	@Bean
+	public MessageChannel sftpManifestBatchChannel() {
+		return new DirectChannel();
+	}
+
+	/**
+	 * The batches of the manifests, sent on the polling thread, with the headers of the
+	 * server polled and, for a sequence of files, read as in the other file flows.
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "sftp.manifest-regex")
+	public IntegrationFlow sftpManifestBatchFlow(FileConsumerProperties fileConsumerProperties) {
+		IntegrationFlowBuilder flowBuilder = IntegrationFlows.from(sftpManifestBatchChannel());
+		if (this.sftpSourceRotator != null) {
+			flowBuilder.transform(Message.class, this.sftpSourceRotator::enrichHeaders);
+		}
+		if (fileConsumerProperties.getMode() != FileReadingMode.ref) {
+			Assert.state(this.properties.getManifestOutput() == SftpSourceProperties.ManifestOutput.sequence,
+					"file.consumer.mode=" + fileConsumerProperties.getMode()
+							+ " requires sftp.manifest-output=sequence");
+			flowBuilder = FileUtils.enhanceFlowForReadingMode(flowBuilder, fileConsumerProperties);
+		}
+		return flowBuilder
+				.channel(this.source.output())
+				.get();
+	}
+
+	private IntegrationFlow reactiveFlow(FileConsumerProperties fileConsumerProperties) {
+		IntegrationFlowBuilder flowBuilder = IntegrationFlows.from(this.reactiveFileSource.getOutputChannel());
+		if (fileConsumerProperties.getMode() != FileReadingMode.ref) {
+			flowBuilder = FileUtils.enhanceFlowForReadingMode(flowBuilder, fileConsumerProperties);
+		}
+		return flowBuilder
+				.channel(this.source.output())
+				.get();
+	}
+
 	private IntegrationFlow listingFlow(SessionFactory<LsEntry> sftpSessionFactory) {
+		if (this.listingBatches != null) {
+			return listingBatchesFlow(sftpSessionFactory);
+		}
 		if (this.properties.isMultiSource()) {
 			return multiSourceListingFlow();
 		}
@@ -200,23 +307,21 @@ public class SftpSourceConfiguration {
 	}
 
 	private IntegrationFlow singleSourceListingFlow(SessionFactory<LsEntry> sftpSessionFactory) {
-		return IntegrationFlows.from(() -> this.properties.getRemoteDir(), consumerSpec(this.sftpSourceRotator))
-				.handle(Sftp.outboundGateway(sftpSessionFactory,
-						AbstractRemoteFileOutboundGateway.Command.LS.getCommand(), "payload")
-						.options(AbstractRemoteFileOutboundGateway.Option.NAME_ONLY.getOption()))
+		return listRemoteDirectory(
+					IntegrationFlows.from(() -> this.properties.getRemoteDir(), consumerSpec(this.sftpSourceRotator)),
+					sftpSessionFactory)
 				.split()
 				.channel(listOrLaunchChannel())
 				.get();
 	}
 
 	private IntegrationFlow multiSourceListingFlow() {
-		IntegrationFlowBuilder flow = IntegrationFlows.from(() ->
-					this.sftpSourceRotator.getCurrentDirectory(), consumerSpec(this.sftpSourceRotator))
-				.handle(Sftp.outboundGateway(this.delegatingSessionFactory.getFactory(),
-						AbstractRemoteFileOutboundGateway.Command.LS.getCommand(), "payload")
-						.options(AbstractRemoteFileOutboundGateway.Option.NAME_ONLY.getOption()));
+		IntegrationFlowBuilder flow = listRemoteDirectory(
+				IntegrationFlows.from(() ->
+						this.sftpSourceRotator.getCurrentDirectory(), consumerSpec(this.sftpSourceRotator)),
+				this.delegatingSessionFactory.getFactory());
 		if (this.properties.isTaskLauncherOutput()) {
-			flow.enrichHeaders(this.sftpSourceRotator.headers());
+			flow.transform(Message.class, this.sftpSourceRotator::enrichHeaders);
 		}
 		return flow
 				.split()
@@ -224,25 +329,134 @@ public class SftpSourceConfiguration {
 				.get();
 	}
 
+	/**
+	 * List the files with their attributes (without NAME_ONLY) and emit them in batches.
+	 */
+	private IntegrationFlow listingBatchesFlow(SessionFactory<LsEntry> sftpSessionFactory) {
+		return IntegrationFlows.from(() -> currentDirectory(), consumerSpec(this.sftpSourceRotator))
+				.handle(Sftp.outboundGateway(this.properties.isMultiSource()
+								? this.delegatingSessionFactory.getFactory() : sftpSessionFactory,
+						AbstractRemoteFileOutboundGateway.Command.LS.getCommand(), "payload")
+						.filter(SftpSourceFilters.listingFileListFilter(() -> listingFilter(currentDirectory()))),
+						e -> e.advice(listMetricsAdvice()))
+				.split(Message.class, this.listingBatches::batches)
+				.channel(c -> c.direct()
+						.interceptor(this.listingBatches.afterSend()))
+				.channel(this.source.output())
+				.get();
+	}
+
+	private String currentDirectory() {
+		return this.sftpSourceRotator != null
+				? this.sftpSourceRotator.getCurrentDirectory()
+				: this.properties.getRemoteDir();
+	}
+
+	private IntegrationFlowBuilder listRemoteDirectory(IntegrationFlowBuilder flow,
+			SessionFactory<LsEntry> sessionFactory) {
+		if (this.recursiveLister != null) {
+			return flow.handle(String.class, (directory, headers) ->
+					MessageBuilder.withPayload(this.recursiveLister.listFiles(directory,
+								this.sftpSourceRotator != null ? this.sftpSourceRotator.getCurrentKey() : null,
+								listingFilter(directory)))
+							.setHeader(FileHeaders.REMOTE_DIRECTORY, this.recursiveLister.directoryPath(directory))
+							.build(),
+					e -> e.advice(listMetricsAdvice()));
+		}
+		if (this.streamingLister != null) {
+			return flow.handle(String.class, (directory, headers) ->
+					MessageBuilder.withPayload(this.streamingLister.listFiles(directory,
+								this.sftpSourceRotator != null ? this.sftpSourceRotator.getCurrentKey() : null,
+								listingFilter(directory)))
+							.setHeader(FileHeaders.REMOTE_DIRECTORY, this.streamingLister.directoryPath(directory))
+							.build(),
+					e -> e.advice(listMetricsAdvice()));
+		}
+		return flow.handle(Sftp.outboundGateway(sessionFactory,
+				AbstractRemoteFileOutboundGateway.Command.LS.getCommand(), "payload")
+				.options(AbstractRemoteFileOutboundGateway.Option.NAME_ONLY.getOption())
+				.filter(SftpSourceFilters.listingFileListFilter(() -> listingFilter(currentDirectory()))),
+				e -> e.advice(listMetricsAdvice()));
+	}
+
+	/**
+	 * The filter of the names listed in a directory, keyed as in
+	 * {@link SftpSourceIdempotentReceiverConfiguration}.
+	 */
+	private Predicate<String> listingFilter(String directory) {
+		String separator = this.properties.getRemoteFileSeparator();
+		String directoryPath = directory.endsWith(separator) ? directory : directory + separator;
+		return SftpSourceFilters.listingFilter(this.properties, this.metadataStore, name -> directoryPath + name);
+	}
+
+	private SftpMetricsAdvice listMetricsAdvice() {
+		return new SftpMetricsAdvice(this.sftpMetrics, "sftp.source.list", "sftp.source.list.size", metricsTags());
+	}
+
+	private SftpSourceMetricsTags metricsTags() {
+		return new SftpSourceMetricsTags(this.properties, this.sftpSourceRotator);
+	}
+
 	private MessageChannel listOrLaunchChannel() {
 		return this.properties.isListOnly() ? sftpFileListChannel() : sftpFileTaskLaunchChannel();
 	}
 
+	/**
+	 * Intercept the messages sent by the source: to queue the moves, or asynchronous deletes,
+	 * of the remote files and to acknowledge the local files.
+	 */
+	private IntegrationFlowBuilder afterSource(IntegrationFlowBuilder flowBuilder) {
+		List<ChannelInterceptor> interceptors = new ArrayList<>();
+		if (isRemoteFileActions()) {
+			interceptors.add(this.remoteFileActions.afterSend(this.sftpSourceRotator));
+		}
+		if (this.localStaging != null) {
+			interceptors.add(this.localStaging.afterSend());
+		}
+		if (interceptors.isEmpty()) {
+			return flowBuilder;
+		}
+		return flowBuilder.channel(c -> c.direct()
+				.interceptor(interceptors.toArray(new ChannelInterceptor[0])));
+	}
+
+	/**
+	 * Whether the remote files are moved, or deleted asynchronously, once their messages
+	 * are sent.
+	 */
+	private boolean isRemoteFileActions() {
+		return this.remoteFileActions != null
+				&& (this.properties.isDeleteRemoteFiles() || this.properties.getMoveToDirectory() != null);
+	}
+
 	private Consumer<SourcePollingChannelAdapterSpec> consumerSpec(Advice advice) {
-		if (advice == null) {
-			return spec -> spec.poller(this.defaultPoller);
+		PollerMetadata poller = poller();
+		if (advice == null && poller.getTaskExecutor() == null) {
+			return spec -> leaderRole(spec.poller(this.defaultPoller));
 		}
 		else {
-			PollerMetadata poller = new PollerMetadata();
-			BeanUtils.copyProperties(this.defaultPoller, poller, "transactionSynchronizationFactory");
-			poller.setAdviceChain(Arrays.asList(advice));
-			return spec -> spec.poller(poller);
+			if (advice != null) {
+				poller.setAdviceChain(Arrays.asList(advice));
+			}
+			return spec -> leaderRole(spec.poller(poller));
 		}
 	}
 
-	private Consumer<SourcePollingChannelAdapterSpec> consumerSpecWithDelete(Advice advice) {
-		final PollerMetadata poller = new PollerMetadata();
+	/**
+	 * A copy of the default poller; in virtual mode, the polls run on virtual threads.
+	 */
+	private PollerMetadata poller() {
+		PollerMetadata poller = new PollerMetadata();
 		BeanUtils.copyProperties(this.defaultPoller, poller, "transactionSynchronizationFactory");
+		Executor pollExecutor = SftpExecutors.newPollExecutor(this.properties, "sftp-poll-");
+		if (pollExecutor != null) {
+			poller.setTaskExecutor(pollExecutor);
+		}
+		return poller;
+	}
+
+	private Consumer<SourcePollingChannelAdapterSpec> consumerSpecWithDelete(Advice advice) {
+		final PollerMetadata poller = poller();
 		TransactionSynchronizationProcessor processor = new RemoteFileDeletingTransactionSynchronizationProcessor(
 				this.sftpTemplate, this.properties.getRemoteFileSeparator());
 		poller.setTransactionSynchronizationFactory(new DefaultTransactionSynchronizationFactory(processor));
@@ -251,7 +465,53 @@ public class SftpSourceConfiguration {
 		if (advice != null) {
 			poller.setAdviceChain(Arrays.asList(advice));
 		}
-		return spec -> spec.poller(poller);
+		return spec -> leaderRole(spec.poller(poller));
+	}
+
+	private void leaderRole(SourcePollingChannelAdapterSpec spec) {
+		if (StringUtils.hasText(this.properties.getLeaderRole())) {
+			// started by the role controller when leadership is granted
+			spec.role(this.properties.getLeaderRole())
+					.autoStartup(false);
+		}
+	}
+
+	@Bean
+	@GlobalChannelInterceptor(patterns = Source.OUTPUT)
+	public ChannelInterceptor sftpEmitMetricsInterceptor() {
+		return new SftpMetricsChannelInterceptor(this.sftpMetrics, "sftp.source.emit", metricsTags());
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "sftp.manifest-regex")
+	public SftpManifestBatchProcessor sftpManifestBatchProcessor(SessionFactory<LsEntry> sftpSessionFactory,
+			@Autowired(required = false) DelegatingFactoryWrapper wrapper,
+			SftpSourceProperties properties, ConcurrentMetadataStore metadataStore, SftpMetrics metrics) {
+		return new SftpManifestBatchProcessor(properties.isMultiSource() ? wrapper.getFactory() : sftpSessionFactory,
+				properties, metadataStore, sftpManifestBatchChannel(), metrics);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "sftp.reactive", havingValue = "true")
+	public SftpReactiveFileSource sftpReactiveFileSource(SessionFactory<LsEntry> sftpSessionFactory,
+			@Autowired(required = false) DelegatingFactoryWrapper wrapper,
+			SftpSourceProperties properties, ConcurrentMetadataStore metadataStore, SftpMetrics metrics,
+			@Autowired(required = false) SftpLatencyTracker latencyTracker, SmartLifecycleRoleController roles) {
+		SftpReactiveFileSource reactiveFileSource = new SftpReactiveFileSource(
+				properties.isMultiSource() ? wrapper.getFactory() : sftpSessionFactory,
+				properties, tags -> SftpSourceFilters.filterChain(properties, metadataStore, metrics, tags,
+						latencyTracker));
+		if (StringUtils.hasText(properties.getLeaderRole())) {
+			roles.addLifecycleToRole(properties.getLeaderRole(), reactiveFileSource);
+		}
+		return reactiveFileSource;
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "sftp.list-batch-size")
+	public SftpListingBatches sftpListingBatches(SftpSourceProperties properties,
+			ConcurrentMetadataStore metadataStore) {
+		return new SftpListingBatches(properties, metadataStore);
 	}
 
 	@Bean
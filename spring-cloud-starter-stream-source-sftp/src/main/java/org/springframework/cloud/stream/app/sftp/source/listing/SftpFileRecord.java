@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.source.listing;
+
+/**
+ * A listed remote file, as emitted in the list-only batches.
+ *
+ * @since 2.1.6
+ */
+public class SftpFileRecord {
+
+	private final String path;
+
+	private final long size;
+
+	private final long mtime;
+
+	private final String permissions;
+
+	public SftpFileRecord(String path, long size, long mtime, String permissions) {
+		this.path = path;
+		this.size = size;
+		this.mtime = mtime;
+		this.permissions = permissions;
+	}
+
+	public String getPath() {
+		return this.path;
+	}
+
+	public long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * The modification time, in milliseconds since the epoch.
+	 * @return the modification time.
+	 */
+	public long getMtime() {
+		return this.mtime;
+	}
+
+	public String getPermissions() {
+		return this.permissions;
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.source.listing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.file.remote.FileInfo;
+import org.springframework.integration.metadata.ConcurrentMetadataStore;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Splits a directory listing into messages of up to {@code listBatchSize} file records,
+ * serialized as a JSON array, instead of a message per file path.
+ * <p>
+ * The files already emitted are skipped by the listing filter; the files of each batch are
+ * marked in the metadata store by {@link #afterSend()} once the batch has been sent, with
+ * the key of the idempotent receiver of the per-path messages, the remote file path, so
+ * that switching between the two modes does not emit the files again. The files of a batch
+ * whose send fails, and of the batches after it, are not marked, and are listed again.
+ *
+ * @since 2.1.6
+ */
+public class SftpListingBatches {
+
+	private final int batchSize;
+
+	private final ConcurrentMetadataStore metadataStore;
+
+	public SftpListingBatches(SftpSourceProperties properties, ConcurrentMetadataStore metadataStore) {
+		this.batchSize = properties.getListBatchSize();
+		this.metadataStore = metadataStore;
+	}
+
+	/**
+	 * Split the reply of an {@code LS} gateway.
+	 * @param listing the message with the {@link FileInfo}s listed.
+	 * @return the batches.
+	 */
+	public List<Message<List<SftpFileRecord>>> batches(Message<?> listing) {
+		String directory = listing.getHeaders().get(FileHeaders.REMOTE_DIRECTORY, String.class);
+		List<Message<List<SftpFileRecord>>> batches = new ArrayList<>();
+		List<SftpFileRecord> batch = null;
+		for (Object file : (List<?>) listing.getPayload()) {
+			FileInfo<?> fileInfo = (FileInfo<?>) file;
+			if (batch == null) {
+				batch = new ArrayList<>(this.batchSize);
+			}
+			batch.add(new SftpFileRecord(directory + fileInfo.getFilename(), fileInfo.getSize(),
+					fileInfo.getModified(), fileInfo.getPermissions()));
+			if (batch.size() == this.batchSize) {
+				batches.add(message(batch));
+				batch = null;
+			}
+		}
+		if (batch != null) {
+			batches.add(message(batch));
+		}
+		return batches;
+	}
+
+	/**
+	 * An interceptor, for the channel the batches are sent to, that marks the files of each
+	 * batch once it has been sent downstream.
+	 * @return the interceptor.
+	 */
+	public ChannelInterceptor afterSend() {
+		return new ChannelInterceptor() {
+
+			@Override
+			public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent,
+					@Nullable Exception ex) {
+				if (sent && ex == null && message.getPayload() instanceof List) {
+					String value = Long.toString(System.currentTimeMillis());
+					for (Object record : (List<?>) message.getPayload()) {
+						SftpListingBatches.this.metadataStore.putIfAbsent(((SftpFileRecord) record).getPath(), value);
+					}
+				}
+			}
+
+		};
+	}
+
+	private static Message<List<SftpFileRecord>> message(List<SftpFileRecord> batch) {
+		return MessageBuilder.withPayload(batch)
+				.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON)
+				.build();
+	}
+
+}
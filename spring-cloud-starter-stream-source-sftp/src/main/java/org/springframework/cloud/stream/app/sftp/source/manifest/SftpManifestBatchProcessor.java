@@ -0,0 +1,361 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.source.manifest;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpExecutors;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpStabilityFileListFilter;
+import org.springframework.integration.core.MessagingTemplate;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.file.remote.session.DelegatingSessionFactory;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.metadata.ConcurrentMetadataStore;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Fetches the files referenced by manifest files as a batch. A manifest lists one remote
+ * file per line, relative to the manifest's directory unless absolute; blank lines and
+ * lines starting with '#' are ignored.
+ * <p>
+ * The files of a manifest are downloaded concurrently to a sub-directory of the local
+ * directory, named after the server key, the remote directory and the manifest, so that
+ * same-named manifests of different servers or directories do not collide, and emitted, once all are downloaded, either as one
+ * message with the list of local file paths or as a sequence of messages correlated by
+ * the manifest path. The manifest is then recorded in the metadata store, once for the
+ * whole batch; a batch that fails is logged, counted ({@code sftp.source.manifest.failed})
+ * and fetched again by a later poll, without holding back the other manifests.
+ * <p>
+ * When a stability period or marker suffixes are configured, a manifest is processed
+ * only once it is stable or its marker is listed, as for the files of the polled source.
+ *
+ * @since 2.1.6
+ */
+public class SftpManifestBatchProcessor implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(SftpManifestBatchProcessor.class);
+
+	private static final String KEY_PREFIX = "sftpSource/manifest/";
+
+	private static final String FAILED = "sftp.source.manifest.failed";
+
+	private final SessionFactory<LsEntry> sessionFactory;
+
+	private final ConcurrentMetadataStore metadataStore;
+
+	private final MessagingTemplate messagingTemplate;
+
+	private final Pattern manifestRegex;
+
+	private final boolean aggregate;
+
+	private final String separator;
+
+	private final File localDir;
+
+	private final String tmpFileSuffix;
+
+	private final boolean deleteRemoteFiles;
+
+	private final ExecutorService executor;
+
+	private final SftpSourceProperties properties;
+
+	private final SftpMetrics metrics;
+
+	private final boolean stabilityFiltered;
+
+	private final Map<String, SftpStabilityFileListFilter> stabilityFilters = new ConcurrentHashMap<>();
+
+	public SftpManifestBatchProcessor(SessionFactory<LsEntry> sessionFactory, SftpSourceProperties properties,
+			ConcurrentMetadataStore metadataStore, MessageChannel outputChannel, SftpMetrics metrics) {
+		this.sessionFactory = sessionFactory;
+		this.properties = properties;
+		this.metrics = metrics;
+		this.stabilityFiltered = properties.getStabilityPeriod() != null
+				|| !ObjectUtils.isEmpty(properties.getMarkerSuffixes());
+		this.metadataStore = metadataStore;
+		this.messagingTemplate = new MessagingTemplate(outputChannel);
+		this.manifestRegex = properties.getManifestRegex();
+		this.aggregate = properties.getManifestOutput() == SftpSourceProperties.ManifestOutput.aggregate;
+		this.separator = properties.getRemoteFileSeparator();
+		this.localDir = properties.getLocalDir();
+		this.tmpFileSuffix = properties.getTmpFileSuffix();
+		this.deleteRemoteFiles = properties.isDeleteRemoteFiles();
+		this.executor = SftpExecutors.newExecutor(properties, properties.getManifestConcurrency(), "sftp-manifest-");
+	}
+
+	/**
+	 * Fetch and emit the batches of the manifests in the directory that have not been
+	 * processed yet. A manifest that fails is skipped until a later call.
+	 * @param directory the remote directory.
+	 * @param key the key of the session factory to use when the session factory is a
+	 * {@link DelegatingSessionFactory}; null for the default factory.
+	 * @return the number of batches emitted.
+	 */
+	public int process(String directory, @Nullable Object key) {
+		String dir = directory.endsWith(this.separator) ? directory : directory + this.separator;
+		int batches = 0;
+		for (LsEntry manifest : newManifests(dir, key)) {
+			try {
+				processManifest(dir, manifest, key);
+				batches++;
+			}
+			catch (RuntimeException e) {
+				logger.warn("Failed to fetch the batch of manifest " + dir + manifest.getFilename()
+						+ "; it will be fetched again by a later poll", e);
+				this.metrics.count(1, FAILED, SftpMetrics.SERVER, key != null ? key.toString() : this.properties.getFactory().getHost(),
+						SftpMetrics.DIRECTORY, dir);
+			}
+		}
+		return batches;
+	}
+
+	private List<LsEntry> newManifests(String dir, Object key) {
+		List<LsEntry> manifests = new ArrayList<>();
+		Session<LsEntry> session = session(key);
+		try {
+			LsEntry[] entries = session.list(dir);
+			if (entries != null) {
+				for (LsEntry entry : stable(dir, key, entries)) {
+					if (!entry.getAttrs().isDir() && this.manifestRegex.matcher(entry.getFilename()).matches()
+							&& this.metadataStore.get(metadataKey(key, dir, entry.getFilename())) == null) {
+						manifests.add(entry);
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		finally {
+			session.close();
+		}
+		return manifests;
+	}
+
+	private List<LsEntry> stable(String dir, Object key, LsEntry[] entries) {
+		if (!this.stabilityFiltered) {
+			return Arrays.asList(entries);
+		}
+		String location = (key != null ? key + ":" : "") + dir;
+		return this.stabilityFilters.computeIfAbsent(location,
+				l -> new SftpStabilityFileListFilter(this.properties.getStabilityPeriod(),
+						this.properties.getMarkerSuffixes()))
+				.filterFiles(entries);
+	}
+
+	private void processManifest(String dir, LsEntry manifest, Object key) {
+		String name = manifest.getFilename();
+		List<String> paths = readManifest(dir + name, key);
+		File batchDir = batchDir(dir, name, key);
+		List<Future<File>> downloads = new ArrayList<>(paths.size());
+		for (String path : paths) {
+			downloads.add(this.executor.submit(() -> download(dir, path, batchDir, key)));
+		}
+		List<File> files = new ArrayList<>(paths.size());
+		try {
+			for (Future<File> download : downloads) {
+				files.add(get(download));
+			}
+		}
+		catch (RuntimeException e) {
+			downloads.forEach(download -> download.cancel(true));
+			throw e;
+		}
+		emit(dir, name, paths, files);
+		this.metadataStore.putIfAbsent(metadataKey(key, dir, name), Integer.toString(manifest.getAttrs().getMTime()));
+		if (this.deleteRemoteFiles) {
+			delete(dir, name, paths, key);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Fetched " + files.size() + " files of manifest " + dir + name);
+		}
+	}
+
+	/**
+	 * The local directory of the batch of a manifest: the server key, if any, then the
+	 * remote directory, then the manifest name without its extension.
+	 */
+	private File batchDir(String dir, String manifest, @Nullable Object key) {
+		String remoteDir = dir.startsWith(this.separator) ? dir.substring(this.separator.length()) : dir;
+		File parent = key != null ? new File(this.localDir, key.toString()) : this.localDir;
+		return new File(new File(parent, StringUtils.replace(remoteDir, this.separator, File.separator)),
+				StringUtils.stripFilenameExtension(manifest));
+	}
+
+	private List<String> readManifest(String manifest, Object key) {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		Session<LsEntry> session = session(key);
+		try {
+			session.read(manifest, content);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		finally {
+			session.close();
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(content.toByteArray()), StandardCharsets.UTF_8))) {
+			return reader.lines()
+					.map(String::trim)
+					.filter(line -> !line.isEmpty() && !line.startsWith("#"))
+					.collect(Collectors.toList());
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private File download(String dir, String path, File batchDir, Object key) throws IOException {
+		String remotePath = remotePath(dir, path);
+		File localFile = new File(batchDir, path.startsWith(this.separator) ? path.substring(1) : path);
+		if (!localFile.getCanonicalPath().startsWith(batchDir.getCanonicalPath() + File.separator)) {
+			throw new IllegalStateException("Manifest entry '" + path + "' is outside the batch directory");
+		}
+		File parent = localFile.getParentFile();
+		if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+			throw new IOException("Failed to create local directory " + parent);
+		}
+		File tmpFile = new File(localFile.getPath() + this.tmpFileSuffix);
+		Session<LsEntry> session = session(key);
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+			session.read(remotePath, out);
+		}
+		finally {
+			session.close();
+		}
+		if (localFile.exists() && !localFile.delete()) {
+			throw new IOException("Failed to replace local file " + localFile);
+		}
+		if (!tmpFile.renameTo(localFile)) {
+			throw new IOException("Failed to rename " + tmpFile + " to " + localFile);
+		}
+		return localFile;
+	}
+
+	private void emit(String dir, String manifest, List<String> paths, List<File> files) {
+		if (this.aggregate) {
+			this.messagingTemplate.send(MessageBuilder
+					.withPayload(files.stream().map(File::getAbsolutePath).collect(Collectors.toList()))
+					.setHeader(FileHeaders.REMOTE_DIRECTORY, dir)
+					.setHeader(FileHeaders.REMOTE_FILE, manifest)
+					.build());
+		}
+		else {
+			for (int i = 0; i < files.size(); i++) {
+				this.messagingTemplate.send(MessageBuilder.withPayload(files.get(i).getAbsolutePath())
+						.setHeader(FileHeaders.REMOTE_DIRECTORY, dir)
+						.setHeader(FileHeaders.REMOTE_FILE, paths.get(i))
+						.setCorrelationId(dir + manifest)
+						.setSequenceNumber(i + 1)
+						.setSequenceSize(files.size())
+						.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.TEXT_PLAIN)
+						.build());
+			}
+		}
+	}
+
+	private void delete(String dir, String manifest, List<String> paths, Object key) {
+		Session<LsEntry> session = session(key);
+		try {
+			for (String path : paths) {
+				session.remove(remotePath(dir, path));
+			}
+			session.remove(dir + manifest);
+		}
+		catch (IOException e) {
+			logger.warn("Failed to delete the remote files of manifest " + dir + manifest, e);
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	private String remotePath(String dir, String path) {
+		return path.startsWith(this.separator) ? path : dir + path;
+	}
+
+	private static String metadataKey(Object key, String dir, String manifest) {
+		return KEY_PREFIX + (key != null ? key + ":" : "") + dir + manifest;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Session<LsEntry> session(Object key) {
+		if (key != null && this.sessionFactory instanceof DelegatingSessionFactory) {
+			return ((DelegatingSessionFactory<LsEntry>) this.sessionFactory).getSession(key);
+		}
+		return this.sessionFactory.getSession();
+	}
+
+	private static File get(Future<File> future) {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while fetching a manifest batch", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw new UncheckedIOException((IOException) e.getCause());
+			}
+			throw new IllegalStateException("Failed to fetch a manifest batch", e.getCause());
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
+}
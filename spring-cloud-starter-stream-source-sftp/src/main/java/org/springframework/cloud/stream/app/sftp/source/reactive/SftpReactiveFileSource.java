@@ -0,0 +1,394 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.sftp.source.reactive;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpExecutors;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.file.filters.ChainFileListFilter;
+import org.springframework.integration.file.remote.session.DelegatingSessionFactory;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+
+/**
+ * Exposes the remote files as a {@link Flux} of local files, fetched on demand: the
+ * remote directories are listed again as soon as the files of the previous listing have
+ * been requested, and only after {@code reactiveIdleDelay} when a listing has no new
+ * files. At most {@code reactiveConcurrency} files are fetched at once; the files are sent
+ * to the {@link #getOutputChannel() output channel} one at a time, and the next file is
+ * only requested once the send returns, so a slow binder limits the downloads in flight.
+ * <p>
+ * Files are filtered like the polled source; a file that fails to download is rolled back
+ * from the filters and fetched again by a later listing. The filters see the server and
+ * directory being listed, so that the stability of same-named files of different servers
+ * is tracked apart. With several servers, the files of each server are written to a
+ * sub-directory of the local directory named after the server key, so that same-named
+ * files of different servers do not overwrite each other.
+ * <p>
+ * The remote directories are only listed while this source is running: when it is
+ * assigned to a leadership role, it is started and stopped with the leadership, and the
+ * subscription idles in between.
+ *
+ * @since 2.1.6
+ */
+public class SftpReactiveFileSource implements SmartLifecycle, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(SftpReactiveFileSource.class);
+
+	private final SessionFactory<LsEntry> sessionFactory;
+
+	private final ChainFileListFilter<LsEntry> filter;
+
+	private final List<RemoteDirectory> directories = new ArrayList<>();
+
+	private final String separator;
+
+	private final File localDir;
+
+	private final boolean autoCreateLocalDir;
+
+	private final String tmpFileSuffix;
+
+	private final boolean preserveTimestamp;
+
+	private final boolean deleteRemoteFiles;
+
+	private final Integer maxFetch;
+
+	private final int concurrency;
+
+	private final Duration idleDelay;
+
+	private final AtomicBoolean failed = new AtomicBoolean();
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	private final boolean autoStartup;
+
+	private final Scheduler scheduler;
+
+	private final DirectChannel outputChannel = new DirectChannel();
+
+	private volatile RemoteDirectory listing;
+
+	private Disposable subscription;
+
+	/**
+	 * @param sessionFactory the session factory.
+	 * @param properties the properties.
+	 * @param filter creates the filter chain from the metrics tags of the server and
+	 * directory being listed.
+	 */
+	public SftpReactiveFileSource(SessionFactory<LsEntry> sessionFactory, SftpSourceProperties properties,
+			Function<Function<Message<?>, String[]>, ChainFileListFilter<LsEntry>> filter) {
+		this.sessionFactory = sessionFactory;
+		if (properties.isMultiSource()) {
+			SftpSourceProperties.keyDirectories(properties).forEach(keyDirectory ->
+					this.directories.add(new RemoteDirectory(keyDirectory.getKey(),
+							keyDirectory.getKey().toString(), keyDirectory.getDirectory())));
+		}
+		else {
+			this.directories.add(new RemoteDirectory(null, properties.getFactory().getHost(),
+					properties.getRemoteDir()));
+		}
+		this.listing = this.directories.get(0);
+		this.filter = filter.apply(this::listingTags);
+		this.separator = properties.getRemoteFileSeparator();
+		this.localDir = properties.getLocalDir();
+		this.autoCreateLocalDir = properties.isAutoCreateLocalDir();
+		this.tmpFileSuffix = properties.getTmpFileSuffix();
+		this.preserveTimestamp = properties.isPreserveTimestamp();
+		this.deleteRemoteFiles = properties.isDeleteRemoteFiles();
+		this.maxFetch = properties.getMaxFetch();
+		this.concurrency = properties.getReactiveConcurrency();
+		this.idleDelay = properties.getReactiveIdleDelay();
+		// started by the role controller when leadership is granted
+		this.autoStartup = properties.getLeaderRole() == null;
+		this.scheduler = properties.getExecutionMode() == SftpSourceProperties.ExecutionMode.virtual
+				// the downloads and the listing
+				? Schedulers.fromExecutorService(SftpExecutors.newExecutor(properties, this.concurrency + 1,
+						"sftp-reactive-"))
+				: Schedulers.newElastic("sftp-reactive");
+	}
+
+	/**
+	 * The channel the files are sent to once this source is started.
+	 * @return the channel.
+	 */
+	public MessageChannel getOutputChannel() {
+		return this.outputChannel;
+	}
+
+	/**
+	 * The files, fetched as they are requested; the {@link Flux} never completes.
+	 * @return the messages of the local files.
+	 */
+	public Flux<Message<File>> files() {
+		return Flux.defer(() -> Flux.fromIterable(list()))
+				.repeatWhen(listings -> listings.concatMap(listed ->
+						listed > 0 && !this.failed.getAndSet(false)
+								? Mono.just(listed)
+								: Mono.delay(this.idleDelay).publishOn(this.scheduler)))
+				.subscribeOn(this.scheduler)
+				.flatMap(file -> Mono.fromCallable(() -> fetch(file))
+						.subscribeOn(this.scheduler)
+						.onErrorResume(e -> {
+							logger.error("Failed to fetch " + file.path(this.separator), e);
+							this.filter.rollback(file.entry, Collections.singletonList(file.entry));
+							this.failed.set(true);
+							return Mono.empty();
+						}), this.concurrency);
+	}
+
+	private List<RemoteFile> list() {
+		List<RemoteFile> files = new ArrayList<>();
+		if (!this.running.get()) {
+			return files;
+		}
+		for (RemoteDirectory directory : this.directories) {
+			try {
+				files.addAll(list(directory));
+			}
+			catch (IOException | RuntimeException e) {
+				logger.error("Failed to list " + directory.directory, e);
+				this.failed.set(true);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * The metrics tags of the server and directory being listed; the listings run one at a
+	 * time.
+	 */
+	private String[] listingTags(@Nullable Message<?> message) {
+		RemoteDirectory directory = this.listing;
+		return new String[] { SftpMetrics.SERVER, directory.server, SftpMetrics.DIRECTORY, directory.directory };
+	}
+
+	private List<RemoteFile> list(RemoteDirectory directory) throws IOException {
+		this.listing = directory;
+		Session<LsEntry> session = session(directory.key);
+		LsEntry[] entries;
+		try {
+			entries = session.list(directory.directory);
+		}
+		finally {
+			session.close();
+		}
+		List<LsEntry> candidates = new ArrayList<>();
+		if (entries != null) {
+			for (LsEntry entry : entries) {
+				if (!entry.getAttrs().isDir() && !entry.getAttrs().isLink()) {
+					candidates.add(entry);
+				}
+			}
+		}
+		List<LsEntry> accepted = this.filter.filterFiles(candidates.toArray(new LsEntry[0]));
+		if (this.maxFetch != null && this.maxFetch >= 0 && accepted.size() > this.maxFetch) {
+			List<LsEntry> beyond = new ArrayList<>(accepted.subList(this.maxFetch, accepted.size()));
+			this.filter.rollback(beyond.get(0), beyond);
+			accepted = accepted.subList(0, this.maxFetch);
+		}
+		List<RemoteFile> files = new ArrayList<>(accepted.size());
+		for (LsEntry entry : accepted) {
+			files.add(new RemoteFile(directory, entry));
+		}
+		return files;
+	}
+
+	private Message<File> fetch(RemoteFile file) throws IOException {
+		String name = file.entry.getFilename();
+		String remotePath = file.path(this.separator);
+		File localDir = file.directory.key != null
+				? new File(this.localDir, file.directory.key.toString())
+				: this.localDir;
+		if (!localDir.exists() && this.autoCreateLocalDir && !localDir.mkdirs() && !localDir.exists()) {
+			throw new IOException("Failed to create local directory " + localDir);
+		}
+		File localFile = new File(localDir, name);
+		File tmpFile = new File(localFile.getPath() + this.tmpFileSuffix);
+		Session<LsEntry> session = session(file.directory.key);
+		try {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+				session.read(remotePath, out);
+			}
+			if (localFile.exists() && !localFile.delete()) {
+				throw new IOException("Failed to replace local file " + localFile);
+			}
+			if (!tmpFile.renameTo(localFile)) {
+				throw new IOException("Failed to rename " + tmpFile + " to " + localFile);
+			}
+			if (this.preserveTimestamp) {
+				localFile.setLastModified(file.entry.getAttrs().getMTime() * 1000L);
+			}
+			if (this.deleteRemoteFiles) {
+				session.remove(remotePath);
+			}
+		}
+		finally {
+			session.close();
+		}
+		return MessageBuilder.withPayload(localFile)
+				.setHeader(FileHeaders.REMOTE_DIRECTORY, file.directory.directory)
+				.setHeader(FileHeaders.REMOTE_FILE, name)
+				.setHeader(FileHeaders.FILENAME, name)
+				.setHeader(FileHeaders.ORIGINAL_FILE, localFile)
+				.build();
+	}
+
+	@SuppressWarnings("unchecked")
+	private Session<LsEntry> session(Object key) {
+		if (key != null && this.sessionFactory instanceof DelegatingSessionFactory) {
+			return ((DelegatingSessionFactory<LsEntry>) this.sessionFactory).getSession(key);
+		}
+		return this.sessionFactory.getSession();
+	}
+
+	@Override
+	public synchronized void start() {
+		this.running.set(true);
+		if (this.subscription == null) {
+			// subscribed once; the listings idle while stopped
+			this.subscription = files().subscribeWith(new Emitter());
+		}
+	}
+
+	@Override
+	public void stop() {
+		this.running.set(false);
+	}
+
+	@Override
+	public boolean isRunning() {
+		return this.running.get();
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return this.autoStartup;
+	}
+
+	@Override
+	public int getPhase() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (this.subscription != null) {
+			this.subscription.dispose();
+		}
+		this.scheduler.dispose();
+	}
+
+	/**
+	 * Requests one file at a time, and the next one once the send of the previous one has
+	 * returned, so that a blocked output holds back the downloads.
+	 */
+	private final class Emitter extends BaseSubscriber<Message<File>> {
+
+		@Override
+		protected void hookOnSubscribe(Subscription subscription) {
+			request(1);
+		}
+
+		@Override
+		protected void hookOnNext(Message<File> message) {
+			try {
+				SftpReactiveFileSource.this.outputChannel.send(message);
+			}
+			catch (RuntimeException e) {
+				logger.error("Failed to send " + message, e);
+			}
+			request(1);
+		}
+
+	}
+
+	private static final class RemoteDirectory {
+
+		private final Object key;
+
+		private final String server;
+
+		private final String directory;
+
+		RemoteDirectory(@Nullable Object key, String server, String directory) {
+			this.key = key;
+			this.server = server;
+			this.directory = directory;
+		}
+
+	}
+
+	private static final class RemoteFile {
+
+		private final RemoteDirectory directory;
+
+		private final LsEntry entry;
+
+		RemoteFile(RemoteDirectory directory, LsEntry entry) {
+			this.directory = directory;
+			this.entry = entry;
+		}
+
+		String path(String separator) {
+			String dir = this.directory.directory;
+			return (dir.endsWith(separator) ? dir : dir + separator) + this.entry.getFilename();
+		}
+
+	}
+
+}
@@ -17,14 +17,17 @@
 package org.springframework.cloud.stream.app.sftp.source.tasklauncher;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpLaunchThrottle;
 import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
 import org.springframework.cloud.stream.app.sftp.source.metadata.SftpSourceIdempotentReceiverConfiguration;
 import org.springframework.cloud.stream.app.sftp.source.task.SftpSourceTaskProperties;
@@ -36,6 +39,7 @@ import org.springframework.integration.annotation.IdempotentReceiver;
 import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.integration.file.FileHeaders;
 import org.springframework.integration.handler.MessageProcessor;
+import org.springframework.integration.metadata.ConcurrentMetadataStore;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.support.MessageBuilder;
@@ -72,6 +76,12 @@ public class SftpSourceTaskLauncherConfiguration {
 
 	private final SftpSourceTaskProperties sftpSourceTaskProperties;
 
+	@Autowired(required = false)
+	private SftpLaunchThrottle launchThrottle;
+
+	@Autowired(required = false)
+	private ConcurrentMetadataStore metadataStore;
+
 	@Autowired
 	public SftpSourceTaskLauncherConfiguration(SftpSourceProperties sftpSourceProperties,
 		SftpSourceTaskProperties sftpSourceTaskProperties) {
@@ -84,23 +94,36 @@ public class SftpSourceTaskLauncherConfiguration {
 	@IdempotentReceiver("idempotentReceiverInterceptor")
 	@ServiceActivator(inputChannel = "sftpFileTaskLaunchChannel", outputChannel = Source.OUTPUT)
 	public MessageProcessor<Message<?>> standaloneTaskLaunchRequestTransformer() {
+		// the parts of the request that do not depend on the file are built once, per server key,
+		// and copied into each request, which the consumers may modify
+		Map<String, String> deploymentProperties = Collections.unmodifiableMap(getDeploymentProperties());
+		Map<String, String> environmentProperties = getEnvironmentProperties();
+		Map<String, String> defaultServerEnvironmentProperties = this.sftpSourceProperties.isMultiSource()
+				? getDefaultServerEnvironmentProperties(environmentProperties)
+				: environmentProperties;
+		Map<String, Map<String, String>> serverEnvironmentProperties = new ConcurrentHashMap<>();
+		String remoteFilePathArg = sftpSourceTaskProperties.getRemoteFilePathParameterName() + "=";
+		String localFilePathArg = sftpSourceTaskProperties.getLocalFilePathParameterName() + "="
+				+ sftpSourceTaskProperties.getLocalFilePathParameterValue();
 		return message -> {
+			if (this.launchThrottle != null) {
+				// the idempotent key, as in SftpSourceIdempotentReceiverConfiguration
+				this.launchThrottle.acquire(() -> this.metadataStore.remove(
+						message.getHeaders().get(FileHeaders.REMOTE_DIRECTORY, String.class) + message.getPayload()));
+			}
+			Map<String, String> environment = defaultServerEnvironmentProperties;
+			String serverKey = (String) message.getHeaders().get(SFTP_SELECTED_SERVER_PROPERTY_KEY);
+			if (this.sftpSourceProperties.isMultiSource() && serverKey != null) {
+				environment = serverEnvironmentProperties.computeIfAbsent(serverKey,
+						key -> getServerEnvironmentProperties(environmentProperties, message));
+			}
 			TaskLaunchRequest outboundPayload = new TaskLaunchRequest(sftpSourceTaskProperties.getResourceUri(),
-				getCommandLineArgs(message), getEnvironmentProperties(), getDeploymentProperties(), null);
+				getCommandLineArgs(message, remoteFilePathArg, localFilePathArg), new HashMap<>(environment),
+				new HashMap<>(deploymentProperties), null);
 			MessageBuilder<TaskLaunchRequest> builder = MessageBuilder.withPayload(outboundPayload)
 				.copyHeaders(message.getHeaders())
 				.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON);
 			if (this.sftpSourceProperties.isMultiSource()) {
-				outboundPayload.getEnvironmentProperties().put(SFTP_HOST_PROPERTY_KEY,
-						(String) message.getHeaders().get(SFTP_HOST_PROPERTY_KEY));
-				outboundPayload.getEnvironmentProperties().put(SFTP_PORT_PROPERTY_KEY,
-						String.valueOf(message.getHeaders().get(SFTP_PORT_PROPERTY_KEY)));
-				outboundPayload.getEnvironmentProperties().put(SFTP_USERNAME_PROPERTY_KEY,
-						(String) message.getHeaders().get(SFTP_USERNAME_PROPERTY_KEY));
-				outboundPayload.getEnvironmentProperties().put(SFTP_PASSWORD_PROPERTY_KEY,
-						(String) message.getHeaders().get(SFTP_PASSWORD_PROPERTY_KEY));
-				outboundPayload.getEnvironmentProperties().put(SFTP_SELECTED_SERVER_PROPERTY_KEY,
-						(String) message.getHeaders().get(SFTP_SELECTED_SERVER_PROPERTY_KEY));
 				builder.removeHeaders(SFTP_HOST_PROPERTY_KEY, SFTP_PORT_PROPERTY_KEY, SFTP_USERNAME_PROPERTY_KEY,
 						SFTP_PASSWORD_PROPERTY_KEY, SFTP_SELECTED_SERVER_PROPERTY_KEY);
 			}
@@ -108,6 +131,42 @@ public class SftpSourceTaskLauncherConfiguration {
 		};
 	}
 
+	/**
+	 * The environment of the tasks launched for a server: its connection headers, which
+	 * only depend on the server key, added to the common environment.
+	 */
+	private Map<String, String> getServerEnvironmentProperties(Map<String, String> environmentProperties,
+			Message<?> message) {
+		Map<String, String> serverEnvironmentProperties = new HashMap<>(environmentProperties);
+		serverEnvironmentProperties.put(SFTP_HOST_PROPERTY_KEY,
+				(String) message.getHeaders().get(SFTP_HOST_PROPERTY_KEY));
+		serverEnvironmentProperties.put(SFTP_PORT_PROPERTY_KEY,
+				String.valueOf(message.getHeaders().get(SFTP_PORT_PROPERTY_KEY)));
+		serverEnvironmentProperties.put(SFTP_USERNAME_PROPERTY_KEY,
+				(String) message.getHeaders().get(SFTP_USERNAME_PROPERTY_KEY));
+		serverEnvironmentProperties.put(SFTP_PASSWORD_PROPERTY_KEY,
+				(String) message.getHeaders().get(SFTP_PASSWORD_PROPERTY_KEY));
+		serverEnvironmentProperties.put(SFTP_SELECTED_SERVER_PROPERTY_KEY,
+				(String) message.getHeaders().get(SFTP_SELECTED_SERVER_PROPERTY_KEY));
+		return Collections.unmodifiableMap(serverEnvironmentProperties);
+	}
+
+	/**
+	 * The environment of the tasks launched for a message without a server key: the
+	 * connection properties of the default server added to the common environment.
+	 */
+	private Map<String, String> getDefaultServerEnvironmentProperties(Map<String, String> environmentProperties) {
+		Map<String, String> defaultServerEnvironmentProperties = new HashMap<>(environmentProperties);
+		defaultServerEnvironmentProperties.put(SFTP_HOST_PROPERTY_KEY, sftpSourceProperties.getFactory().getHost());
+		defaultServerEnvironmentProperties.put(SFTP_USERNAME_PROPERTY_KEY,
+				sftpSourceProperties.getFactory().getUsername());
+		defaultServerEnvironmentProperties.put(SFTP_PASSWORD_PROPERTY_KEY,
+				sftpSourceProperties.getFactory().getPassword());
+		defaultServerEnvironmentProperties.put(SFTP_PORT_PROPERTY_KEY,
+				String.valueOf(sftpSourceProperties.getFactory().getPort()));
+		return Collections.unmodifiableMap(defaultServerEnvironmentProperties);
+	}
+
 	private Map<String, String> getEnvironmentProperties() {
 		Map<String, String> environmentProperties = new HashMap<>();
 		environmentProperties.put(DATASOURCE_URL_PROPERTY_KEY, sftpSourceTaskProperties.getDataSourceUrl());
@@ -165,21 +224,16 @@ public class SftpSourceTaskLauncherConfiguration {
 		}
 	}
 
-	private List<String> getCommandLineArgs(Message<?> message) {
+	private List<String> getCommandLineArgs(Message<?> message, String remoteFilePathArg,
+			String localFilePathArg) {
 		Assert.notNull(message, "Message from which to create TaskLaunchRequest cannot be null");
 
 		String filename = (String) message.getPayload();
 		String remoteDirectory = (String) message.getHeaders().get(FileHeaders.REMOTE_DIRECTORY);
-		String localFilePathJobParameterValue = sftpSourceTaskProperties.getLocalFilePathParameterValue();
-
-		String remoteFilePath = remoteDirectory + filename;
-		String localFilePath = localFilePathJobParameterValue + filename;
-		String localFilePathJobParameterName = sftpSourceTaskProperties.getLocalFilePathParameterName();
-		String remoteFilePathJobParameterName = sftpSourceTaskProperties.getRemoteFilePathParameterName();
 
-		List<String> commandLineArgs = new ArrayList<>();
-		commandLineArgs.add(remoteFilePathJobParameterName + "=" + remoteFilePath);
-		commandLineArgs.add(localFilePathJobParameterName + "=" + localFilePath);
+		List<String> commandLineArgs = new ArrayList<>(2 + sftpSourceTaskProperties.getParameters().size());
+		commandLineArgs.add(remoteFilePathArg + remoteDirectory + filename);
+		commandLineArgs.add(localFilePathArg + filename);
 		commandLineArgs.addAll(sftpSourceTaskProperties.getParameters());
 
 		return commandLineArgs;
@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.hamcrest.Matchers;
@@ -41,10 +42,14 @@ import org.springframework.cloud.stream.app.test.sftp.SftpTestSupport;
 import org.springframework.cloud.stream.messaging.Source;
 import org.springframework.cloud.stream.test.binder.MessageCollector;
 import org.springframework.integration.endpoint.SourcePollingChannelAdapter;
+import org.springframework.integration.file.FileHeaders;
 import org.springframework.integration.file.remote.aop.RotatingServerAdvice;
+import org.springframework.integration.hazelcast.lock.HazelcastLockRegistry;
 import org.springframework.integration.hazelcast.metadata.HazelcastMetadataStore;
 import org.springframework.integration.metadata.ConcurrentMetadataStore;
 import org.springframework.integration.sftp.inbound.SftpStreamingMessageSource;
+import org.springframework.integration.support.leader.LockRegistryLeaderInitiator;
+import org.springframework.integration.support.locks.LockRegistry;
 import org.springframework.integration.test.util.TestUtils;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
@@ -60,9 +65,11 @@ import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.startsWith;
 import static org.hamcrest.Matchers.isOneOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author David Turanski
@@ -174,6 +181,84 @@ public abstract class SftpSourceIntegrationTests extends SftpTestSupport {
 
 	}
 
+	@TestPropertySource(properties = { "file.consumer.mode = ref",
+			"sftp.leader-role = sftpLeader" })
+	public static class LeaderElectionTests extends SftpSourceIntegrationTests {
+
+		@Autowired
+		private LockRegistryLeaderInitiator leaderInitiator;
+
+		@Test
+		public void pollsOnlyWhenLeader() throws Exception {
+			LockRegistry locks = TestUtils.getPropertyValue(this.leaderInitiator, "locks", LockRegistry.class);
+			assertThat(locks, instanceOf(HazelcastLockRegistry.class));
+			int n = 0;
+			while (n++ < 100 && !this.sourcePollingChannelAdapter.isRunning()) {
+				Thread.sleep(100);
+			}
+			assertTrue(this.sourcePollingChannelAdapter.isRunning());
+
+			this.leaderInitiator.stop();
+			n = 0;
+			while (n++ < 100 && this.sourcePollingChannelAdapter.isRunning()) {
+				Thread.sleep(100);
+			}
+			assertFalse(this.sourcePollingChannelAdapter.isRunning());
+
+			// another instance holds the lock
+			Lock lock = locks.obtain("sftpLeader");
+			lock.lock();
+			try {
+				this.leaderInitiator.start();
+				Thread.sleep(1000);
+				assertFalse(this.leaderInitiator.getContext().isLeader());
+				assertFalse(this.sourcePollingChannelAdapter.isRunning());
+			}
+			finally {
+				lock.unlock();
+			}
+			n = 0;
+			while (n++ < 100 && !this.sourcePollingChannelAdapter.isRunning()) {
+				Thread.sleep(100);
+			}
+			assertTrue(this.leaderInitiator.getContext().isLeader());
+			assertTrue(this.sourcePollingChannelAdapter.isRunning());
+		}
+
+	}
+
+	@TestPropertySource(properties = { "sftp.manifest-regex = .*\\.manifest",
+			"sftp.marker-suffixes = .done" })
+	public static class ManifestTests extends SftpSourceIntegrationTests {
+
+		@Test
+		public void failedManifestDoesNotBlockTheOthers() throws Exception {
+			write("bad.manifest", "missing.txt\n");
+			write("bad.manifest.done", "");
+			write("good.manifest", "# the first file\nsftpSource1.txt\n");
+			BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.sftpSource.output());
+			// no marker yet
+			assertNull(messages.poll(2, TimeUnit.SECONDS));
+
+			write("good.manifest.done", "");
+			Message<?> received = messages.poll(10, TimeUnit.SECONDS);
+			assertNotNull(received);
+			Object payload = received.getPayload();
+			String paths = payload instanceof byte[] ? new String((byte[]) payload) : payload.toString();
+			assertThat(paths, containsString("sftpSource1.txt"));
+			assertThat(paths, Matchers.not(containsString("missing.txt")));
+			assertEquals("good.manifest", received.getHeaders().get(FileHeaders.REMOTE_FILE));
+			assertNull(messages.poll(2, TimeUnit.SECONDS));
+		}
+
+		private void write(String name, String content) throws Exception {
+			try (FileOutputStream out = new FileOutputStream(new File(getSourceRemoteDirectory(), name))) {
+				out.write(content.getBytes());
+			}
+		}
+
+	}
+
 	@TestPropertySource(properties = { "sftp.stream = true",
 			"file.consumer.mode = contents",
 			"sftp.delete-remote-files = true" })
@@ -199,6 +284,67 @@ public abstract class SftpSourceIntegrationTests extends SftpTestSupport {
 
 	}
 
+	@TestPropertySource(properties = { "file.consumer.mode = ref",
+			"sftp.delete-remote-files = true",
+			"sftp.async-remote-actions = true" })
+	public static class AsyncDeleteTests extends SftpSourceIntegrationTests {
+
+		@Autowired
+		private ConcurrentMetadataStore metadataStore;
+
+		@Test
+		public void synchronizedFilesAreDeletedInTheBackground() throws Exception {
+			BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.sftpSource.output());
+			for (int i = 1; i <= 2; i++) {
+				assertNotNull(messages.poll(10, TimeUnit.SECONDS));
+			}
+			int n = 0;
+			while (n++ < 100 && (getSourceRemoteDirectory().list().length > 0
+					|| !"2".equals(this.metadataStore.get("sftpRemoteActions/head")))) {
+				Thread.sleep(100);
+			}
+			assertThat(getSourceRemoteDirectory().list().length, equalTo(0)); // deleted
+			// the journal is drained
+			assertEquals("2", this.metadataStore.get("sftpRemoteActions/tail"));
+			assertEquals("2", this.metadataStore.get("sftpRemoteActions/head"));
+			assertNull(messages.poll(10, TimeUnit.MICROSECONDS));
+		}
+
+	}
+
+	@TestPropertySource(properties = { "file.consumer.mode = ref",
+			"sftp.move-to-directory = processed" })
+	public static class MoveToDirectoryTests extends SftpSourceIntegrationTests {
+
+		@Autowired
+		private ConcurrentMetadataStore metadataStore;
+
+		@Test
+		public void synchronizedFilesAreMoved() throws Exception {
+			BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.sftpSource.output());
+			for (int i = 1; i <= 2; i++) {
+				assertNotNull(messages.poll(10, TimeUnit.SECONDS));
+			}
+			File processed = new File(getSourceRemoteDirectory(), "processed");
+			int n = 0;
+			while (n++ < 100 && (!processed.exists() || processed.list().length < 2)) {
+				Thread.sleep(100);
+			}
+			assertTrue(new File(processed, "sftpSource1.txt").exists());
+			assertTrue(new File(processed, "sftpSource2.txt").exists());
+			assertFalse(new File(getSourceRemoteDirectory(), "sftpSource1.txt").exists());
+			assertFalse(new File(getSourceRemoteDirectory(), "sftpSource2.txt").exists());
+			n = 0;
+			while (n++ < 100 && this.metadataStore.get("sftpSource/sftpSource2.txt") != null) {
+				Thread.sleep(100);
+			}
+			assertNull(this.metadataStore.get("sftpSource/sftpSource1.txt"));
+			assertNull(this.metadataStore.get("sftpSource/sftpSource2.txt"));
+			assertNull(messages.poll(10, TimeUnit.MICROSECONDS));
+		}
+
+	}
+
 	@TestPropertySource(properties = { "sftp.stream = true",
 			"sftp.factory.private-key = classpath:id_rsa_pp",
 			"sftp.factory.passphrase = secret",
@@ -412,6 +558,59 @@ public abstract class SftpSourceIntegrationTests extends SftpTestSupport {
 
 	}
 
+	@TestPropertySource(properties = {"file.consumer.mode = ref",
+			"sftp.factories.one.host=localhost",
+			"sftp.factories.one.port=${sftp.factory.port}",
+			"sftp.factories.one.username = user",
+			"sftp.factories.one.password = pass",
+			"sftp.factories.one.cache-sessions = true",
+			"sftp.factories.one.allowUnknownKeys = true",
+			"sftp.factories.two.host=localhost",
+			"sftp.factories.two.port=${sftp.factory.port}",
+			"sftp.factories.two.username = user",
+			"sftp.factories.two.password = pass",
+			"sftp.factories.two.cache-sessions = true",
+			"sftp.factories.two.allowUnknownKeys = true",
+			"sftp.directories=one.sftpSource,two.sftpSecondSource",
+			"sftp.max-fetch=1",
+			"sftp.fair=true",
+			"sftp.move-to-directory = processed"
+	})
+	public static class MultiSourceMoveToDirectoryTests extends SftpSourceIntegrationTests {
+
+		private static File secondFolder;
+
+		@BeforeClass
+		public static void setup() throws Exception {
+			secondFolder = remoteTemporaryFolder.newFolder("sftpSecondSource");
+			File file = new File(secondFolder, "sftpSource3.txt");
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write("source3".getBytes());
+			fos.close();
+		}
+
+		@Test
+		public void filesAreMovedOnTheServerTheyWereSynchronizedFrom() throws Exception {
+			BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.sftpSource.output());
+			for (int i = 1; i <= 3; i++) {
+				assertNotNull(messages.poll(10, TimeUnit.SECONDS));
+			}
+			File processed = new File(getSourceRemoteDirectory(), "processed");
+			File secondProcessed = new File(secondFolder, "processed");
+			int n = 0;
+			while (n++ < 100 && !(new File(processed, "sftpSource1.txt").exists()
+					&& new File(processed, "sftpSource2.txt").exists()
+					&& new File(secondProcessed, "sftpSource3.txt").exists())) {
+				Thread.sleep(100);
+			}
+			assertTrue(new File(processed, "sftpSource1.txt").exists());
+			assertTrue(new File(processed, "sftpSource2.txt").exists());
+			assertTrue(new File(secondProcessed, "sftpSource3.txt").exists());
+			assertFalse(new File(secondFolder, "sftpSource3.txt").exists());
+		}
+
+	}
+
 	@SpringBootApplication
 	public static class SftpSourceApplication {
 
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.source.listing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.file.remote.FileInfo;
+import org.springframework.integration.metadata.SimpleMetadataStore;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpListingBatchesTests {
+
+	@Test
+	public void filesAreSplitIntoBatches() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setListBatchSize(2);
+		SimpleMetadataStore metadataStore = new SimpleMetadataStore();
+		SftpListingBatches listingBatches = new SftpListingBatches(properties, metadataStore);
+		List<Message<List<SftpFileRecord>>> batches = listingBatches.batches(listing("a.csv", "b.csv", "d.csv"));
+		assertThat(batches.size(), equalTo(2));
+		assertThat(paths(batches.get(0)), equalTo("[/in/a.csv, /in/b.csv]"));
+		assertThat(paths(batches.get(1)), equalTo("[/in/d.csv]"));
+		assertThat(batches.get(0).getHeaders().get(MessageHeaders.CONTENT_TYPE),
+				equalTo(MimeTypeUtils.APPLICATION_JSON));
+		SftpFileRecord record = batches.get(0).getPayload().get(0);
+		assertThat(record.getSize(), equalTo(5L));
+		assertThat(record.getMtime(), equalTo(1000L));
+		assertThat(record.getPermissions(), equalTo("-rw-r--r--"));
+		// marked once sent
+		assertNull(metadataStore.get("/in/a.csv"));
+	}
+
+	@Test
+	public void onlyTheBatchesSentAreMarked() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setListBatchSize(2);
+		SimpleMetadataStore metadataStore = new SimpleMetadataStore();
+		SftpListingBatches listingBatches = new SftpListingBatches(properties, metadataStore);
+		AtomicInteger sends = new AtomicInteger();
+		DirectChannel channel = new DirectChannel();
+		channel.addInterceptor(listingBatches.afterSend());
+		channel.subscribe(message -> {
+			if (sends.incrementAndGet() == 2) {
+				throw new MessagingException(message, "binder unavailable");
+			}
+		});
+		List<Message<List<SftpFileRecord>>> batches =
+				listingBatches.batches(listing("a.csv", "b.csv", "c.csv", "d.csv", "e.csv"));
+		try {
+			// as the splitter does, the batches after a failed send are not sent
+			batches.forEach(channel::send);
+			fail("expected MessagingException");
+		}
+		catch (MessagingException e) {
+			// expected
+		}
+		// the files emitted are marked with the key of the per-path messages
+		assertNotNull(metadataStore.get("/in/a.csv"));
+		assertNotNull(metadataStore.get("/in/b.csv"));
+		assertNull(metadataStore.get("/in/c.csv"));
+		assertNull(metadataStore.get("/in/d.csv"));
+		assertNull(metadataStore.get("/in/e.csv"));
+	}
+
+	private static String paths(Message<List<SftpFileRecord>> batch) {
+		return batch.getPayload().stream().map(SftpFileRecord::getPath).collect(Collectors.toList()).toString();
+	}
+
+	private static Message<?> listing(String... names) {
+		List<FileInfo<?>> files = new ArrayList<>();
+		for (String name : names) {
+			FileInfo<?> file = mock(FileInfo.class);
+			when(file.getFilename()).thenReturn(name);
+			when(file.getSize()).thenReturn(5L);
+			when(file.getModified()).thenReturn(1000L);
+			when(file.getPermissions()).thenReturn("-rw-r--r--");
+			files.add(file);
+		}
+		return MessageBuilder.withPayload(files)
+				.setHeader(FileHeaders.REMOTE_DIRECTORY, "/in/")
+				.build();
+	}
+
+}
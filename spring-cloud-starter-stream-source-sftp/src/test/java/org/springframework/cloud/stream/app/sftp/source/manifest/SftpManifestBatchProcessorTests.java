@@ -0,0 +1,204 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.source.manifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.cloud.stream.app.sftp.common.metrics.SftpMetrics;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.metadata.SimpleMetadataStore;
+import org.springframework.messaging.Message;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpManifestBatchProcessorTests {
+
+	@Rule
+	public TemporaryFolder localFolder = new TemporaryFolder();
+
+	private final SimpleMetadataStore metadataStore = new SimpleMetadataStore();
+
+	private final QueueChannel output = new QueueChannel();
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private Session<LsEntry> session;
+
+	private SessionFactory<LsEntry> sessionFactory;
+
+	private SftpManifestBatchProcessor processor;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		this.session = mock(Session.class);
+		this.sessionFactory = mock(SessionFactory.class);
+		when(this.sessionFactory.getSession()).thenReturn(this.session);
+		when(this.session.list("/in/")).thenReturn(new LsEntry[] { entry("batch.manifest"), entry("a.csv") });
+		content("/in/batch.manifest", "a.csv\n# a comment\n\nsub/b.csv\n");
+		content("/in/a.csv", "A");
+		content("/in/sub/b.csv", "B");
+	}
+
+	@After
+	public void tearDown() {
+		if (this.processor != null) {
+			this.processor.destroy();
+		}
+	}
+
+	@Test
+	public void batchIsEmittedOnceAsOneMessage() throws Exception {
+		this.processor = processor(properties());
+		assertThat(this.processor.process("/in", null), equalTo(1));
+		Message<?> batch = this.output.receive(0);
+		assertNotNull(batch);
+		List<?> files = (List<?>) batch.getPayload();
+		assertThat(files.size(), equalTo(2));
+		assertThat(read(files.get(0)), equalTo("A"));
+		assertThat(read(files.get(1)), equalTo("B"));
+		assertThat(new File((String) files.get(1)).getParentFile().getParentFile().getName(), equalTo("batch"));
+		assertThat(batch.getHeaders().get(FileHeaders.REMOTE_FILE), equalTo("batch.manifest"));
+		assertThat(this.processor.process("/in/", null), equalTo(0));
+		assertNull(this.output.receive(0));
+		verify(this.session, never()).remove(any());
+	}
+
+	@Test
+	public void batchIsEmittedAsASequence() throws Exception {
+		SftpSourceProperties properties = properties();
+		properties.setManifestOutput(SftpSourceProperties.ManifestOutput.sequence);
+		properties.setDeleteRemoteFiles(true);
+		this.processor = processor(properties);
+		assertThat(this.processor.process("/in/", null), equalTo(1));
+		for (int i = 1; i <= 2; i++) {
+			Message<?> message = this.output.receive(0);
+			assertNotNull(message);
+			assertThat(message.getHeaders().get(IntegrationMessageHeaderAccessor.CORRELATION_ID),
+					equalTo("/in/batch.manifest"));
+			assertThat(message.getHeaders().get(IntegrationMessageHeaderAccessor.SEQUENCE_NUMBER), equalTo(i));
+			assertThat(message.getHeaders().get(IntegrationMessageHeaderAccessor.SEQUENCE_SIZE), equalTo(2));
+		}
+		verify(this.session).remove("/in/a.csv");
+		verify(this.session).remove("/in/sub/b.csv");
+		verify(this.session).remove("/in/batch.manifest");
+	}
+
+	@Test
+	public void sameNamedManifestsOfDifferentDirectoriesDoNotCollide() throws Exception {
+		when(this.session.list("/other/")).thenReturn(new LsEntry[] { entry("batch.manifest") });
+		content("/other/batch.manifest", "a.csv\n");
+		content("/other/a.csv", "other A");
+		this.processor = processor(properties());
+		assertThat(this.processor.process("/in/", null), equalTo(1));
+		assertThat(this.processor.process("/other/", null), equalTo(1));
+		List<?> in = (List<?>) this.output.receive(0).getPayload();
+		List<?> other = (List<?>) this.output.receive(0).getPayload();
+		assertThat(read(in.get(0)), equalTo("A"));
+		assertThat(read(other.get(0)), equalTo("other A"));
+		assertThat(new File((String) other.get(0)).getParentFile(),
+				equalTo(new File(this.localFolder.getRoot(), "other" + File.separator + "batch")));
+	}
+
+	@Test
+	public void failedBatchIsCountedAndRetried() throws Exception {
+		doThrow(new IOException("No such file")).when(this.session).read(eq("/in/sub/b.csv"), any(OutputStream.class));
+		this.processor = processor(properties());
+		assertThat(this.processor.process("/in/", null), equalTo(0));
+		assertNull(this.output.receive(0));
+		assertThat(this.registry.get("sftp.source.manifest.failed").counter().count(), equalTo(1.0));
+		content("/in/sub/b.csv", "B");
+		assertThat(this.processor.process("/in/", null), equalTo(1));
+		assertNotNull(this.output.receive(0));
+	}
+
+	@Test
+	public void entriesOutsideTheBatchDirectoryAreRejected() throws Exception {
+		content("/in/batch.manifest", "a.csv\n../../escaped.csv\n");
+		this.processor = processor(properties());
+		assertThat(this.processor.process("/in/", null), equalTo(0));
+		assertThat(new File(this.localFolder.getRoot().getParentFile(), "escaped.csv").exists(), equalTo(false));
+	}
+
+	private SftpManifestBatchProcessor processor(SftpSourceProperties properties) {
+		return new SftpManifestBatchProcessor(this.sessionFactory, properties, this.metadataStore, this.output,
+				new SftpMetrics(this.registry));
+	}
+
+	private SftpSourceProperties properties() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setManifestRegex(Pattern.compile(".*\\.manifest"));
+		properties.setLocalDir(this.localFolder.getRoot());
+		return properties;
+	}
+
+	private void content(String path, String content) throws IOException {
+		doAnswer(invocation -> {
+			invocation.<OutputStream>getArgument(1).write(content.getBytes(StandardCharsets.UTF_8));
+			return null;
+		}).when(this.session).read(eq(path), any(OutputStream.class));
+	}
+
+	private static String read(Object path) throws IOException {
+		return new String(Files.readAllBytes(new File((String) path).toPath()), StandardCharsets.UTF_8);
+	}
+
+	private static LsEntry entry(String name) {
+		LsEntry entry = mock(LsEntry.class);
+		SftpATTRS attrs = mock(SftpATTRS.class);
+		when(entry.getFilename()).thenReturn(name);
+		when(entry.getAttrs()).thenReturn(attrs);
+		when(attrs.getMTime()).thenReturn(10);
+		return entry;
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.source.reactive;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
+import org.springframework.cloud.stream.app.test.sftp.SftpTestSupport;
+import org.springframework.cloud.stream.messaging.Source;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.integration.support.leader.LockRegistryLeaderInitiator;
+import org.springframework.messaging.Message;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 2.1.6
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = {
+				"sftp.remoteDir = sftpSource",
+				"sftp.factory.username = foo",
+				"sftp.factory.password = foo",
+				"sftp.factory.allowUnknownKeys = true",
+				"file.consumer.mode = ref",
+				"sftp.reactive = true",
+				"sftp.reactive-idle-delay = 100ms",
+				"sftp.leader-role = sftpReactiveLeader",
+				"sftp.factories.one.host=localhost",
+				"sftp.factories.one.port=${sftp.factory.port}",
+				"sftp.factories.one.username = user",
+				"sftp.factories.one.password = pass",
+				"sftp.factories.one.allowUnknownKeys = true",
+				"sftp.factories.two.host=localhost",
+				"sftp.factories.two.port=${sftp.factory.port}",
+				"sftp.factories.two.username = user",
+				"sftp.factories.two.password = pass",
+				"sftp.factories.two.allowUnknownKeys = true",
+				"sftp.directories=one.sftpSource,two.sftpSecondSource"
+		})
+@DirtiesContext
+public class SftpReactiveFileSourceIntegrationTests extends SftpTestSupport {
+
+	@Autowired
+	private MessageCollector messageCollector;
+
+	@Autowired
+	private Source sftpSource;
+
+	@Autowired
+	private SftpSourceProperties config;
+
+	@Autowired
+	private SftpReactiveFileSource reactiveFileSource;
+
+	@Autowired
+	private LockRegistryLeaderInitiator leaderInitiator;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		File secondFolder = remoteTemporaryFolder.newFolder("sftpSecondSource");
+		write(new File(secondFolder, "sftpSource3.txt"), "source3");
+	}
+
+	@Test
+	public void filesOfEachServerAreFetchedToTheirOwnDirectoryByTheLeader() throws Exception {
+		BlockingQueue<Message<?>> messages = this.messageCollector.forChannel(this.sftpSource.output());
+		Set<File> received = new HashSet<>();
+		for (int i = 1; i <= 3; i++) {
+			received.add(payload(messages.poll(10, TimeUnit.SECONDS)));
+		}
+		File one = new File(this.config.getLocalDir(), "one");
+		File two = new File(this.config.getLocalDir(), "two");
+		Set<File> expected = new HashSet<>();
+		expected.add(new File(one, "sftpSource1.txt"));
+		expected.add(new File(one, "sftpSource2.txt"));
+		expected.add(new File(two, "sftpSource3.txt"));
+		assertThat(received, equalTo(expected));
+		assertThat(new String(Files.readAllBytes(Paths.get(two.getPath(), "sftpSource3.txt"))), equalTo("source3"));
+		assertTrue(this.reactiveFileSource.isRunning());
+
+		this.leaderInitiator.stop();
+		int n = 0;
+		while (n++ < 100 && this.reactiveFileSource.isRunning()) {
+			Thread.sleep(100);
+		}
+		assertFalse(this.reactiveFileSource.isRunning());
+		write(new File(getSourceRemoteDirectory(), "sftpSource4.txt"), "source4");
+		assertNull(messages.poll(2, TimeUnit.SECONDS));
+
+		this.leaderInitiator.start();
+		assertThat(payload(messages.poll(10, TimeUnit.SECONDS)), equalTo(new File(one, "sftpSource4.txt")));
+	}
+
+	private File payload(Message<?> message) throws Exception {
+		assertNotNull(message);
+		return this.objectMapper.readValue((String) message.getPayload(), File.class);
+	}
+
+	private static void write(File file, String content) throws Exception {
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(content.getBytes());
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.app.sftp.source.reactive;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpLsEntries;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
+import org.springframework.integration.file.filters.ChainFileListFilter;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.SubscribableChannel;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @since 2.1.6
+ */
+public class SftpReactiveFileSourceTests {
+
+	@Rule
+	public TemporaryFolder localDir = new TemporaryFolder();
+
+	@Test
+	public void downloadsStopWhileTheOutputIsBlocked() throws Exception {
+		SftpSourceProperties properties = properties();
+		properties.setRemoteDir("/in");
+		AtomicInteger reads = new AtomicInteger();
+		SftpReactiveFileSource reactiveFileSource = new SftpReactiveFileSource(sessionFactory(20, reads), properties,
+				tags -> new ChainFileListFilter<>());
+		CountDownLatch blocked = new CountDownLatch(1);
+		BlockingQueue<Message<?>> sent = new LinkedBlockingQueue<>();
+		((SubscribableChannel) reactiveFileSource.getOutputChannel()).subscribe(message -> {
+			sent.add(message);
+			try {
+				blocked.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MessagingException(message, e);
+			}
+		});
+		try {
+			reactiveFileSource.start();
+			int n = 0;
+			while (n++ < 100 && sent.isEmpty()) {
+				Thread.sleep(100);
+			}
+			Thread.sleep(500);
+			// the files being fetched, and the files fetched waiting to be sent
+			assertTrue("read " + reads.get() + " files", reads.get() <= 2 * properties.getReactiveConcurrency() + 1);
+			blocked.countDown();
+			n = 0;
+			while (n++ < 100 && sent.size() < 20) {
+				Thread.sleep(100);
+			}
+			assertThat(sent.size(), equalTo(20));
+			assertThat(reads.get(), equalTo(20));
+		}
+		finally {
+			blocked.countDown();
+			reactiveFileSource.destroy();
+		}
+	}
+
+	@Test
+	public void filtersAreTaggedWithTheServerAndDirectoryListed() throws Exception {
+		SftpSourceProperties properties = properties();
+		properties.setDirectories(new String[] { "one.in", "two.in" });
+		Set<List<String>> listed = ConcurrentHashMap.newKeySet();
+		SftpReactiveFileSource reactiveFileSource = new SftpReactiveFileSource(sessionFactory(0, new AtomicInteger()),
+				properties, tags -> {
+					ChainFileListFilter<LsEntry> filter = new ChainFileListFilter<>();
+					filter.addFilter(files -> {
+						listed.add(Arrays.asList(tags.apply(null)));
+						return Arrays.asList(files);
+					});
+					return filter;
+				});
+		try {
+			reactiveFileSource.start();
+			int n = 0;
+			while (n++ < 100 && listed.size() < 2) {
+				Thread.sleep(100);
+			}
+			assertTrue(listed.contains(Arrays.asList("server", "one", "directory", "in")));
+			assertTrue(listed.contains(Arrays.asList("server", "two", "directory", "in")));
+			assertThat(listed.size(), equalTo(2));
+		}
+		finally {
+			reactiveFileSource.destroy();
+		}
+	}
+
+	private SftpSourceProperties properties() {
+		SftpSourceProperties properties = new SftpSourceProperties();
+		properties.setLocalDir(this.localDir.getRoot());
+		properties.setReactiveConcurrency(2);
+		properties.setReactiveIdleDelay(Duration.ofMillis(100));
+		return properties;
+	}
+
+	/**
+	 * A server with {@code count} files, listed once.
+	 */
+	@SuppressWarnings("unchecked")
+	private static SessionFactory<LsEntry> sessionFactory(int count, AtomicInteger reads) throws Exception {
+		LsEntry[] files = new LsEntry[count];
+		for (int i = 0; i < count; i++) {
+			files[i] = SftpLsEntries.of("file" + i, "file" + i, 1, 0, 0, 0100644, 0, 0);
+		}
+		Session<LsEntry> session = mock(Session.class);
+		when(session.list(anyString())).thenReturn(files, new LsEntry[0]);
+		willAnswer(invocation -> {
+			reads.incrementAndGet();
+			invocation.<OutputStream>getArgument(1).write('x');
+			return null;
+		}).given(session).read(anyString(), any(OutputStream.class));
+		SessionFactory<LsEntry> sessionFactory = mock(SessionFactory.class);
+		when(sessionFactory.getSession()).thenReturn(session);
+		return sessionFactory;
+	}
+
+}
@@ -22,8 +22,14 @@ import org.junit.Test;
 
 import org.springframework.cloud.stream.app.sftp.common.source.SftpSourceProperties;
 import org.springframework.cloud.stream.app.sftp.source.task.SftpSourceTaskProperties;
+import org.springframework.cloud.task.launcher.TaskLaunchRequest;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.handler.MessageProcessor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -100,4 +106,29 @@ public class SftpSourceTaskLauncherParsingTests {
 		assertEquals("Invalid deployment value", "other1,other2", deploymentProperties.get("app.sftp.other.param"));
 	}
 
+	@Test
+	public void testRequestsWithoutServerKeyUseTheDefaultServerAndTheirOwnMaps() {
+		SftpSourceProperties sftpSourceProperties = new SftpSourceProperties();
+		sftpSourceProperties.setDirectories(new String[] { "one.in" });
+		sftpSourceProperties.getFactory().setHost("default.host");
+		SftpSourceTaskProperties sftpSourceTaskProperties = new SftpSourceTaskProperties();
+		sftpSourceTaskProperties.setDeploymentProperties("app.sftp.param=value");
+
+		MessageProcessor<Message<?>> transformer = new SftpSourceTaskLauncherConfiguration(sftpSourceProperties,
+			sftpSourceTaskProperties).standaloneTaskLaunchRequestTransformer();
+		Message<String> message = MessageBuilder.withPayload("a.txt")
+			.setHeader(FileHeaders.REMOTE_DIRECTORY, "/in/")
+			.build();
+
+		TaskLaunchRequest first = (TaskLaunchRequest) transformer.processMessage(message).getPayload();
+		TaskLaunchRequest second = (TaskLaunchRequest) transformer.processMessage(message).getPayload();
+		assertEquals("Invalid host", "default.host",
+			first.getEnvironmentProperties().get(SftpSourceTaskLauncherConfiguration.SFTP_HOST_PROPERTY_KEY));
+		first.getEnvironmentProperties().put("app.changed", "true");
+		first.getDeploymentProperties().put("app.changed", "true");
+		assertNotSame(first.getEnvironmentProperties(), second.getEnvironmentProperties());
+		assertTrue("Shared environment", !second.getEnvironmentProperties().containsKey("app.changed"));
+		assertTrue("Shared deployment properties", !second.getDeploymentProperties().containsKey("app.changed"));
+	}
+
 }